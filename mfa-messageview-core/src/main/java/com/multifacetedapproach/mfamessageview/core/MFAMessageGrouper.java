@@ -0,0 +1,268 @@
+/*******************************************************************************
+ * Copyright 2016 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decides which timestamps and names are displayed in a list of messages, so
+ * that the timestamp isn't shown in every single cell and a name is only shown
+ * on the first of a string of messages from the same person. Keeps the parsed
+ * time and name of every message, in the same order as the messages.
+ */
+public class MFAMessageGrouper
+{
+   // Ten minutes represented in milliseconds
+   public static final long TEN_MINUTES = 600000;
+   // Initial capacity of the time and name arrays
+   private static final int INITIAL_CAPACITY = 16;
+   // Parses and formats timestamps
+   private final MFATimeFormatter _formatter;
+   // Timestamps converted to milliseconds, 0 where a timestamp couldn't be parsed
+   private long[] _times = new long[INITIAL_CAPACITY];
+   // Names associated with the messages
+   private String[] _names = new String[INITIAL_CAPACITY];
+   // Number of messages grouped
+   private int _size = 0;
+
+   public MFAMessageGrouper()
+   {
+      this(new MFATimeFormatter());
+   }
+
+   /**
+    * @param formatter formatter used to parse and format timestamps
+    */
+   public MFAMessageGrouper(MFATimeFormatter formatter)
+   {
+      _formatter = formatter;
+   }
+
+   /**
+    * Get the formatter used to parse and format timestamps
+    * @return time formatter
+    */
+   public MFATimeFormatter getTimeFormatter()
+   {
+      return _formatter;
+   }
+
+   /**
+    * Get the number of messages grouped
+    * @return number of messages
+    */
+   public int size()
+   {
+      return _size;
+   }
+
+   /**
+    * Get the time of a message
+    * @param position index position of the message
+    * @return time in milliseconds, or 0 if its timestamp couldn't be parsed
+    */
+   public long getTimeInMillis(int position)
+   {
+      return (position >= 0 && position < _size) ? _times[position] : 0;
+   }
+
+   /**
+    * Configure a message added after all others: format its timestamp in a
+    * terse format and decide whether its timestamp and name are displayed.
+    * @param message message to be configured
+    */
+   public void append(MFAMessageMetadata message)
+   {
+      long time = _formatter.parse(message.getTimestamp());
+      append(message, time, (time != 0) ? _formatter.format(time) : null);
+   }
+
+   /**
+    * Configure messages added after all others, like append, from times and
+    * terse timestamps worked out beforehand. Parsing and formatting is most of
+    * the work of grouping and each message can be done independently, so it can
+    * be spread across threads with an MFATimeFormatter each; this leaves only
+    * the comparisons between neighbouring messages, which have to run in order.
+    * @param messages messages to be configured, oldest first
+    * @param times time of each message in milliseconds, 0 if its timestamp couldn't be parsed
+    * @param timestamps terse timestamp of each message, unused where its time is 0
+    */
+   public void appendAll(List<? extends MFAMessageMetadata> messages, long[] times, String[] timestamps)
+   {
+      ensureCapacity(_size + messages.size());
+      for (int i = 0; i < messages.size(); i++)
+      {
+         append(messages.get(i), times[i], timestamps[i]);
+      }
+   }
+
+   private void append(MFAMessageMetadata message, long time, String timestamp)
+   {
+      // If time equals zero, our timestamp did not match
+      // our SimpleDateFormat template.
+      if (time != 0)
+      {
+         if (_size > 0)
+         {
+            // Calculates the difference in milliseconds between a message and it's previous
+            // message. This is done so that the timestamp isn't shown in every single cell.
+            long delta = time - _times[_size - 1];
+            // Only display if more than 10 minutes has elapsed since previous message
+            message.setTimeVisible(delta > TEN_MINUTES);
+         }
+         else
+         {  // First message in queue
+            message.setTimeVisible(true);
+         }
+         message.setTimestamp(timestamp);
+      }
+      // Only consider displaying the name if it's non-null, not empty, and not the sender
+      // as the sender should only be the current user.
+      String name = message.getName();
+      if (name != null && !name.isEmpty() && !message.getIsSender())
+      {
+         if (_size > 0)
+         {
+            String previousName = _names[_size - 1];
+            // This check is done so that if a string of messages arrive from the same
+            // entity in a row we only display the name of the with the first message of that
+            // string.
+            message.setNameVisible(previousName == null || !previousName.equalsIgnoreCase(name));
+         }
+         else
+         {
+            // First message received
+            message.setNameVisible(true);
+         }
+      }
+
+      ensureCapacity(_size + 1);
+      _times[_size] = time;
+      _names[_size] = name;
+      _size++;
+   }
+
+   /**
+    * Put the messages of another grouper before all of this one's, as when
+    * older messages are loaded after newer ones. Both sets of messages keep
+    * their configuration except this grouper's first message, which is
+    * reconfigured now that it has a previous message.
+    * @param older grouper holding the older messages, which is left unchanged
+    * @param first message currently first in this grouper, or null if it's empty
+    * @return true if first changed and should be redisplayed, false otherwise
+    */
+   public boolean prepend(MFAMessageGrouper older, MFAMessageMetadata first)
+   {
+      int count = older._size;
+      if (count == 0) return false;
+      long[] times = new long[Math.max(_size + count, INITIAL_CAPACITY)];
+      String[] names = new String[times.length];
+      System.arraycopy(older._times, 0, times, 0, count);
+      System.arraycopy(older._names, 0, names, 0, count);
+      System.arraycopy(_times, 0, times, count, _size);
+      System.arraycopy(_names, 0, names, count, _size);
+      _times = times;
+      _names = names;
+      _size += count;
+      if (first == null || _size == count) return false;
+
+      boolean update = false;
+      long time = _times[count];
+      // The first message's timestamp was always displayed, now it depends on the previous message
+      if (time != 0)
+      {
+         boolean timeVisible = time - _times[count - 1] > TEN_MINUTES;
+         update = timeVisible != first.getTimeVisible();
+         first.setTimeVisible(timeVisible);
+      }
+      String name = first.getName();
+      if (name != null && !name.isEmpty() && !first.getIsSender())
+      {
+         String previousName = _names[count - 1];
+         boolean nameVisible = previousName == null || !previousName.equalsIgnoreCase(name);
+         if (nameVisible != first.getNameVisible()) update = true;
+         first.setNameVisible(nameVisible);
+      }
+      return update;
+   }
+
+   /**
+    * Remove a message, and reconfigure the message that takes its place.
+    * @param position index position of the removed message
+    * @param removed message that was removed
+    * @param next message now at position, or null if the removed message was the last
+    * @return true if next changed and should be redisplayed, false otherwise
+    */
+   public boolean remove(int position, MFAMessageMetadata removed, MFAMessageMetadata next)
+   {
+      if (position >= 0 && position < _size)
+      {
+         System.arraycopy(_times, position + 1, _times, position, _size - position - 1);
+         System.arraycopy(_names, position + 1, _names, position, _size - position - 1);
+         _size--;
+         _names[_size] = null;
+      }
+      if (next == null) return false;
+
+      // The next message takes over the removed message's timestamp
+      boolean timeVisible = removed.getTimeVisible();
+      next.setTimeVisible(timeVisible);
+      boolean update = timeVisible;
+      // Only consider displaying the name if it's non-null, not empty, and not the sender
+      // as the sender should only be the current user.
+      String name = next.getName();
+      if (name != null && !name.isEmpty() && !next.getIsSender())
+      {
+         if (_size > 0 && position > 0)
+         {
+            String previousName = _names[position - 1];
+            if (previousName != null)
+            {
+               boolean setVisible = !previousName.equalsIgnoreCase(name);
+               next.setNameVisible(setVisible);
+               if (setVisible) update = true;
+            }
+         }
+         else
+         {
+            // First message received
+            next.setNameVisible(true);
+            update = true;
+         }
+      }
+      return update;
+   }
+
+   /**
+    * Remove all messages
+    */
+   public void clear()
+   {
+      // Release the arrays rather than keep capacity for what may have been a huge conversation
+      _times = new long[INITIAL_CAPACITY];
+      _names = new String[INITIAL_CAPACITY];
+      _size = 0;
+   }
+
+   private void ensureCapacity(int capacity)
+   {
+      if (capacity <= _times.length) return;
+      int newCapacity = Math.max(capacity, _times.length * 2);
+      _times = Arrays.copyOf(_times, newCapacity);
+      _names = Arrays.copyOf(_names, newCapacity);
+   }
+}
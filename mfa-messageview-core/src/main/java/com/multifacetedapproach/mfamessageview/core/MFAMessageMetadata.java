@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright 2016 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview.core;
+
+/**
+ * The parts of a message the grouping engine reads and configures. Implemented
+ * by MFAMessage in the Android library; kept free of Android types so grouping
+ * can run, be tested and be profiled on a plain JVM.
+ */
+public interface MFAMessageMetadata
+{
+   /**
+    * Get the name associated with the message.
+    * @return name associated with message
+    */
+   String getName();
+
+   /**
+    * Get whether the message was sent by the current user.
+    * @return true if message was sent, false if received
+    */
+   boolean getIsSender();
+
+   /**
+    * Get the timestamp of the message, either as provided or once configured,
+    * in its terse display format.
+    * @return timestamp of message
+    */
+   String getTimestamp();
+
+   void setTimestamp(String time);
+
+   boolean getTimeVisible();
+
+   void setTimeVisible(boolean timeVisible);
+
+   boolean getNameVisible();
+
+   void setNameVisible(boolean nameVisible);
+}
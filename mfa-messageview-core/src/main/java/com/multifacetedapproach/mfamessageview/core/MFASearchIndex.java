@@ -0,0 +1,464 @@
+/*******************************************************************************
+ * Copyright 2016 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Token index over the text of a list of messages, kept in step with the list
+ * as messages are appended, prepended and removed. Queries match every message
+ * containing a word starting with each word of the query, ignoring case, and
+ * return their positions in order.
+ * <p>
+ * Each message is given a slot when it's added: after every slot given out when
+ * appended, before them when prepended, so slots are in the same order as the
+ * messages, and a Fenwick tree counting the live slots converts between slots
+ * and positions in O(log n). Room is kept before the first slot so prepending
+ * older messages only indexes their own text. Removed messages are left in the
+ * token lists and skipped, until they make up most of the index and it's
+ * compacted. Not thread safe.
+ */
+public class MFASearchIndex
+{
+   // Initial number of slots
+   private static final int INITIAL_CAPACITY = 16;
+   // Compact once this many removed slots outnumber the live ones
+   private static final int MIN_COMPACT = 1024;
+   // Lower case token to the slots of the messages containing it, ascending
+   private final TreeMap<String, IntList> _tokens = new TreeMap<>();
+   // True for slots holding a message that hasn't been removed
+   private boolean[] _live = new boolean[INITIAL_CAPACITY];
+   // Fenwick tree over _live, 1-based
+   private int[] _tree = new int[INITIAL_CAPACITY + 1];
+   // Slots given out are [_head, _tail)
+   private int _head = 0;
+   private int _tail = 0;
+   // Number of messages indexed
+   private int _size = 0;
+   // Reused while tokenizing
+   private final StringBuilder _token = new StringBuilder();
+
+   /**
+    * Get the number of messages indexed.
+    * @return number of messages
+    */
+   public int size()
+   {
+      return _size;
+   }
+
+   /**
+    * Index a message added after every message already indexed.
+    * @param text text of the message, may be null or empty
+    */
+   public void append(String text)
+   {
+      if (_tail == _live.length) grow();
+      int slot = _tail++;
+      _live[slot] = true;
+      add(slot, 1);
+      _size++;
+      indexText(slot, text, false);
+   }
+
+   /**
+    * Index messages added before every message already indexed, e.g. a page of
+    * older history. Only their own text is tokenized.
+    * @param texts text of the messages, oldest first; each may be null or empty
+    */
+   public void prepend(List<String> texts)
+   {
+      int count = texts.size();
+      if (count == 0) return;
+      if (_head < count) makeRoomAtHead(count);
+      // Newest first, so each token list stays ascending as slots are added to its front
+      for (int i = count - 1; i >= 0; i--)
+      {
+         int slot = --_head;
+         _live[slot] = true;
+         add(slot, 1);
+         _size++;
+         indexText(slot, texts.get(i), true);
+      }
+   }
+
+   /**
+    * Helper method that adds a message's words to the token lists.
+    * @param slot slot of the message
+    * @param text text of the message, may be null
+    * @param first true if slot is before every slot listed, false if it's after them
+    */
+   private void indexText(int slot, String text, boolean first)
+   {
+      if (text == null) return;
+      int length = text.length();
+      int i = 0;
+      while (i < length)
+      {
+         while (i < length && !Character.isLetterOrDigit(text.charAt(i))) i++;
+         if (i == length) break;
+         _token.setLength(0);
+         while (i < length && Character.isLetterOrDigit(text.charAt(i)))
+         {
+            _token.append(Character.toLowerCase(text.charAt(i)));
+            i++;
+         }
+         String token = _token.toString();
+         IntList slots = _tokens.get(token);
+         if (slots == null)
+         {
+            slots = new IntList();
+            _tokens.put(token, slots);
+         }
+         // A word repeated in the same message is only listed once
+         if (first)
+         {
+            if (slots.isEmpty() || slots.first() != slot) slots.addFirst(slot);
+         }
+         else if (slots.isEmpty() || slots.last() != slot)
+         {
+            slots.add(slot);
+         }
+      }
+   }
+
+   /**
+    * Remove the message at a position from the index.
+    * @param position position of the message
+    */
+   public void remove(int position)
+   {
+      if (position < 0 || position >= _size) throw new IndexOutOfBoundsException("position " + position + ", size " + _size);
+      int slot = slotAt(position);
+      _live[slot] = false;
+      add(slot, -1);
+      _size--;
+      int removed = _tail - _head - _size;
+      if (removed > MIN_COMPACT && removed > _size) compact();
+   }
+
+   /**
+    * Remove every message from the index.
+    */
+   public void clear()
+   {
+      _tokens.clear();
+      _live = new boolean[INITIAL_CAPACITY];
+      _tree = new int[INITIAL_CAPACITY + 1];
+      _head = 0;
+      _tail = 0;
+      _size = 0;
+   }
+
+   /**
+    * Find the messages containing, for every word in the query, a word that
+    * starts with it.
+    * @param query words to look for
+    * @return positions of the matching messages, ascending
+    */
+   public int[] search(String query)
+   {
+      List<String> terms = tokenize(query);
+      if (terms.isEmpty() || _size == 0) return new int[0];
+      BitSet result = null;
+      for (int t = 0; t < terms.size(); t++)
+      {
+         BitSet matches = new BitSet(_tail);
+         for (IntList slots : prefixRange(terms.get(t)).values())
+         {
+            for (int i = slots.start; i < slots.end; i++)
+            {
+               int slot = slots.data[i];
+               if (_live[slot]) matches.set(slot);
+            }
+         }
+         if (result == null)
+         {
+            result = matches;
+         }
+         else
+         {
+            result.and(matches);
+         }
+         if (result.isEmpty()) return new int[0];
+      }
+      int[] positions = new int[result.cardinality()];
+      // Slots are in message order, so counting the live slots as we go gives positions
+      int i = 0;
+      int position = -1;
+      int previous = -1;
+      for (int slot = result.nextSetBit(0); slot >= 0; slot = result.nextSetBit(slot + 1))
+      {
+         position += countLive(previous + 1, slot + 1);
+         positions[i++] = position;
+         previous = slot;
+      }
+      return positions;
+   }
+
+   /**
+    * Split text into lower case words, the way messages are indexed.
+    * @param text text to split, may be null
+    * @return words in the order they appear
+    */
+   public static List<String> tokenize(String text)
+   {
+      List<String> tokens = new ArrayList<>();
+      if (text == null) return tokens;
+      int length = text.length();
+      int i = 0;
+      while (i < length)
+      {
+         while (i < length && !Character.isLetterOrDigit(text.charAt(i))) i++;
+         int start = i;
+         while (i < length && Character.isLetterOrDigit(text.charAt(i))) i++;
+         if (i > start)
+         {
+            StringBuilder token = new StringBuilder(i - start);
+            for (int j = start; j < i; j++) token.append(Character.toLowerCase(text.charAt(j)));
+            tokens.add(token.toString());
+         }
+      }
+      return tokens;
+   }
+
+   /**
+    * Find the parts of a message's text matched by a query, for highlighting.
+    * @param text text of the message, may be null
+    * @param terms words of the query, from {@link #tokenize(String)}
+    * @return start and end offsets of each matched prefix, in pairs; empty if nothing matches
+    */
+   public static int[] findMatches(String text, List<String> terms)
+   {
+      if (text == null || terms.isEmpty()) return new int[0];
+      int[] ranges = new int[8];
+      int count = 0;
+      int length = text.length();
+      int i = 0;
+      while (i < length)
+      {
+         while (i < length && !Character.isLetterOrDigit(text.charAt(i))) i++;
+         int start = i;
+         while (i < length && Character.isLetterOrDigit(text.charAt(i))) i++;
+         if (i == start) continue;
+         // Highlight the longest term the word starts with
+         int matched = 0;
+         for (int t = 0; t < terms.size(); t++)
+         {
+            String term = terms.get(t);
+            if (term.length() > matched && term.length() <= i - start && startsWithIgnoreCase(text, start, term))
+            {
+               matched = term.length();
+            }
+         }
+         if (matched == 0) continue;
+         if (count + 2 > ranges.length) ranges = Arrays.copyOf(ranges, ranges.length * 2);
+         ranges[count++] = start;
+         ranges[count++] = start + matched;
+      }
+      return Arrays.copyOf(ranges, count);
+   }
+
+   private static boolean startsWithIgnoreCase(String text, int offset, String lowerCaseTerm)
+   {
+      for (int j = 0; j < lowerCaseTerm.length(); j++)
+      {
+         if (Character.toLowerCase(text.charAt(offset + j)) != lowerCaseTerm.charAt(j)) return false;
+      }
+      return true;
+   }
+
+   /**
+    * Helper method that returns the tokens starting with a prefix.
+    */
+   private SortedMap<String, IntList> prefixRange(String prefix)
+   {
+      return _tokens.subMap(prefix, prefix + Character.MAX_VALUE);
+   }
+
+   /**
+    * Helper method that finds the slot of the live message at a position, by
+    * descending the Fenwick tree.
+    */
+   private int slotAt(int position)
+   {
+      int index = 0;
+      int remaining = position + 1;
+      for (int step = Integer.highestOneBit(_live.length); step > 0; step >>= 1)
+      {
+         int next = index + step;
+         if (next <= _live.length && _tree[next] < remaining)
+         {
+            index = next;
+            remaining -= _tree[next];
+         }
+      }
+      // index is the last 1-based node before the slot, which makes it the 0-based slot
+      return index;
+   }
+
+   /**
+    * Helper method that counts the live slots in [from, to).
+    */
+   private int countLive(int from, int to)
+   {
+      return prefixSum(to) - prefixSum(from);
+   }
+
+   /**
+    * Helper method that counts the live slots before a slot.
+    */
+   private int prefixSum(int slot)
+   {
+      int sum = 0;
+      for (int i = slot; i > 0; i -= i & -i) sum += _tree[i];
+      return sum;
+   }
+
+   private void add(int slot, int delta)
+   {
+      for (int i = slot + 1; i < _tree.length; i += i & -i) _tree[i] += delta;
+   }
+
+   private void grow()
+   {
+      _live = Arrays.copyOf(_live, _live.length * 2);
+      rebuildTree();
+   }
+
+   /**
+    * Helper method that moves the slots up to leave room for at least count
+    * slots before the first one. At least as much room as there are slots is
+    * left, so moving them is amortized over the prepends that follow.
+    */
+   private void makeRoomAtHead(int count)
+   {
+      int used = _tail - _head;
+      int head = Math.max(count, Math.max(used, INITIAL_CAPACITY));
+      int shift = head - _head;
+      boolean[] live = new boolean[head + used + Math.max(used, INITIAL_CAPACITY)];
+      System.arraycopy(_live, _head, live, head, used);
+      _live = live;
+      for (IntList slots : _tokens.values())
+      {
+         for (int i = slots.start; i < slots.end; i++) slots.data[i] += shift;
+      }
+      _head = head;
+      _tail += shift;
+      rebuildTree();
+   }
+
+   /**
+    * Helper method that rebuilds the Fenwick tree from _live in linear time.
+    */
+   private void rebuildTree()
+   {
+      _tree = new int[_live.length + 1];
+      for (int i = 1; i <= _live.length; i++)
+      {
+         if (_live[i - 1]) _tree[i]++;
+         int parent = i + (i & -i);
+         if (parent <= _live.length) _tree[parent] += _tree[i];
+      }
+   }
+
+   /**
+    * Helper method that renumbers the live messages to consecutive slots and
+    * drops the removed ones from the token lists.
+    */
+   private void compact()
+   {
+      int[] newSlots = new int[_tail];
+      int next = 0;
+      for (int slot = _head; slot < _tail; slot++)
+      {
+         newSlots[slot] = _live[slot] ? next++ : -1;
+      }
+      Iterator<Map.Entry<String, IntList>> it = _tokens.entrySet().iterator();
+      while (it.hasNext())
+      {
+         IntList slots = it.next().getValue();
+         int kept = slots.start;
+         for (int i = slots.start; i < slots.end; i++)
+         {
+            int slot = newSlots[slots.data[i]];
+            if (slot >= 0) slots.data[kept++] = slot;
+         }
+         slots.end = kept;
+         if (slots.isEmpty()) it.remove();
+      }
+      int capacity = INITIAL_CAPACITY;
+      while (capacity < _size * 2) capacity *= 2;
+      _live = new boolean[capacity];
+      Arrays.fill(_live, 0, _size, true);
+      _head = 0;
+      _tail = _size;
+      rebuildTree();
+   }
+
+   /**
+    * List of ints growable at either end, to avoid boxing every slot.
+    */
+   private static final class IntList
+   {
+      int[] data = new int[2];
+      // The values are data[start] to data[end - 1]
+      int start = 0;
+      int end = 0;
+
+      void add(int value)
+      {
+         if (end == data.length) data = Arrays.copyOf(data, data.length * 2);
+         data[end++] = value;
+      }
+
+      void addFirst(int value)
+      {
+         if (start == 0)
+         {
+            int room = data.length;
+            int[] grown = new int[room + data.length];
+            System.arraycopy(data, 0, grown, room, end);
+            data = grown;
+            start = room;
+            end += room;
+         }
+         data[--start] = value;
+      }
+
+      boolean isEmpty()
+      {
+         return start == end;
+      }
+
+      int first()
+      {
+         return data[start];
+      }
+
+      int last()
+      {
+         return data[end - 1];
+      }
+   }
+}
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright 2016 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview.core;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Parses provided timestamps and formats them in a terse, relative format:
+ * "Today 4:05 PM", "Yesterday 4:05 PM", "Mon 4:05 PM", "Mon, Jan 2, 4:05 PM"
+ * or "1/2/2016 4:05 PM".
+ * <p>
+ * Like SimpleDateFormat, this class is not thread safe. Use one instance per thread.
+ */
+public class MFATimeFormatter
+{
+   // Default format of provided timestamps
+   public static final String DEFAULT_TIMESTAMP_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+   // Template format suffix used for configuring timestamp
+   private static final String TEMPLATE_SUFFIX = "h:mm a";
+   // SimpleDateFormat used for provided timestamps
+   private SimpleDateFormat _sdf;
+   // Output formats by pattern, created on first use for the current locale
+   private final Map<String, SimpleDateFormat> _formats = new HashMap<>();
+   // Locale the output formats were created for
+   private Locale _locale;
+   // Reused calendars for the current time and the time being formatted
+   private final Calendar _now = Calendar.getInstance();
+   private final Calendar _time = Calendar.getInstance();
+
+   public MFATimeFormatter()
+   {
+      this(new SimpleDateFormat(DEFAULT_TIMESTAMP_FORMAT, Locale.ENGLISH));
+   }
+
+   /**
+    * @param sdf SimpleDateFormat used to parse provided timestamps
+    */
+   public MFATimeFormatter(SimpleDateFormat sdf)
+   {
+      _sdf = sdf;
+   }
+
+   /**
+    * Set the SimpleDateFormat used to parse provided timestamps
+    * @param sdf custom SimpleDateFormat
+    */
+   public void setSimpleDateFormat(SimpleDateFormat sdf)
+   {
+      _sdf = sdf;
+   }
+
+   /**
+    * Get the SimpleDateFormat used to parse provided timestamps
+    * @return current SimpleDateFormat
+    */
+   public SimpleDateFormat getSimpleDateFormat()
+   {
+      return _sdf;
+   }
+
+   /**
+    * Convert a timestamp into milliseconds represented as a long
+    * @param formattedTimestamp timestamp represented by a string
+    * @return timestamp in milliseconds, or 0 if it didn't match the SimpleDateFormat
+    */
+   public long parse(String formattedTimestamp)
+   {
+      long timeMillis = 0;
+
+      try
+      {
+         Date time = _sdf.parse(formattedTimestamp);
+         // The time in milliseconds of the messages formattedTimeStamp
+         timeMillis = time.getTime();
+      }
+      catch (Exception e)
+      {
+         e.printStackTrace();
+      }
+      return timeMillis;
+   }
+
+   /**
+    * Format a timestamp represented in milliseconds to a terse timestamp
+    * relative to the current time
+    * @param timeInMillis timestamp in milliseconds
+    * @return reformatted timestamp
+    */
+   public String format(long timeInMillis)
+   {
+      return format(timeInMillis, System.currentTimeMillis());
+   }
+
+   /**
+    * Format a timestamp represented in milliseconds to a terse timestamp
+    * relative to a given time
+    * @param timeInMillis timestamp in milliseconds
+    * @param nowInMillis time the timestamp is relative to, in milliseconds
+    * @return reformatted timestamp
+    */
+   public String format(long timeInMillis, long nowInMillis)
+   {
+      Calendar now = _now;
+      Calendar smsTime = _time;
+      now.setTimeInMillis(nowInMillis);
+      smsTime.setTimeInMillis(timeInMillis);
+      Date date = smsTime.getTime();
+
+      // Message was sent today
+      if (now.get(Calendar.DAY_OF_YEAR) == smsTime.get(Calendar.DAY_OF_YEAR)
+            && now.get(Calendar.YEAR) == smsTime.get(Calendar.YEAR))
+      {
+         return "Today " + getFormat(TEMPLATE_SUFFIX).format(date);
+      }
+      // Message was sent yesterday
+      else if (now.get(Calendar.DAY_OF_YEAR) - smsTime.get(Calendar.DAY_OF_YEAR) == 1
+            && now.get(Calendar.YEAR) == smsTime.get(Calendar.YEAR))
+      {
+         return "Yesterday " + getFormat(TEMPLATE_SUFFIX).format(date);
+      }
+      // Message was sent within a week
+      else if (now.get(Calendar.DAY_OF_YEAR) - smsTime.get(Calendar.DAY_OF_YEAR) <= 6
+            && now.get(Calendar.YEAR) == smsTime.get(Calendar.YEAR))
+      {
+         return getFormat("EEE " + TEMPLATE_SUFFIX).format(date);
+      }
+      // Message is more than a week old but was sent within the calendar year
+      else if (now.get(Calendar.YEAR) == smsTime.get(Calendar.YEAR))
+      {
+         return getFormat("EEE, MMM d, " + TEMPLATE_SUFFIX).format(date);
+      }
+      // Message is more than a week old and was sent from a different year
+      else
+      {
+         return getFormat("M/d/yyyy " + TEMPLATE_SUFFIX).format(date);
+      }
+   }
+
+   /**
+    * Format the day of a timestamp represented in milliseconds, relative to a
+    * given time: "Today", "Yesterday", "Mon", "Mon, Jan 2" or "1/2/2016"
+    * @param timeInMillis timestamp in milliseconds
+    * @param nowInMillis time the timestamp is relative to, in milliseconds
+    * @return day of the timestamp
+    */
+   public String formatDay(long timeInMillis, long nowInMillis)
+   {
+      Calendar now = _now;
+      Calendar smsTime = _time;
+      now.setTimeInMillis(nowInMillis);
+      smsTime.setTimeInMillis(timeInMillis);
+      Date date = smsTime.getTime();
+      int days = now.get(Calendar.DAY_OF_YEAR) - smsTime.get(Calendar.DAY_OF_YEAR);
+
+      if (now.get(Calendar.YEAR) != smsTime.get(Calendar.YEAR))
+      {
+         return getFormat("M/d/yyyy").format(date);
+      }
+      else if (days == 0)
+      {
+         return "Today";
+      }
+      else if (days == 1)
+      {
+         return "Yesterday";
+      }
+      else if (days <= 6)
+      {
+         return getFormat("EEE").format(date);
+      }
+      else
+      {
+         return getFormat("EEE, MMM d").format(date);
+      }
+   }
+
+   /**
+    * Get a key identifying the calendar day of a timestamp in the default time
+    * zone. Timestamps on the same day have the same key.
+    * @param timeInMillis timestamp in milliseconds
+    * @return key of the timestamp's day
+    */
+   public int getDayKey(long timeInMillis)
+   {
+      Calendar time = _time;
+      time.setTimeInMillis(timeInMillis);
+      return time.get(Calendar.YEAR) * 1000 + time.get(Calendar.DAY_OF_YEAR);
+   }
+
+   /**
+    * Helper method that returns the output format for a pattern, creating it
+    * the first time it's used with the current locale
+    * @param pattern SimpleDateFormat pattern
+    * @return SimpleDateFormat for the pattern
+    */
+   private SimpleDateFormat getFormat(String pattern)
+   {
+      Locale locale = Locale.getDefault();
+      if (!locale.equals(_locale))
+      {
+         _formats.clear();
+         _locale = locale;
+      }
+      SimpleDateFormat format = _formats.get(pattern);
+      if (format == null)
+      {
+         format = new SimpleDateFormat(pattern, locale);
+         _formats.put(pattern, format);
+      }
+      return format;
+   }
+}
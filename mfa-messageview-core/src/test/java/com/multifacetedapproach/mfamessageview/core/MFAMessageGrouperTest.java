@@ -0,0 +1,242 @@
+package com.multifacetedapproach.mfamessageview.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class MFAMessageGrouperTest
+{
+   private static final long ONE_MINUTE = 60000;
+
+   private Locale _defaultLocale;
+   private SimpleDateFormat _sdf;
+   private MFAMessageGrouper _grouper;
+
+   @Before
+   public void setUp()
+   {
+      _defaultLocale = Locale.getDefault();
+      Locale.setDefault(Locale.US);
+      _sdf = new SimpleDateFormat(MFATimeFormatter.DEFAULT_TIMESTAMP_FORMAT, Locale.ENGLISH);
+      _grouper = new MFAMessageGrouper(new MFATimeFormatter(_sdf));
+   }
+
+   @After
+   public void tearDown()
+   {
+      Locale.setDefault(_defaultLocale);
+   }
+
+   @Test
+   public void timestampShownAfterTenMinutes()
+   {
+      long start = System.currentTimeMillis() - 60 * ONE_MINUTE;
+      Message first = append("Alex", start, false);
+      Message soon = append("Alex", start + 5 * ONE_MINUTE, false);
+      Message later = append("Alex", start + 16 * ONE_MINUTE, false);
+
+      assertTrue(first.timeVisible);
+      assertFalse(soon.timeVisible);
+      assertTrue(later.timeVisible);
+      assertEquals(start + 16 * ONE_MINUTE, _grouper.getTimeInMillis(2));
+      assertEquals(3, _grouper.size());
+   }
+
+   @Test
+   public void nameShownOncePerRun()
+   {
+      long start = System.currentTimeMillis() - 60 * ONE_MINUTE;
+      Message alex = append("Alex", start, false);
+      Message alexAgain = append("alex", start + ONE_MINUTE, false);
+      Message me = append("Me", start + 2 * ONE_MINUTE, true);
+      Message sam = append("Sam", start + 3 * ONE_MINUTE, false);
+
+      assertTrue(alex.nameVisible);
+      assertFalse(alexAgain.nameVisible);
+      assertFalse(me.nameVisible);
+      assertTrue(sam.nameVisible);
+   }
+
+   @Test
+   public void unparsableTimestampIsKept()
+   {
+      Message message = new Message("Alex", "not a timestamp", false);
+      _grouper.append(message);
+
+      assertEquals("not a timestamp", message.timestamp);
+      assertEquals(0, _grouper.getTimeInMillis(0));
+   }
+
+   @Test
+   public void removeReconfiguresNextMessage()
+   {
+      long start = System.currentTimeMillis() - 60 * ONE_MINUTE;
+      Message alex = append("Alex", start, false);
+      Message alexAgain = append("Alex", start + ONE_MINUTE, false);
+
+      assertTrue(_grouper.remove(0, alex, alexAgain));
+      assertTrue(alexAgain.timeVisible);
+      assertTrue(alexAgain.nameVisible);
+      assertEquals(1, _grouper.size());
+      assertEquals(start + ONE_MINUTE, _grouper.getTimeInMillis(0));
+      assertFalse(_grouper.remove(0, alexAgain, null));
+      assertEquals(0, _grouper.size());
+   }
+
+   @Test
+   public void appendAllMatchesAppend()
+   {
+      long start = System.currentTimeMillis() - 60 * ONE_MINUTE;
+      String[] names = {"Alex", "Alex", "Me", "Sam", "Sam", "Alex"};
+      long[] offsets = {0, 3, 4, 20, 21, 45};
+      List<Message> expected = new ArrayList<>();
+      List<Message> messages = new ArrayList<>();
+      long[] times = new long[names.length];
+      String[] timestamps = new String[names.length];
+      MFATimeFormatter formatter = new MFATimeFormatter(_sdf);
+      for (int i = 0; i < names.length; i++)
+      {
+         expected.add(append(names[i], start + offsets[i] * ONE_MINUTE, "Me".equals(names[i])));
+         Message message = new Message(names[i], _sdf.format(start + offsets[i] * ONE_MINUTE), "Me".equals(names[i]));
+         messages.add(message);
+         times[i] = formatter.parse(message.timestamp);
+         timestamps[i] = formatter.format(times[i]);
+      }
+      MFAMessageGrouper bulk = new MFAMessageGrouper(formatter);
+      bulk.appendAll(messages, times, timestamps);
+
+      assertEquals(names.length, bulk.size());
+      for (int i = 0; i < names.length; i++)
+      {
+         assertEquals(expected.get(i).timestamp, messages.get(i).timestamp);
+         assertEquals(expected.get(i).timeVisible, messages.get(i).timeVisible);
+         assertEquals(expected.get(i).nameVisible, messages.get(i).nameVisible);
+         assertEquals(_grouper.getTimeInMillis(i), bulk.getTimeInMillis(i));
+      }
+   }
+
+   @Test
+   public void prependReconfiguresFirstMessage()
+   {
+      long start = System.currentTimeMillis() - 60 * ONE_MINUTE;
+      MFAMessageGrouper older = new MFAMessageGrouper(new MFATimeFormatter(_sdf));
+      Message oldest = new Message("Sam", _sdf.format(start), false);
+      Message alex = new Message("Alex", _sdf.format(start + ONE_MINUTE), false);
+      older.append(oldest);
+      older.append(alex);
+      Message alexAgain = append("Alex", start + 2 * ONE_MINUTE, false);
+      Message sam = append("Sam", start + 3 * ONE_MINUTE, false);
+      assertTrue(alexAgain.timeVisible);
+      assertTrue(alexAgain.nameVisible);
+
+      assertTrue(_grouper.prepend(older, alexAgain));
+      assertFalse(alexAgain.timeVisible);
+      assertFalse(alexAgain.nameVisible);
+      assertTrue(sam.nameVisible);
+      assertEquals(4, _grouper.size());
+      assertEquals(start, _grouper.getTimeInMillis(0));
+      assertEquals(start + 3 * ONE_MINUTE, _grouper.getTimeInMillis(3));
+      assertFalse(_grouper.prepend(new MFAMessageGrouper(), oldest));
+   }
+
+   @Test
+   public void formatIsRelativeToNow()
+   {
+      MFATimeFormatter formatter = _grouper.getTimeFormatter();
+      Calendar now = Calendar.getInstance();
+      now.set(2017, Calendar.JUNE, 15, 12, 0, 0);
+      Calendar time = (Calendar) now.clone();
+      time.set(Calendar.HOUR_OF_DAY, 9);
+      time.set(Calendar.MINUTE, 5);
+      long nowMillis = now.getTimeInMillis();
+
+      assertEquals("Today 9:05 AM", formatter.format(time.getTimeInMillis(), nowMillis));
+      time.add(Calendar.DAY_OF_YEAR, -1);
+      assertEquals("Yesterday 9:05 AM", formatter.format(time.getTimeInMillis(), nowMillis));
+      time.add(Calendar.DAY_OF_YEAR, -2);
+      assertEquals("Mon 9:05 AM", formatter.format(time.getTimeInMillis(), nowMillis));
+      time.add(Calendar.DAY_OF_YEAR, -30);
+      assertEquals("Sat, May 13, 9:05 AM", formatter.format(time.getTimeInMillis(), nowMillis));
+      time.add(Calendar.YEAR, -1);
+      assertEquals("5/13/2016 9:05 AM", formatter.format(time.getTimeInMillis(), nowMillis));
+   }
+
+   private Message append(String name, long time, boolean isSender)
+   {
+      Message message = new Message(name, _sdf.format(time), isSender);
+      _grouper.append(message);
+      return message;
+   }
+
+   private static class Message implements MFAMessageMetadata
+   {
+      final String name;
+      final boolean isSender;
+      String timestamp;
+      boolean timeVisible;
+      boolean nameVisible;
+
+      Message(String name, String timestamp, boolean isSender)
+      {
+         this.name = name;
+         this.timestamp = timestamp;
+         this.isSender = isSender;
+      }
+
+      @Override
+      public String getName()
+      {
+         return name;
+      }
+
+      @Override
+      public boolean getIsSender()
+      {
+         return isSender;
+      }
+
+      @Override
+      public String getTimestamp()
+      {
+         return timestamp;
+      }
+
+      @Override
+      public void setTimestamp(String time)
+      {
+         timestamp = time;
+      }
+
+      @Override
+      public boolean getTimeVisible()
+      {
+         return timeVisible;
+      }
+
+      @Override
+      public void setTimeVisible(boolean timeVisible)
+      {
+         this.timeVisible = timeVisible;
+      }
+
+      @Override
+      public boolean getNameVisible()
+      {
+         return nameVisible;
+      }
+
+      @Override
+      public void setNameVisible(boolean nameVisible)
+      {
+         this.nameVisible = nameVisible;
+      }
+   }
+}
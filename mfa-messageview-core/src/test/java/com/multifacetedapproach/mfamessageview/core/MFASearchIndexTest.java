@@ -0,0 +1,185 @@
+package com.multifacetedapproach.mfamessageview.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MFASearchIndexTest
+{
+   private MFASearchIndex _index;
+
+   @Before
+   public void setUp()
+   {
+      _index = new MFASearchIndex();
+   }
+
+   @Test
+   public void prefixQueriesIgnoreCase()
+   {
+      _index.append("Lunch at noon?");
+      _index.append(null);
+      _index.append("Sure, LUNCHEON it is");
+      _index.append("See you at the lunch place");
+
+      assertArrayEquals(new int[] {0, 2, 3}, _index.search("lunch"));
+      assertArrayEquals(new int[] {0, 3}, _index.search("lu at"));
+      assertArrayEquals(new int[] {2}, _index.search("Sure luncheon"));
+      assertArrayEquals(new int[0], _index.search("dinner"));
+      assertArrayEquals(new int[0], _index.search("  "));
+   }
+
+   @Test
+   public void positionsFollowRemovals()
+   {
+      _index.append("apple one");
+      _index.append("banana");
+      _index.append("apple two");
+      _index.append("apple three");
+
+      _index.remove(1);
+      assertArrayEquals(new int[] {0, 1, 2}, _index.search("apple"));
+      _index.remove(0);
+      assertArrayEquals(new int[] {0, 1}, _index.search("apple"));
+      assertArrayEquals(new int[] {1}, _index.search("three"));
+      _index.append("apple four");
+      assertArrayEquals(new int[] {0, 1, 2}, _index.search("apple"));
+      assertEquals(3, _index.size());
+
+      _index.clear();
+      assertArrayEquals(new int[0], _index.search("apple"));
+      assertEquals(0, _index.size());
+   }
+
+   @Test
+   public void matchesALinearScanThroughCompaction()
+   {
+      Random random = new Random(42);
+      String[] words = {"alpha", "alps", "beta", "bet", "gamma", "delta"};
+      List<String> texts = new ArrayList<>();
+      for (int round = 0; round < 20000; round++)
+      {
+         if (texts.isEmpty() || random.nextInt(3) != 0)
+         {
+            String text = words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)];
+            texts.add(text);
+            _index.append(text);
+         }
+         else
+         {
+            int position = random.nextInt(texts.size());
+            texts.remove(position);
+            _index.remove(position);
+         }
+      }
+      // Remove most messages so the index compacts
+      while (texts.size() > 100)
+      {
+         texts.remove(0);
+         _index.remove(0);
+      }
+      for (String query : new String[] {"al", "alps", "bet", "gamma d"})
+      {
+         assertArrayEquals(query, scan(texts, query), _index.search(query));
+      }
+   }
+
+   @Test
+   public void prependedMessagesComeFirst()
+   {
+      _index.append("apple one");
+      _index.append("banana");
+      _index.prepend(Arrays.asList("apple older", null, "cherry apple apple"));
+      _index.prepend(Arrays.asList("banana oldest"));
+
+      assertEquals(6, _index.size());
+      assertArrayEquals(new int[] {1, 3, 4}, _index.search("apple"));
+      assertArrayEquals(new int[] {0, 5}, _index.search("banana"));
+      _index.remove(1);
+      assertArrayEquals(new int[] {2, 3}, _index.search("apple"));
+   }
+
+   @Test
+   public void prependsMatchALinearScanThroughCompaction()
+   {
+      Random random = new Random(7);
+      String[] words = {"alpha", "alps", "beta", "bet", "gamma", "delta"};
+      List<String> texts = new ArrayList<>();
+      for (int round = 0; round < 5000; round++)
+      {
+         int action = random.nextInt(4);
+         if (action == 0)
+         {
+            List<String> chunk = new ArrayList<>();
+            for (int i = random.nextInt(40); i > 0; i--)
+            {
+               chunk.add(words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)]);
+            }
+            texts.addAll(0, chunk);
+            _index.prepend(chunk);
+         }
+         else if (action == 1 || texts.isEmpty())
+         {
+            String text = words[random.nextInt(words.length)];
+            texts.add(text);
+            _index.append(text);
+         }
+         else
+         {
+            int position = random.nextInt(texts.size());
+            texts.remove(position);
+            _index.remove(position);
+         }
+      }
+      // Remove most messages so the index compacts, then prepend again
+      while (texts.size() > 100)
+      {
+         texts.remove(texts.size() - 1);
+         _index.remove(texts.size());
+      }
+      List<String> chunk = Arrays.asList("alpha beta", "delta", "bet gamma");
+      texts.addAll(0, chunk);
+      _index.prepend(chunk);
+      assertEquals(texts.size(), _index.size());
+      for (String query : new String[] {"al", "alps", "bet", "gamma d"})
+      {
+         assertArrayEquals(query, scan(texts, query), _index.search(query));
+      }
+   }
+
+   @Test
+   public void findMatchesReturnsMatchedPrefixes()
+   {
+      List<String> terms = MFASearchIndex.tokenize("lun AT");
+      assertEquals(Arrays.asList("lun", "at"), terms);
+      assertArrayEquals(new int[] {0, 3, 6, 8}, MFASearchIndex.findMatches("Lunch at noon", terms));
+      assertArrayEquals(new int[0], MFASearchIndex.findMatches("Dinner", terms));
+   }
+
+   private static int[] scan(List<String> texts, String query)
+   {
+      List<String> terms = MFASearchIndex.tokenize(query);
+      List<Integer> positions = new ArrayList<>();
+      for (int i = 0; i < texts.size(); i++)
+      {
+         List<String> tokens = MFASearchIndex.tokenize(texts.get(i));
+         boolean all = true;
+         for (String term : terms)
+         {
+            boolean any = false;
+            for (String token : tokens) any |= token.startsWith(term);
+            all &= any;
+         }
+         if (all) positions.add(i);
+      }
+      int[] result = new int[positions.size()];
+      for (int i = 0; i < result.length; i++) result[i] = positions.get(i);
+      return result;
+   }
+}
@@ -0,0 +1,60 @@
+package com.multifacetedapproach.mfamessageview.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class MFATimeFormatterTest
+{
+   private Locale _defaultLocale;
+   private MFATimeFormatter _formatter;
+
+   @Before
+   public void setUp()
+   {
+      _defaultLocale = Locale.getDefault();
+      Locale.setDefault(Locale.US);
+      _formatter = new MFATimeFormatter();
+   }
+
+   @After
+   public void tearDown()
+   {
+      Locale.setDefault(_defaultLocale);
+   }
+
+   @Test
+   public void formatDayIsRelative()
+   {
+      long now = at(2016, Calendar.MARCH, 10, 12);
+
+      assertEquals("Today", _formatter.formatDay(at(2016, Calendar.MARCH, 10, 1), now));
+      assertEquals("Yesterday", _formatter.formatDay(at(2016, Calendar.MARCH, 9, 23), now));
+      assertEquals("Mon", _formatter.formatDay(at(2016, Calendar.MARCH, 7, 12), now));
+      assertEquals("Tue, Jan 5", _formatter.formatDay(at(2016, Calendar.JANUARY, 5, 12), now));
+      assertEquals("12/31/2015", _formatter.formatDay(at(2015, Calendar.DECEMBER, 31, 12), now));
+   }
+
+   @Test
+   public void dayKeyChangesAtMidnight()
+   {
+      int key = _formatter.getDayKey(at(2016, Calendar.MARCH, 10, 0));
+
+      assertEquals(key, _formatter.getDayKey(at(2016, Calendar.MARCH, 10, 23)));
+      assertNotEquals(key, _formatter.getDayKey(at(2016, Calendar.MARCH, 11, 0)));
+      assertNotEquals(key, _formatter.getDayKey(at(2017, Calendar.MARCH, 10, 0)));
+   }
+
+   private static long at(int year, int month, int day, int hour)
+   {
+      Calendar calendar = Calendar.getInstance();
+      calendar.clear();
+      calendar.set(year, month, day, hour, 0);
+      return calendar.getTimeInMillis();
+   }
+}
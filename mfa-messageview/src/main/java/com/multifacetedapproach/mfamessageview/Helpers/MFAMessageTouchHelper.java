@@ -3,6 +3,8 @@ package com.multifacetedapproach.mfamessageview.Helpers;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.helper.ItemTouchHelper;
 
+import com.multifacetedapproach.mfamessageview.MFAMessageAdapter;
+
 public class MFAMessageTouchHelper extends ItemTouchHelper.Callback
 {
    private MFATouchCallback _callback;
@@ -28,8 +30,7 @@ public class MFAMessageTouchHelper extends ItemTouchHelper.Callback
    @Override
    public int getMovementFlags(RecyclerView recyclerView, RecyclerView.ViewHolder viewHolder)
    {
-      int type = viewHolder.getItemViewType();
-      if (type == 0 || type == 2 || type == 4)
+      if (MFAMessageAdapter.isSentViewType(viewHolder.getItemViewType()))
       {
          final int swipeFlags = ItemTouchHelper.START;
          return makeMovementFlags(0, swipeFlags);
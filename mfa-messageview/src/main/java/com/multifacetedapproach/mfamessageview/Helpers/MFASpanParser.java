@@ -0,0 +1,17 @@
+package com.multifacetedapproach.mfamessageview.Helpers;
+
+import android.support.annotation.NonNull;
+
+public interface MFASpanParser
+{
+   /**
+    * Turns the text of a message into the text displayed, with spans for links,
+    * mentions, emphasis or anything else. Called on worker threads once per
+    * message until its result is evicted from the cache, so it can afford work
+    * that would be far too slow while binding. While a list of messages loads,
+    * it's called on several threads at once, so it must be thread safe.
+    * @param text text of the message
+    * @return text to display, or text itself if there is nothing to style
+    */
+   @NonNull CharSequence parse(@NonNull String text);
+}
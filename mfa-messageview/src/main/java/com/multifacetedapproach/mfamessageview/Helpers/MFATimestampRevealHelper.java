@@ -0,0 +1,279 @@
+package com.multifacetedapproach.mfamessageview.Helpers;
+
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
+import android.animation.ValueAnimator;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextPaint;
+import android.text.format.DateFormat;
+import android.util.LongSparseArray;
+import android.util.TypedValue;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+
+/**
+ * Lets the user drag the whole message list to the left to reveal the exact
+ * time of every visible message, like iMessage. All visible cells slide together
+ * using translationX on hardware layers, so the gesture never rebinds or redraws
+ * cell content, and times are only formatted for the messages on screen while
+ * the gesture is in progress.
+ * <p>
+ * This uses horizontal drags, so it should not be combined with swipe to
+ * dismiss from MFAMessageTouchHelper.
+ */
+public class MFATimestampRevealHelper extends RecyclerView.ItemDecoration
+      implements RecyclerView.OnItemTouchListener, RecyclerView.OnChildAttachStateChangeListener
+{
+   // Duration of the animation back to rest after the user lets go
+   private static final long SETTLE_DURATION = 200;
+
+   private final MFATimestampSource _source;
+
+   private final Context _context;
+   // Paint used to draw the revealed times
+   private final TextPaint _paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+   // Furthest the cells may be dragged, in pixels
+   private final int _revealWidth;
+   // Space between the cells and the revealed times, in pixels
+   private final int _padding;
+   // Distance a touch must move before it's considered a drag
+   private final int _touchSlop;
+   // Times formatted during the current gesture, by time in milliseconds. Keyed by
+   // time rather than position, so messages inserted or removed mid gesture don't
+   // pick up another message's time.
+   private final LongSparseArray<String> _formatted = new LongSparseArray<>();
+   // RecyclerView this helper is attached to
+   private RecyclerView _recyclerView;
+   // Where the current touch started
+   private float _downX;
+   private float _downY;
+   // True while the user is dragging the cells
+   private boolean _dragging;
+   // Current horizontal offset of the cells, between -_revealWidth and 0
+   private float _offset;
+   // Animation back to rest, if running
+   private ValueAnimator _settleAnimator;
+
+   public MFATimestampRevealHelper(Context context, MFATimestampSource source)
+   {
+      _context = context;
+      _source = source;
+      _paint.setColor(0xff676767);
+      _paint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 12,
+            context.getResources().getDisplayMetrics()));
+      _revealWidth = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 70,
+            context.getResources().getDisplayMetrics());
+      _padding = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 7.5f,
+            context.getResources().getDisplayMetrics());
+      _touchSlop = ViewConfiguration.get(context).getScaledTouchSlop();
+   }
+
+   /**
+    * Attach this helper to a RecyclerView, or detach it by passing null.
+    * @param recyclerView RecyclerView displaying the messages
+    */
+   public void attachToRecyclerView(RecyclerView recyclerView)
+   {
+      if (_recyclerView == recyclerView) return;
+      if (_recyclerView != null)
+      {
+         endGesture(false);
+         _recyclerView.removeItemDecoration(this);
+         _recyclerView.removeOnItemTouchListener(this);
+         _recyclerView.removeOnChildAttachStateChangeListener(this);
+      }
+      _recyclerView = recyclerView;
+      if (recyclerView != null)
+      {
+         recyclerView.addItemDecoration(this);
+         recyclerView.addOnItemTouchListener(this);
+         recyclerView.addOnChildAttachStateChangeListener(this);
+      }
+   }
+
+   @Override
+   public boolean onInterceptTouchEvent(RecyclerView rv, MotionEvent e)
+   {
+      switch (e.getActionMasked())
+      {
+         case MotionEvent.ACTION_DOWN:
+         {
+            _downX = e.getX();
+            _downY = e.getY();
+            _dragging = false;
+            break;
+         }
+         case MotionEvent.ACTION_MOVE:
+         {
+            float dx = e.getX() - _downX;
+            float dy = e.getY() - _downY;
+            // Only a mostly horizontal drag to the left starts the gesture
+            if (!_dragging && rv.getScrollState() != RecyclerView.SCROLL_STATE_DRAGGING
+                  && -dx > _touchSlop && Math.abs(dx) > Math.abs(dy) * 2)
+            {
+               startGesture(rv);
+               return true;
+            }
+            break;
+         }
+      }
+      return _dragging;
+   }
+
+   @Override
+   public void onTouchEvent(RecyclerView rv, MotionEvent e)
+   {
+      switch (e.getActionMasked())
+      {
+         case MotionEvent.ACTION_MOVE:
+         {
+            float offset = e.getX() - _downX + _touchSlop;
+            setOffset(Math.max(-_revealWidth, Math.min(0, offset)));
+            break;
+         }
+         case MotionEvent.ACTION_UP:
+         case MotionEvent.ACTION_CANCEL:
+         {
+            endGesture(true);
+            break;
+         }
+      }
+   }
+
+   @Override
+   public void onRequestDisallowInterceptTouchEvent(boolean disallowIntercept)
+   {
+   }
+
+   @Override
+   public void onChildViewAttachedToWindow(View view)
+   {
+      // Cells attached mid gesture, e.g. by a new message, must move with the rest
+      if (_offset == 0) return;
+      view.setTranslationX(_offset);
+      view.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+   }
+
+   @Override
+   public void onChildViewDetachedFromWindow(View view)
+   {
+      // Cells detached mid gesture are reused elsewhere, so they must not stay shifted
+      if (view.getTranslationX() == 0) return;
+      view.setTranslationX(0);
+      view.setLayerType(View.LAYER_TYPE_NONE, null);
+   }
+
+   @Override
+   public void onDraw(Canvas c, RecyclerView parent, RecyclerView.State state)
+   {
+      if (_offset == 0) return;
+      int width = parent.getWidth();
+      float x = width + _offset + _padding;
+      Paint.FontMetrics fm = _paint.getFontMetrics();
+      for (int i = 0; i < parent.getChildCount(); i++)
+      {
+         View child = parent.getChildAt(i);
+         int position = parent.getChildAdapterPosition(child);
+         if (position == RecyclerView.NO_POSITION) continue;
+         String time = getFormattedTime(position);
+         if (time == null) continue;
+         // Align with the bottom of the cell, where the bubble ends
+         float baseline = child.getBottom() - _padding - fm.descent;
+         c.drawText(time, x, baseline, _paint);
+      }
+   }
+
+   /**
+    * Helper method that formats the time of a message the first time it's drawn
+    * during a gesture.
+    * @param position adapter position of the message
+    * @return formatted time, or null if the message's time is unknown
+    */
+   private String getFormattedTime(int position)
+   {
+      long millis = _source.getTimeInMillis(position);
+      if (millis == 0) return null;
+      String time = _formatted.get(millis);
+      if (time == null)
+      {
+         String pattern = DateFormat.is24HourFormat(_context) ? "H:mm" : "h:mm a";
+         time = DateFormat.format(pattern, millis).toString();
+         _formatted.put(millis, time);
+      }
+      return time;
+   }
+
+   private void startGesture(RecyclerView rv)
+   {
+      if (_settleAnimator != null) _settleAnimator.cancel();
+      _dragging = true;
+      rv.getParent().requestDisallowInterceptTouchEvent(true);
+      for (int i = 0; i < rv.getChildCount(); i++)
+      {
+         rv.getChildAt(i).setLayerType(View.LAYER_TYPE_HARDWARE, null);
+      }
+   }
+
+   private void endGesture(boolean animate)
+   {
+      _dragging = false;
+      if (_offset == 0)
+      {
+         finishGesture();
+         return;
+      }
+      if (!animate)
+      {
+         setOffset(0);
+         finishGesture();
+         return;
+      }
+      _settleAnimator = ValueAnimator.ofFloat(_offset, 0);
+      _settleAnimator.setDuration(SETTLE_DURATION);
+      _settleAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener()
+      {
+         @Override
+         public void onAnimationUpdate(ValueAnimator animation)
+         {
+            setOffset((Float) animation.getAnimatedValue());
+         }
+      });
+      _settleAnimator.addListener(new AnimatorListenerAdapter()
+      {
+         @Override
+         public void onAnimationEnd(Animator animation)
+         {
+            _settleAnimator = null;
+            setOffset(0);
+            finishGesture();
+         }
+      });
+      _settleAnimator.start();
+   }
+
+   private void finishGesture()
+   {
+      _formatted.clear();
+      if (_recyclerView == null) return;
+      for (int i = 0; i < _recyclerView.getChildCount(); i++)
+      {
+         _recyclerView.getChildAt(i).setLayerType(View.LAYER_TYPE_NONE, null);
+      }
+   }
+
+   private void setOffset(float offset)
+   {
+      if (_offset == offset || _recyclerView == null) return;
+      _offset = offset;
+      for (int i = 0; i < _recyclerView.getChildCount(); i++)
+      {
+         _recyclerView.getChildAt(i).setTranslationX(offset);
+      }
+      // Redraw the revealed times
+      _recyclerView.invalidate();
+   }
+}
@@ -0,0 +1,13 @@
+package com.multifacetedapproach.mfamessageview.Helpers;
+
+
+public interface MFATimestampSource
+{
+   /**
+    * Lets the MFATimestampRevealHelper look up the exact time of a message
+    * when it needs to draw it.
+    * @param position position in the adapter
+    * @return time of the message in milliseconds, or 0 if it is unknown
+    */
+   long getTimeInMillis(int position);
+}
@@ -0,0 +1,14 @@
+package com.multifacetedapproach.mfamessageview.Listeners;
+
+import com.multifacetedapproach.mfamessageview.MFAMainThreadViolation;
+
+public interface MFAMainThreadViolationListener
+{
+   /**
+    * Notifies that a heavy library operation ran on the main thread above the
+    * thresholds set on MFAMainThreadAuditor. Called on the main thread, right
+    * after the operation.
+    * @param violation operation, duration, payload size and the stack that called it
+    */
+   void onMainThreadViolation(MFAMainThreadViolation violation);
+}
@@ -0,0 +1,62 @@
+package com.multifacetedapproach.mfamessageview.Listeners;
+
+/**
+ * Receives counters and timings from MFAMessageView, for aggregating in
+ * telemetry. Every callback reports a single event, so counts and hit rates are
+ * up to the implementation to accumulate. Callbacks are made on the main thread
+ * unless noted otherwise and should return quickly, since they run inside
+ * layout and binding.
+ */
+public interface MFAMetricsListener
+{
+   /**
+    * A ViewHolder was created, by inflating an XML layout or constructing a flat cell.
+    * @param viewType view type of the holder, see MFAMessageAdapter
+    * @param durationNanos time spent creating the holder
+    */
+   void onViewHolderCreated(int viewType, long durationNanos);
+
+   /**
+    * A ViewHolder was bound to a message.
+    * @param viewType view type of the holder, see MFAMessageAdapter
+    * @param durationNanos time spent binding the holder
+    */
+   void onViewHolderBound(int viewType, long durationNanos);
+
+   /**
+    * A message image was cropped and rounded for display. Called on the worker
+    * thread that prepared the image when images are prepared in the background.
+    * @param durationNanos time spent preparing the image
+    * @param bytes size of the prepared bitmap
+    */
+   void onImageCropped(long durationNanos, int bytes);
+
+   /**
+    * The images of a message restored from a Parcel or JSONObject were decoded.
+    * Reported once, when the message is given to MFAMessageView.
+    * @param durationNanos time spent decoding the message's images
+    */
+   void onImageDecoded(long durationNanos);
+
+   /**
+    * An image cell looked for an already prepared image while being bound.
+    * @param hit true if the prepared image was ready, false if it had to be prepared
+    */
+   void onImageCacheLookup(boolean hit);
+
+   /**
+    * Timestamps and names were grouped for newly added messages.
+    * @param messageCount number of messages grouped
+    * @param durationNanos time spent grouping
+    */
+   void onGroupingPass(int messageCount, long durationNanos);
+
+   /**
+    * The bytes held by the message images of the displayed messages, original and
+    * prepared, have changed. Profile images are usually shared between messages,
+    * so they are not included. Called on a worker thread when the change is an
+    * image prepared in the background.
+    * @param bytes total bytes held
+    */
+   void onBitmapBytesChanged(long bytes);
+}
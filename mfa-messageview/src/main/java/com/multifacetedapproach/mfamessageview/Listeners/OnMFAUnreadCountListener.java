@@ -0,0 +1,11 @@
+package com.multifacetedapproach.mfamessageview.Listeners;
+
+public interface OnMFAUnreadCountListener
+{
+   /**
+    * Notifies that the number of messages added below the viewport while the
+    * user was reading older messages has changed.
+    * @param unreadCount number of unread messages, 0 once the user reaches the bottom
+    */
+   void onUnreadCountChanged(int unreadCount);
+}
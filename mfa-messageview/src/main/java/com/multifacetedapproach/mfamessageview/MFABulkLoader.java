@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright 2016 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import com.multifacetedapproach.mfamessageview.core.MFAMessageGrouper;
+import com.multifacetedapproach.mfamessageview.core.MFATimeFormatter;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Prepares a whole list of messages for display off the main thread. The list
+ * is split into a chunk per core, and each chunk's timestamps are parsed and
+ * formatted by its own MFATimeFormatter, along with the spans of the newest
+ * messages when a span processor is given. The last chunk to finish runs the
+ * grouping pass, which has to go through the messages in order but only
+ * compares neighbours, and the result is handed back on the main thread. If
+ * any of it fails, the failure is handed back instead, so a load always ends.
+ */
+final class MFABulkLoader
+{
+   // Fewer messages per chunk than this aren't worth a task of their own
+   private static final int MIN_CHUNK_SIZE = 1024;
+   // Shared default executor, sized to the device's cores
+   private static Executor _defaultExecutor;
+   // Executor the chunks run on
+   private Executor _executor;
+   // Handler used to deliver results on the main thread
+   private final Handler _mainHandler = new Handler(Looper.getMainLooper());
+   // Incremented by every load and cancel, so superseded loads are dropped. Main thread only.
+   private int _generation = 0;
+   // Generation of the load in progress, or -1 if none
+   private int _loading = -1;
+
+   /**
+    * Receives prepared messages on the main thread.
+    */
+   interface Callback
+   {
+      /**
+       * @param messages messages that were loaded
+       * @param grouper grouper holding the messages' times and names
+       * @param showProfileImg true if every message has a profile image
+       */
+      void onLoaded(List<MFAMessage> messages, MFAMessageGrouper grouper, boolean showProfileImg);
+
+      /**
+       * @param messages messages that were being loaded
+       * @param error what was thrown while preparing them
+       */
+      void onFailed(List<MFAMessage> messages, Throwable error);
+   }
+
+   MFABulkLoader()
+   {
+      _executor = getDefaultExecutor();
+   }
+
+   /**
+    * Provide the executor chunks run on.
+    * @param executor executor for chunks, or null for the default
+    */
+   void setExecutor(Executor executor)
+   {
+      _executor = (executor != null) ? executor : getDefaultExecutor();
+   }
+
+   /**
+    * @return true if a load is in progress
+    */
+   boolean isLoading()
+   {
+      return _loading == _generation;
+   }
+
+   /**
+    * Drop the result of the load in progress, if any.
+    */
+   void cancel()
+   {
+      _generation++;
+   }
+
+   /**
+    * Prepare messages off the main thread, cancelling any load in progress.
+    * Called on the main thread.
+    * @param messages messages to prepare, which mustn't change until loaded
+    * @param grouper empty grouper to group the messages with. Only its appendAll is called.
+    * @param sdf format of the messages' timestamps
+    * @param spanProcessor processor that caches the spans parsed, or null to parse none
+    * @param spanCount number of the newest messages to parse into spans
+    * @param callback receives the prepared messages or the failure, unless the load is cancelled first
+    */
+   void load(final List<MFAMessage> messages, final MFAMessageGrouper grouper, SimpleDateFormat sdf,
+             final MFASpanProcessor spanProcessor, int spanCount, final Callback callback)
+   {
+      final int generation = ++_generation;
+      _loading = generation;
+      // Workers read an array rather than a list that may be slow to index, like a LinkedList
+      final MFAMessage[] array = messages.toArray(new MFAMessage[messages.size()]);
+      final long[] times = new long[array.length];
+      final String[] timestamps = new String[array.length];
+      // Messages from spanFrom on are parsed into spans, along with the text parsed
+      final int spanFrom = (spanProcessor != null) ? Math.max(0, array.length - spanCount) : array.length;
+      final CharSequence[] spans = new CharSequence[array.length - spanFrom];
+      final String[] spanSources = new String[spans.length];
+      // Timestamps are relative to the same moment, however long the load takes
+      final long now = System.currentTimeMillis();
+      int chunks = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), array.length / MIN_CHUNK_SIZE));
+      final AtomicInteger remaining = new AtomicInteger(chunks);
+      // First failure of any chunk, reported instead of the messages
+      final AtomicReference<Throwable> failure = new AtomicReference<>();
+      final Runnable group = new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            Throwable error = failure.get();
+            boolean showProfileImg = true;
+            if (error == null)
+            {
+               boolean trace = MFATrace.enabled;
+               if (trace) MFATrace.begin(MFATrace.GROUP_MESSAGES);
+               try
+               {
+                  grouper.appendAll(Arrays.asList(array), times, timestamps);
+                  for (MFAMessage message : array)
+                  {
+                     if (message.getProfileImg() == null)
+                     {
+                        showProfileImg = false;
+                        break;
+                     }
+                  }
+               }
+               catch (RuntimeException | Error e)
+               {
+                  error = e;
+               }
+               if (trace) MFATrace.end();
+            }
+            final Throwable failed = error;
+            final boolean show = showProfileImg;
+            _mainHandler.post(new Runnable()
+            {
+               @Override
+               public void run()
+               {
+                  if (generation != _generation) return;
+                  _loading = -1;
+                  if (failed != null)
+                  {
+                     callback.onFailed(messages, failed);
+                     return;
+                  }
+                  // Oldest first, so the newest messages are the last to be evicted
+                  for (int i = 0; i < spans.length; i++)
+                  {
+                     if (spans[i] != null) spanProcessor.put(array[spanFrom + i], spanSources[i], spans[i]);
+                  }
+                  callback.onLoaded(messages, grouper, show);
+               }
+            });
+         }
+      };
+      for (int c = 0; c < chunks; c++)
+      {
+         final int from = (int) ((long) array.length * c / chunks);
+         final int to = (int) ((long) array.length * (c + 1) / chunks);
+         // SimpleDateFormat isn't thread safe, so every chunk parses with its own copy
+         final SimpleDateFormat chunkSdf = (SimpleDateFormat) sdf.clone();
+         _executor.execute(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  MFATimeFormatter formatter = new MFATimeFormatter(chunkSdf);
+                  for (int i = from; i < to; i++)
+                  {
+                     long time = formatter.parse(array[i].getTimestamp());
+                     times[i] = time;
+                     if (time != 0) timestamps[i] = formatter.format(time, now);
+                  }
+                  for (int i = Math.max(from, spanFrom); i < to; i++)
+                  {
+                     String text = array[i].getMessage();
+                     if (text.isEmpty()) continue;
+                     spanSources[i - spanFrom] = text;
+                     spans[i - spanFrom] = spanProcessor.parse(text);
+                  }
+               }
+               catch (RuntimeException | Error e)
+               {
+                  failure.compareAndSet(null, e);
+               }
+               finally
+               {
+                  // The last chunk to finish sees the work of all the others
+                  if (remaining.decrementAndGet() == 0) group.run();
+               }
+            }
+         });
+      }
+   }
+
+   private static synchronized Executor getDefaultExecutor()
+   {
+      if (_defaultExecutor == null)
+      {
+         // Loads are short bursts that the user is waiting on, so use every core
+         int threads = Runtime.getRuntime().availableProcessors();
+         ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+               new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+         {
+            private final AtomicInteger _count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull final Runnable r)
+            {
+               Thread thread = new Thread(new Runnable()
+               {
+                  @Override
+                  public void run()
+                  {
+                     Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+                     r.run();
+                  }
+               }, "MFABulkLoader-" + _count.incrementAndGet());
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+         executor.allowCoreThreadTimeOut(true);
+         _defaultExecutor = executor;
+      }
+      return _defaultExecutor;
+   }
+}
@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * Copyright 2016 - 2017 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.LruCache;
+import android.util.TypedValue;
+import android.view.View;
+
+import com.multifacetedapproach.mfamessageview.core.MFATimeFormatter;
+
+/**
+ * Draws the timestamps between messages, in the gap left above each message
+ * whose time is visible or that starts a new day, instead of every cell
+ * carrying its own timestamp view. The current day is also pinned to the top
+ * of the list as a sticky header, pushed out of the way by the next day's
+ * separator as it scrolls up.
+ * <p>
+ * Separator text is laid out once per distinct timestamp and reused, so
+ * scrolling only translates and draws cached layouts.
+ */
+final class MFADaySeparatorDecoration extends RecyclerView.ItemDecoration
+{
+   /**
+    * Provides the messages and their parsed times by adapter position.
+    */
+   interface Source
+   {
+      /**
+       * @param position adapter position
+       * @return message at the position, or null if there is none
+       */
+      MFAMessage getMessage(int position);
+
+      /**
+       * @param position adapter position
+       * @return time of the message in milliseconds, or 0 if it's unknown
+       */
+      long getTimeInMillis(int position);
+   }
+
+   // Number of separator layouts kept, enough for several screens of separators
+   private static final int LAYOUT_CACHE_SIZE = 64;
+   // Color used for the separator text, the same as the old timestamp views
+   private static final int GRAY = 0xff676767;
+   // Background of the sticky header, so it stays legible over the cells
+   private static final int STICKY_BACKGROUND = 0xf2f2f2f2;
+
+   private final Source _source;
+   // Paints for the text and the sticky header background
+   private final TextPaint _paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+   private final Paint _backgroundPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+   // Formats sticky header days and tells days apart, only used on the main thread
+   private final MFATimeFormatter _formatter = new MFATimeFormatter();
+   // Separator layouts by the text they display
+   private final LruCache<String, StaticLayout> _layouts = new LruCache<>(LAYOUT_CACHE_SIZE);
+   // Reusable bounds of the sticky header background
+   private final RectF _stickyBounds = new RectF();
+   // Dimensions taken from the old timestamp views, in pixels
+   private final int _marginTop;
+   private final int _textHeight;
+   // Horizontal padding and corner radius of the sticky header background, in pixels
+   private final int _stickyPadding;
+   private final float _stickyRadius;
+   // True if the current day is pinned to the top of the list
+   private boolean _stickyEnabled = true;
+   // Day currently shown by the sticky header, the day it was formatted on, and its layout
+   private int _stickyDayKey;
+   private int _stickyTodayKey;
+   private StaticLayout _stickyLayout;
+
+   MFADaySeparatorDecoration(@NonNull Context context, @NonNull Source source)
+   {
+      _source = source;
+      _marginTop = dp(context, 2);
+      _textHeight = dp(context, 25);
+      _stickyPadding = dp(context, 10);
+      _stickyRadius = _textHeight / 2f;
+      _paint.setColor(GRAY);
+      _paint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 12,
+            context.getResources().getDisplayMetrics()));
+      _backgroundPaint.setColor(STICKY_BACKGROUND);
+   }
+
+   /**
+    * Provide a custom font for the separator text.
+    * @param font custom font
+    */
+   void setTypeface(Typeface font)
+   {
+      _paint.setTypeface(font);
+      _layouts.evictAll();
+      _stickyLayout = null;
+   }
+
+   /**
+    * Set whether the current day is pinned to the top of the list.
+    * @param enabled true to show the sticky header, false to only draw separators between messages
+    */
+   void setStickyEnabled(boolean enabled)
+   {
+      _stickyEnabled = enabled;
+   }
+
+   /**
+    * Check whether a separator is drawn above a message: when the grouper made
+    * its time visible, or when it's the first message of a new day.
+    * @param position adapter position of the message
+    * @return true if the message has a separator above it
+    */
+   boolean hasSeparator(int position)
+   {
+      MFAMessage message = _source.getMessage(position);
+      if (message == null || message.getTimestamp() == null) return false;
+      if (message.getTimeVisible() || position == 0) return true;
+      long time = _source.getTimeInMillis(position);
+      long previous = _source.getTimeInMillis(position - 1);
+      return time != 0 && previous != 0 && _formatter.getDayKey(time) != _formatter.getDayKey(previous);
+   }
+
+   /**
+    * @return height of a separator, in pixels
+    */
+   int getSeparatorHeight()
+   {
+      return _marginTop + _textHeight;
+   }
+
+   @Override
+   public void getItemOffsets(Rect outRect, View view, RecyclerView parent, RecyclerView.State state)
+   {
+      int position = parent.getChildAdapterPosition(view);
+      outRect.set(0, (position != RecyclerView.NO_POSITION && hasSeparator(position)) ? getSeparatorHeight() : 0, 0, 0);
+   }
+
+   @Override
+   public void onDraw(Canvas c, RecyclerView parent, RecyclerView.State state)
+   {
+      int width = parent.getWidth();
+      for (int i = 0; i < parent.getChildCount(); i++)
+      {
+         View child = parent.getChildAt(i);
+         int position = parent.getChildAdapterPosition(child);
+         if (position == RecyclerView.NO_POSITION || !hasSeparator(position)) continue;
+         StaticLayout layout = getLayout(_source.getMessage(position).getTimestamp());
+         // Follow the cell through item animations
+         float top = child.getTop() + child.getTranslationY() - _textHeight;
+         drawCentered(c, layout, width, top);
+      }
+   }
+
+   @Override
+   public void onDrawOver(Canvas c, RecyclerView parent, RecyclerView.State state)
+   {
+      if (!_stickyEnabled) return;
+      View first = null;
+      int firstPosition = RecyclerView.NO_POSITION;
+      int firstIndex = 0;
+      for (; firstIndex < parent.getChildCount(); firstIndex++)
+      {
+         View child = parent.getChildAt(firstIndex);
+         int position = parent.getChildAdapterPosition(child);
+         if (position != RecyclerView.NO_POSITION && child.getBottom() > 0)
+         {
+            first = child;
+            firstPosition = position;
+            break;
+         }
+      }
+      if (first == null) return;
+      long time = _source.getTimeInMillis(firstPosition);
+      if (time == 0) return;
+      // The day's own separator is still fully on screen
+      if (hasSeparator(firstPosition) && first.getTop() - getSeparatorHeight() >= 0) return;
+
+      int dayKey = _formatter.getDayKey(time);
+      int stickyHeight = getSeparatorHeight();
+      float offset = 0;
+      for (int i = firstIndex + 1; i < parent.getChildCount(); i++)
+      {
+         View child = parent.getChildAt(i);
+         int separatorTop = child.getTop() - stickyHeight;
+         // Only a separator overlapping the header can push it
+         if (separatorTop >= stickyHeight) break;
+         int position = parent.getChildAdapterPosition(child);
+         if (position == RecyclerView.NO_POSITION || !hasSeparator(position)) continue;
+         long childTime = _source.getTimeInMillis(position);
+         if (childTime != 0 && _formatter.getDayKey(childTime) != dayKey)
+         {
+            offset = separatorTop - stickyHeight;
+            break;
+         }
+      }
+
+      StaticLayout layout = getStickyLayout(time, dayKey);
+      int width = parent.getWidth();
+      float top = offset + _marginTop;
+      float left = (width - layout.getWidth()) / 2f - _stickyPadding;
+      _stickyBounds.set(left, top, width - left, top + _textHeight);
+      c.drawRoundRect(_stickyBounds, _stickyRadius, _stickyRadius, _backgroundPaint);
+      drawCentered(c, layout, width, top);
+   }
+
+   /**
+    * Helper method that draws a layout centered horizontally and vertically
+    * within a separator.
+    * @param c canvas to draw on
+    * @param layout layout to draw
+    * @param width width of the list
+    * @param top top of the separator text area
+    */
+   private void drawCentered(Canvas c, StaticLayout layout, int width, float top)
+   {
+      float x = (width - layout.getWidth()) / 2f;
+      float y = top + (_textHeight - layout.getHeight()) / 2f;
+      int save = c.save();
+      c.translate(x, y);
+      layout.draw(c);
+      c.restoreToCount(save);
+   }
+
+   /**
+    * Helper method that returns the cached layout for a separator's text,
+    * laying it out the first time it's drawn.
+    * @param text separator text
+    * @return layout of the text
+    */
+   private StaticLayout getLayout(String text)
+   {
+      StaticLayout layout = _layouts.get(text);
+      if (layout == null)
+      {
+         layout = createLayout(text);
+         _layouts.put(text, layout);
+      }
+      return layout;
+   }
+
+   /**
+    * Helper method that returns the sticky header's layout, formatting the day
+    * again only when it or the current day changes.
+    * @param time time of the first visible message, in milliseconds
+    * @param dayKey day key of time
+    * @return layout of the sticky header
+    */
+   private StaticLayout getStickyLayout(long time, int dayKey)
+   {
+      long now = System.currentTimeMillis();
+      int todayKey = _formatter.getDayKey(now);
+      if (_stickyLayout == null || _stickyDayKey != dayKey || _stickyTodayKey != todayKey)
+      {
+         _stickyLayout = createLayout(_formatter.formatDay(time, now));
+         _stickyDayKey = dayKey;
+         _stickyTodayKey = todayKey;
+      }
+      return _stickyLayout;
+   }
+
+   private StaticLayout createLayout(String text)
+   {
+      int width = (int) Math.ceil(Layout.getDesiredWidth(text, _paint));
+      return new StaticLayout(text, _paint, width, Layout.Alignment.ALIGN_NORMAL, 1f, 0f, false);
+   }
+
+   private static int dp(Context context, float value)
+   {
+      return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, value,
+            context.getResources().getDisplayMetrics());
+   }
+}
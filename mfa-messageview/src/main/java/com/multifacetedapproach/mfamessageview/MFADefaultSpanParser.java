@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright 2016 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview;
+
+import android.graphics.Typeface;
+import android.support.annotation.NonNull;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.SpannedString;
+import android.text.style.CharacterStyle;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.StrikethroughSpan;
+import android.text.style.StyleSpan;
+import android.text.style.URLSpan;
+import android.util.Patterns;
+
+import com.multifacetedapproach.mfamessageview.Helpers.MFASpanParser;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Styles the markup common in chat messages: links, @mentions, and *bold*,
+ * _italic_ and ~strikethrough~ emphasis, whose markers are removed. Subclass
+ * and override parse to add more, such as emoji spans.
+ */
+public class MFADefaultSpanParser implements MFASpanParser
+{
+   // Default color of mentions, a medium blue
+   public static final int DEFAULT_MENTION_COLOR = 0xff1e88e5;
+   // Text between a pair of markers, which can't start or end with a space and
+   // must stand apart from the words around it, so 2*3*4 isn't emphasis
+   private static final Pattern BOLD = emphasis('*');
+   private static final Pattern ITALIC = emphasis('_');
+   private static final Pattern STRIKETHROUGH = emphasis('~');
+   // @ followed by a username, not preceded by a word as in an email address
+   private static final Pattern MENTION = Pattern.compile("(?<![\\w@])@\\w{1,32}");
+   // Color of mentions
+   private final int _mentionColor;
+
+   public MFADefaultSpanParser()
+   {
+      this(DEFAULT_MENTION_COLOR);
+   }
+
+   /**
+    * @param mentionColor color of mentions as an ARGB int
+    */
+   public MFADefaultSpanParser(int mentionColor)
+   {
+      _mentionColor = mentionColor;
+   }
+
+   @Override
+   public @NonNull CharSequence parse(@NonNull String text)
+   {
+      // Text without any of these characters has nothing to style and is returned as it is
+      if (!mayHaveMarkup(text)) return text;
+      SpannableStringBuilder builder = new SpannableStringBuilder(text);
+      boolean styled = applyEmphasis(builder, BOLD, 0);
+      styled |= applyEmphasis(builder, ITALIC, 1);
+      styled |= applyEmphasis(builder, STRIKETHROUGH, 2);
+
+      Matcher links = Patterns.WEB_URL.matcher(builder);
+      while (links.find())
+      {
+         String url = links.group();
+         // Links without a scheme would be opened as relative paths
+         if (!url.contains("://")) url = "http://" + url;
+         builder.setSpan(new URLSpan(url), links.start(), links.end(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+         styled = true;
+      }
+      Matcher mentions = MENTION.matcher(builder);
+      while (mentions.find())
+      {
+         int start = mentions.start();
+         int end = mentions.end();
+         // Part of a link such as https://example.com/@user
+         if (builder.getSpans(start, end, URLSpan.class).length > 0) continue;
+         builder.setSpan(new StyleSpan(Typeface.BOLD), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+         builder.setSpan(new ForegroundColorSpan(_mentionColor), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+         styled = true;
+      }
+      // Immutable, so it can be handed from the worker thread and shared between cells
+      return styled ? new SpannedString(builder) : text;
+   }
+
+   /**
+    * Helper method that cheaply rules out text that can't contain anything styled.
+    */
+   private static boolean mayHaveMarkup(String text)
+   {
+      for (int i = 0; i < text.length(); i++)
+      {
+         char c = text.charAt(i);
+         if (c == '*' || c == '_' || c == '~' || c == '@' || c == '.') return true;
+      }
+      return false;
+   }
+
+   /**
+    * Helper method that styles the text between each pair of markers and removes
+    * the markers.
+    * @param style 0 for bold, 1 for italic, 2 for strikethrough
+    * @return true if any text was styled
+    */
+   private static boolean applyEmphasis(SpannableStringBuilder builder, Pattern pattern, int style)
+   {
+      boolean styled = false;
+      Matcher matcher = pattern.matcher(builder);
+      int from = 0;
+      while (matcher.find(from))
+      {
+         int start = matcher.start();
+         int end = matcher.end();
+         // Remove the closing marker first so the opening one's offset stays valid
+         builder.delete(end - 1, end);
+         builder.delete(start, start + 1);
+         CharacterStyle span = (style == 0) ? new StyleSpan(Typeface.BOLD)
+               : (style == 1) ? new StyleSpan(Typeface.ITALIC) : new StrikethroughSpan();
+         builder.setSpan(span, start, end - 2, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+         styled = true;
+         // find(int) resets the matcher, so it picks up the shorter text
+         from = end - 2;
+      }
+      return styled;
+   }
+
+   private static Pattern emphasis(char marker)
+   {
+      // Needed for *, and harmless for _ and ~
+      String m = "\\" + marker;
+      return Pattern.compile("(?<![\\w" + m + "])" + m + "(?![\\s" + m + "])([^" + m + "\\n]+?)(?<!\\s)" + m + "(?![\\w" + m + "])");
+   }
+}
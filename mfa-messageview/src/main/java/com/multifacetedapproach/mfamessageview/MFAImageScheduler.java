@@ -0,0 +1,262 @@
+/*******************************************************************************
+ * Copyright 2016 - 2017 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs image work for messages (cropping and rounding) off the main thread.
+ * Pending jobs are not run in the order they were submitted: each time a worker
+ * becomes free it picks the job closest to the current viewport, favoring jobs
+ * in the direction the user is scrolling. Jobs for ViewHolders that get recycled
+ * or rebound are cancelled.
+ */
+final class MFAImageScheduler
+{
+   // Jobs behind the scroll direction count as this many times further away
+   private static final int BEHIND_PENALTY = 2;
+   // Shared default executor, sized to the device's cores
+   private static Executor _defaultExecutor;
+   // Executor the jobs run on
+   private Executor _executor;
+   // Handler used to deliver results on the main thread
+   private final Handler _mainHandler = new Handler(Looper.getMainLooper());
+   // Jobs waiting for a worker, guarded by this
+   private final List<Job> _pending = new ArrayList<>();
+   // Runnable handed to the executor once per submitted job. Each run takes the
+   // highest priority job pending at that moment.
+   private final Runnable _drain = new Runnable()
+   {
+      @Override
+      public void run()
+      {
+         Job job = takeNext();
+         if (job != null) job.run();
+      }
+   };
+   // Current viewport, written on the main thread and read by workers
+   private volatile int _firstVisible = 0;
+   private volatile int _lastVisible = 0;
+   // 1 when scrolling towards newer messages, -1 towards older, 0 when unknown
+   private volatile int _direction = 0;
+
+   MFAImageScheduler()
+   {
+      _executor = getDefaultExecutor();
+   }
+
+   /**
+    * Provide the executor image jobs run on.
+    * @param executor executor for image jobs, or null for the default
+    */
+   void setExecutor(Executor executor)
+   {
+      _executor = (executor != null) ? executor : getDefaultExecutor();
+   }
+
+   /**
+    * Update the current viewport used to prioritise pending jobs. Called on the
+    * main thread after every scroll and layout.
+    * @param first adapter position of the first visible message
+    * @param last adapter position of the last visible message
+    * @param direction 1 when scrolling towards newer messages, -1 towards older, 0 to keep the last direction
+    */
+   void setViewport(int first, int last, int direction)
+   {
+      _firstVisible = first;
+      _lastVisible = last;
+      if (direction != 0) _direction = direction;
+      synchronized (this)
+      {
+         // Messages inserted or removed since a job was scheduled move it. They're looked
+         // up here because a holder's position may only be read on the main thread.
+         for (int i = 0; i < _pending.size(); i++)
+         {
+            Job job = _pending.get(i);
+            int position = job.holder.getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) job.position = position;
+         }
+      }
+   }
+
+   /**
+    * Prepare a message's cropped image and hand it to the adapter once ready.
+    * Any job already scheduled for the holder is cancelled.
+    * @param adapter adapter that bound the holder
+    * @param holder holder the image is for
+    * @param message message whose image should be prepared
+    * @param position adapter position of the message
+    */
+   void schedule(@NonNull MFAMessageAdapter adapter, @NonNull MFAMessageAdapter.ViewHolder holder,
+                 @NonNull MFAMessage message, int position)
+   {
+      cancel(holder);
+      Job job = new Job(adapter, holder, message, position);
+      holder.imageJob = job;
+      synchronized (this)
+      {
+         _pending.add(job);
+      }
+      _executor.execute(_drain);
+   }
+
+   /**
+    * Cancel the job scheduled for a holder, if any.
+    * @param holder holder being recycled or rebound
+    */
+   void cancel(@NonNull MFAMessageAdapter.ViewHolder holder)
+   {
+      Job job = holder.imageJob;
+      if (job == null) return;
+      holder.imageJob = null;
+      job.cancelled = true;
+      synchronized (this)
+      {
+         _pending.remove(job);
+      }
+   }
+
+   private synchronized Job takeNext()
+   {
+      int best = -1;
+      long bestScore = Long.MAX_VALUE;
+      for (int i = 0; i < _pending.size(); i++)
+      {
+         long score = score(_pending.get(i).position);
+         if (score < bestScore)
+         {
+            best = i;
+            bestScore = score;
+         }
+      }
+      return (best >= 0) ? _pending.remove(best) : null;
+   }
+
+   /**
+    * Helper method that computes how far a position is from the viewport, lower
+    * being more urgent.
+    * @param position adapter position of a message
+    * @return distance from the viewport, penalised when behind the scroll direction
+    */
+   private long score(int position)
+   {
+      int first = _firstVisible;
+      int last = _lastVisible;
+      int direction = _direction;
+      if (position >= first && position <= last) return 0;
+      boolean ahead;
+      long distance;
+      if (position < first)
+      {
+         distance = first - position;
+         ahead = direction < 0;
+      }
+      else
+      {
+         distance = position - last;
+         ahead = direction > 0;
+      }
+      return (ahead || direction == 0) ? distance : distance * BEHIND_PENALTY;
+   }
+
+   private static synchronized Executor getDefaultExecutor()
+   {
+      if (_defaultExecutor == null)
+      {
+         // Leave a core for the main and render threads
+         int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+         ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+               new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+         {
+            private final AtomicInteger _count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull final Runnable r)
+            {
+               Thread thread = new Thread(new Runnable()
+               {
+                  @Override
+                  public void run()
+                  {
+                     Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                     r.run();
+                  }
+               }, "MFAImageScheduler-" + _count.incrementAndGet());
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+         executor.allowCoreThreadTimeOut(true);
+         _defaultExecutor = executor;
+      }
+      return _defaultExecutor;
+   }
+
+   /**
+    * A single image job for a holder.
+    */
+   final class Job implements Runnable
+   {
+      final MFAMessageAdapter adapter;
+      final MFAMessageAdapter.ViewHolder holder;
+      final MFAMessage message;
+      // Adapter position of the message, guarded by the scheduler
+      int position;
+      volatile boolean cancelled;
+
+      Job(MFAMessageAdapter adapter, MFAMessageAdapter.ViewHolder holder, MFAMessage message, int position)
+      {
+         this.adapter = adapter;
+         this.holder = holder;
+         this.message = message;
+         this.position = position;
+      }
+
+      @Override
+      public void run()
+      {
+         if (cancelled) return;
+         MFAMetrics metrics = adapter.getMetrics();
+         final Bitmap bmp = (metrics != null) ? metrics.prepareCroppedImg(message) : message.prepareCroppedImg();
+         if (cancelled) return;
+         _mainHandler.post(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               // The holder may have been recycled or rebound while we were working
+               if (cancelled || holder.imageJob != Job.this) return;
+               holder.imageJob = null;
+               adapter.onImagePrepared(holder, message, bmp);
+            }
+         });
+      }
+   }
+}
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright 2016 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
+import android.view.Display;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Watches frames with a Choreographer callback while MFAMessageView scrolls or
+ * animates, and records the frames that exceed the display's budget together
+ * with what the library did during them. MFAMetrics feeds it the library's work
+ * as it happens; the work counted between two frame callbacks belongs to the
+ * frame between them. The first frame is measured from when watching started,
+ * so work that starts the list moving, like grouping a new message, is counted
+ * too. Only used on the main thread.
+ */
+final class MFAJankDetector implements Choreographer.FrameCallback
+{
+   // Frames this many times longer than the budget count as janky, allowing for vsync jitter
+   private static final float JANK_FACTOR = 1.5f;
+   // Most recent janky frames kept for the report
+   private static final int MAX_JANK_FRAMES = 200;
+   private static final long NANOS_PER_SECOND = 1000000000L;
+
+   private final RecyclerView _recyclerView;
+   // True while a frame callback is posted
+   private boolean _running = false;
+   // Budget for a single frame, from the display's refresh rate
+   private long _budgetNanos = NANOS_PER_SECOND / 60;
+   // Start of the frame being counted
+   private long _frameTimeNanos = 0;
+   // Library work during the frame being counted
+   private int _inflations;
+   private long _inflationNanos;
+   private int _binds;
+   private long _bindNanos;
+   private int _imagePreparations;
+   private long _imageNanos;
+   private int _groupingUpdates;
+   private long _groupingNanos;
+   // Frames observed and janky frames recorded since the last reset
+   private int _frameCount = 0;
+   private final List<MFAJankFrame> _jankFrames = new ArrayList<>();
+
+   MFAJankDetector(@NonNull RecyclerView recyclerView)
+   {
+      _recyclerView = recyclerView;
+   }
+
+   /**
+    * Start watching frames, if not already. Frames stop being watched once the
+    * RecyclerView is neither scrolling nor animating.
+    */
+   void start()
+   {
+      if (_running) return;
+      _running = true;
+      Display display = _recyclerView.getDisplay();
+      float refreshRate = (display != null) ? display.getRefreshRate() : 0;
+      _budgetNanos = (long) (NANOS_PER_SECOND / ((refreshRate >= 1) ? refreshRate : 60));
+      _frameTimeNanos = System.nanoTime();
+      resetFrame();
+      Choreographer.getInstance().postFrameCallback(this);
+   }
+
+   /**
+    * Stop watching frames, e.g. when the view is detached.
+    */
+   void stop()
+   {
+      if (!_running) return;
+      _running = false;
+      Choreographer.getInstance().removeFrameCallback(this);
+   }
+
+   @Override
+   public void doFrame(long frameTimeNanos)
+   {
+      long duration = frameTimeNanos - _frameTimeNanos;
+      _frameCount++;
+      if (duration > _budgetNanos * JANK_FACTOR)
+      {
+         if (_jankFrames.size() == MAX_JANK_FRAMES) _jankFrames.remove(0);
+         _jankFrames.add(new MFAJankFrame(_frameTimeNanos, duration, _budgetNanos,
+               _inflations, _inflationNanos, _binds, _bindNanos,
+               _imagePreparations, _imageNanos, _groupingUpdates, _groupingNanos));
+      }
+      _frameTimeNanos = frameTimeNanos;
+      resetFrame();
+      if (_recyclerView.getScrollState() != RecyclerView.SCROLL_STATE_IDLE || _recyclerView.isAnimating())
+      {
+         Choreographer.getInstance().postFrameCallback(this);
+      }
+      else
+      {
+         _running = false;
+      }
+   }
+
+   private void resetFrame()
+   {
+      _inflations = 0;
+      _inflationNanos = 0;
+      _binds = 0;
+      _bindNanos = 0;
+      _imagePreparations = 0;
+      _imageNanos = 0;
+      _groupingUpdates = 0;
+      _groupingNanos = 0;
+   }
+
+   void onViewHolderCreated(long durationNanos)
+   {
+      _inflations++;
+      _inflationNanos += durationNanos;
+   }
+
+   void onViewHolderBound(long durationNanos)
+   {
+      _binds++;
+      _bindNanos += durationNanos;
+   }
+
+   void onImagePrepared(long durationNanos)
+   {
+      _imagePreparations++;
+      _imageNanos += durationNanos;
+   }
+
+   void onGroupingPass(long durationNanos)
+   {
+      _groupingUpdates++;
+      _groupingNanos += durationNanos;
+   }
+
+   /**
+    * Get the frames observed since the last reset.
+    * @return snapshot of the observed frames
+    */
+   MFAJankReport getReport()
+   {
+      return new MFAJankReport(_frameCount, new ArrayList<>(_jankFrames));
+   }
+
+   void reset()
+   {
+      _frameCount = 0;
+      _jankFrames.clear();
+   }
+}
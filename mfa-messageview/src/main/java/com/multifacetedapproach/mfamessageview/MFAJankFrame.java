@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright 2016 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview;
+
+/**
+ * A frame that took longer than the display's frame budget while MFAMessageView
+ * was scrolling or animating, with the library's work during that frame.
+ */
+public class MFAJankFrame
+{
+   // Most of the frame was spent creating ViewHolders
+   public static final String CAUSE_INFLATION = "inflation";
+   // Most of the frame was spent binding ViewHolders
+   public static final String CAUSE_BIND = "bind";
+   // Most of the frame was spent preparing images on the main thread
+   public static final String CAUSE_IMAGE = "image";
+   // Most of the frame was spent grouping timestamps and names
+   public static final String CAUSE_GROUPING = "grouping";
+   // The library's work fit within the frame budget, so the frame was lost elsewhere
+   public static final String CAUSE_OTHER = "other";
+
+   // Choreographer time the frame started, in System.nanoTime() units
+   public final long frameTimeNanos;
+   // Time until the next frame started
+   public final long durationNanos;
+   // Budget for a single frame on the display
+   public final long budgetNanos;
+   // Number of ViewHolders created, and the time spent creating them
+   public final int inflations;
+   public final long inflationNanos;
+   // Number of ViewHolders bound, and the time spent binding them
+   public final int binds;
+   public final long bindNanos;
+   // Number of images prepared on the main thread, and the time spent preparing them
+   public final int imagePreparations;
+   public final long imageNanos;
+   // Number of grouping passes, and the time spent grouping
+   public final int groupingUpdates;
+   public final long groupingNanos;
+   // One of the CAUSE_ constants
+   public final String cause;
+
+   MFAJankFrame(long frameTimeNanos, long durationNanos, long budgetNanos,
+                int inflations, long inflationNanos, int binds, long bindNanos,
+                int imagePreparations, long imageNanos, int groupingUpdates, long groupingNanos)
+   {
+      this.frameTimeNanos = frameTimeNanos;
+      this.durationNanos = durationNanos;
+      this.budgetNanos = budgetNanos;
+      this.inflations = inflations;
+      this.inflationNanos = inflationNanos;
+      this.binds = binds;
+      this.bindNanos = bindNanos;
+      this.imagePreparations = imagePreparations;
+      this.imageNanos = imageNanos;
+      this.groupingUpdates = groupingUpdates;
+      this.groupingNanos = groupingNanos;
+      this.cause = findCause();
+   }
+
+   /**
+    * Get the time the library spent on the main thread during this frame.
+    * @return library time in nanoseconds
+    */
+   public long getLibraryNanos()
+   {
+      return inflationNanos + bindNanos + imageNanos + groupingNanos;
+   }
+
+   /**
+    * Helper method that blames the library subsystem that took the most time, as
+    * long as the library's work alone used up at least half the frame budget.
+    */
+   private String findCause()
+   {
+      if (getLibraryNanos() < budgetNanos / 2) return CAUSE_OTHER;
+      long max = Math.max(Math.max(inflationNanos, bindNanos), Math.max(imageNanos, groupingNanos));
+      if (max == inflationNanos) return CAUSE_INFLATION;
+      if (max == bindNanos) return CAUSE_BIND;
+      if (max == imageNanos) return CAUSE_IMAGE;
+      return CAUSE_GROUPING;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "MFAJankFrame{" + (durationNanos / 1000) + "us, cause=" + cause
+            + ", inflations=" + inflations + " (" + (inflationNanos / 1000) + "us)"
+            + ", binds=" + binds + " (" + (bindNanos / 1000) + "us)"
+            + ", images=" + imagePreparations + " (" + (imageNanos / 1000) + "us)"
+            + ", grouping=" + groupingUpdates + " (" + (groupingNanos / 1000) + "us)}";
+   }
+}
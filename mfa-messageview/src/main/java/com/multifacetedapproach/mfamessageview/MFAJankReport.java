@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright 2016 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Snapshot of the frames observed by MFAMessageView's jank detection, see
+ * {@link MFAMessageView#setJankDetectionEnabled(boolean)}.
+ */
+public class MFAJankReport
+{
+   // Number of frames observed while scrolling or animating
+   public final int frameCount;
+   // Frames that exceeded the budget, oldest first. Only the most recent are kept.
+   public final List<MFAJankFrame> jankFrames;
+
+   MFAJankReport(int frameCount, List<MFAJankFrame> jankFrames)
+   {
+      this.frameCount = frameCount;
+      this.jankFrames = Collections.unmodifiableList(jankFrames);
+   }
+
+   /**
+    * Count the janky frames attributed to a cause.
+    * @param cause one of the MFAJankFrame.CAUSE_ constants
+    * @return number of frames with that cause
+    */
+   public int countByCause(String cause)
+   {
+      int count = 0;
+      for (int i = 0; i < jankFrames.size(); i++)
+      {
+         if (jankFrames.get(i).cause.equals(cause)) count++;
+      }
+      return count;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "MFAJankReport{frames=" + frameCount + ", janky=" + jankFrames.size()
+            + ", inflation=" + countByCause(MFAJankFrame.CAUSE_INFLATION)
+            + ", bind=" + countByCause(MFAJankFrame.CAUSE_BIND)
+            + ", image=" + countByCause(MFAJankFrame.CAUSE_IMAGE)
+            + ", grouping=" + countByCause(MFAJankFrame.CAUSE_GROUPING)
+            + ", other=" + countByCause(MFAJankFrame.CAUSE_OTHER) + "}";
+   }
+}
@@ -27,6 +27,15 @@ public class MFALinearLayoutManager extends LinearLayoutManager
 {
 
    private static final float MILLISECONDS_PER_INCH = 50f; // Slows down the default scroll speed
+   // Smooth scrolls never animate across more than this many screens of messages;
+   // anything further away is jumped to instantly first
+   private static final int MAX_ANIMATED_SCREENS = 2;
+   // True if the list is laid out from the bottom and the newest message stays pinned there
+   private boolean _bottomAnchored = false;
+   // Smooth scroll to start once a jump towards its target has been laid out
+   private RecyclerView.SmoothScroller _pendingSmoothScroller;
+   // Item animator of the RecyclerView, consulted to skip pre-layout during bursts
+   private MFAMessageItemAnimator _itemAnimator;
 
    public MFALinearLayoutManager(Context context)
    {
@@ -43,10 +52,108 @@ public class MFALinearLayoutManager extends LinearLayoutManager
       super(context, attrs, defStyleAttr, defStyleRes);
    }
 
+   /**
+    * Lay the list out from the bottom so the newest message stays pinned to the
+    * bottom edge when the view changes size, such as when the keyboard opens or
+    * closes, without scrolling or extra layout passes.
+    * @param anchored true to anchor the list to the bottom, false to lay out from the top
+    */
+   public void setBottomAnchored(boolean anchored)
+   {
+      _bottomAnchored = anchored;
+      setStackFromEnd(anchored);
+   }
+
+   /**
+    * Get whether the list is anchored to the bottom.
+    * @return true if the list is anchored to the bottom, false otherwise
+    */
+   public boolean isBottomAnchored()
+   {
+      return _bottomAnchored;
+   }
+
+   /**
+    * Pin the item at position to the bottom edge on the next layout, without
+    * animating. The pending position is consumed by the layout the adapter
+    * change already requested, so no extra pass is needed.
+    * @param position adapter position of the newest message
+    */
+   public void pinToBottom(int position)
+   {
+      // The offset is measured from the top edge, since the layout isn't reversed, so
+      // this first places the newest message at the top. Being the last item, the
+      // layout then closes the gap left below it, which pins it to the bottom edge.
+      if (_bottomAnchored)
+      {
+         scrollToPositionWithOffset(position, 0);
+      }
+      else
+      {
+         scrollToPosition(position);
+      }
+   }
+
    @Override
    public void smoothScrollToPosition(RecyclerView recyclerView, RecyclerView.State state, int position)
    {
-      final LinearSmoothScroller linearSmoothScroller = new LinearSmoothScroller(recyclerView.getContext())
+      boolean trace = MFATrace.enabled;
+      if (trace) MFATrace.begin(MFATrace.SMOOTH_SCROLL);
+      startBoundedSmoothScroll(recyclerView, position);
+      if (trace) MFATrace.end();
+   }
+
+   /**
+    * Helper method that smooth scrolls to position, jumping first if the target
+    * is more than a couple of screens away.
+    * @param recyclerView RecyclerView being scrolled
+    * @param position adapter position to scroll to
+    */
+   private void startBoundedSmoothScroll(RecyclerView recyclerView, int position)
+   {
+      RecyclerView.SmoothScroller scroller = createSmoothScroller(recyclerView.getContext(), position);
+      // Animating across thousands of messages binds every one of them on the way.
+      // Instead, jump to within a couple of screens of the target and only animate
+      // the final stretch, so the work stays bounded however far away the target is.
+      int first = findFirstVisibleItemPosition();
+      int last = findLastVisibleItemPosition();
+      if (first != RecyclerView.NO_POSITION)
+      {
+         int maxDistance = Math.max(1, last - first + 1) * MAX_ANIMATED_SCREENS;
+         int jumpTo = RecyclerView.NO_POSITION;
+         if (position > last + maxDistance)
+         {
+            jumpTo = position - maxDistance;
+         }
+         else if (position < first - maxDistance)
+         {
+            jumpTo = position + maxDistance;
+         }
+         if (jumpTo != RecyclerView.NO_POSITION)
+         {
+            // Unlike RecyclerView.scrollToPosition, this doesn't stop a fling or smooth
+            // scroll already running, which would keep moving the list away from the jump
+            recyclerView.stopScroll();
+            // Started from onLayoutChildren once the jump has been laid out
+            _pendingSmoothScroller = scroller;
+            scrollToPosition(jumpTo);
+            return;
+         }
+      }
+      _pendingSmoothScroller = null;
+      startSmoothScroll(scroller);
+   }
+
+   /**
+    * Helper method that creates the slowed down smooth scroller used for the
+    * final stretch of every smooth scroll.
+    * @param context context of the RecyclerView
+    * @param position adapter position to scroll to
+    * @return smooth scroller targeting position
+    */
+   private RecyclerView.SmoothScroller createSmoothScroller(Context context, int position)
+   {
+      final LinearSmoothScroller linearSmoothScroller = new LinearSmoothScroller(context)
       {
 
          @Override
@@ -63,18 +170,48 @@ public class MFALinearLayoutManager extends LinearLayoutManager
       };
 
       linearSmoothScroller.setTargetPosition(position);
-      startSmoothScroll(linearSmoothScroller);
+      return linearSmoothScroller;
+   }
+
+   /**
+    * Provide the item animator whose burst detection decides whether predictive
+    * item animations are worth their extra pre-layout pass.
+    * @param animator item animator of the RecyclerView, or null
+    */
+   void setItemAnimator(MFAMessageItemAnimator animator)
+   {
+      _itemAnimator = animator;
    }
 
    @Override
    public boolean supportsPredictiveItemAnimations()
    {
-      return true;
+      // During a burst of changes nothing is animated, so skip the pre-layout pass
+      return _itemAnimator == null || !_itemAnimator.isInBurst();
+   }
+
+   @Override
+   public int scrollVerticallyBy(int dy, RecyclerView.Recycler recycler, RecyclerView.State state)
+   {
+      boolean trace = MFATrace.enabled;
+      if (trace) MFATrace.begin(MFATrace.SCROLL);
+      int scrolled = super.scrollVerticallyBy(dy, recycler, state);
+      if (trace) MFATrace.end();
+      return scrolled;
    }
 
    @Override
    public void onLayoutChildren(RecyclerView.Recycler recycler, RecyclerView.State state)
    {
+      boolean trace = MFATrace.enabled;
+      if (trace) MFATrace.begin(MFATrace.LAYOUT_CHILDREN);
       super.onLayoutChildren(recycler, state);
+      if (_pendingSmoothScroller != null && !state.isPreLayout())
+      {
+         RecyclerView.SmoothScroller scroller = _pendingSmoothScroller;
+         _pendingSmoothScroller = null;
+         if (scroller.getTargetPosition() < state.getItemCount()) startSmoothScroll(scroller);
+      }
+      if (trace) MFATrace.end();
    }
 }
\ No newline at end of file
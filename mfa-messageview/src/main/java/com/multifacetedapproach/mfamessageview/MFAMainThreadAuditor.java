@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright 2016 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview;
+
+import android.os.Looper;
+import android.util.Log;
+
+import com.multifacetedapproach.mfamessageview.Listeners.MFAMainThreadViolationListener;
+
+import java.util.Arrays;
+
+/**
+ * Debugging aid that reports heavy library operations running on the main
+ * thread: Base64 encoding and decoding of images, image cropping and grouping
+ * a new set of messages. An operation is reported when it takes longer than the
+ * duration threshold or its payload is larger than the size threshold, with the
+ * stack that called it, so blocking call sites can be found before shipping.
+ * <p>
+ * Auditing applies to the whole process and is disabled by default; while
+ * disabled each audited operation costs a single read of a static flag. Enable
+ * it in debug builds only, e.g. when the app's BuildConfig.DEBUG is true.
+ */
+public final class MFAMainThreadAuditor
+{
+   private static final String TAG = "MFAMainThreadAuditor";
+   // Default thresholds: a quarter of a 60fps frame, a 1080p ARGB bitmap and 1000 messages
+   public static final long DEFAULT_DURATION_THRESHOLD_MILLIS = 4;
+   public static final long DEFAULT_PAYLOAD_THRESHOLD_BYTES = 1920 * 1080 * 4;
+   public static final int DEFAULT_MESSAGE_COUNT_THRESHOLD = 1000;
+
+   // True while operations are audited
+   static boolean enabled = false;
+   private static MFAMainThreadViolationListener _listener;
+   private static long _durationThresholdNanos = DEFAULT_DURATION_THRESHOLD_MILLIS * 1000000;
+   private static long _payloadThresholdBytes = DEFAULT_PAYLOAD_THRESHOLD_BYTES;
+   private static int _messageCountThreshold = DEFAULT_MESSAGE_COUNT_THRESHOLD;
+
+   private MFAMainThreadAuditor()
+   {
+   }
+
+   /**
+    * Start auditing heavy operations on the main thread.
+    * @param listener listener notified of violations, or null to log them as warnings
+    */
+   public static void enable(MFAMainThreadViolationListener listener)
+   {
+      _listener = listener;
+      enabled = true;
+   }
+
+   /**
+    * Stop auditing.
+    */
+   public static void disable()
+   {
+      enabled = false;
+      _listener = null;
+   }
+
+   /**
+    * Set the duration above which any audited operation is reported.
+    * @param millis duration threshold in milliseconds
+    */
+   public static void setDurationThreshold(long millis)
+   {
+      _durationThresholdNanos = millis * 1000000;
+   }
+
+   /**
+    * Set the image size above which encoding, decoding and cropping are reported,
+    * however long they took on this device. Slower devices take longer.
+    * @param bytes payload threshold in bytes
+    */
+   public static void setPayloadThreshold(long bytes)
+   {
+      _payloadThresholdBytes = bytes;
+   }
+
+   /**
+    * Set the number of messages above which setMessages is reported, however
+    * long it took on this device.
+    * @param count message count threshold
+    */
+   public static void setMessageCountThreshold(int count)
+   {
+      _messageCountThreshold = count;
+   }
+
+   /**
+    * Determine whether the calling thread should be audited.
+    * @return true if auditing is enabled and this is the main thread
+    */
+   static boolean shouldAudit()
+   {
+      return enabled && Looper.myLooper() == Looper.getMainLooper();
+   }
+
+   /**
+    * Report an operation that ran on the main thread if it exceeded a threshold.
+    * @param operation one of the MFAMainThreadViolation constants
+    * @param start System.nanoTime() when the operation started
+    * @param payloadSize size of the operation's input
+    */
+   static void check(String operation, long start, long payloadSize)
+   {
+      long duration = System.nanoTime() - start;
+      long payloadThreshold = MFAMainThreadViolation.SET_MESSAGES.equals(operation)
+            ? _messageCountThreshold : _payloadThresholdBytes;
+      if (duration < _durationThresholdNanos && payloadSize < payloadThreshold) return;
+      Throwable stack = new Throwable("Main thread call to " + operation);
+      // Drop this method so the stack starts at the audited operation
+      StackTraceElement[] elements = stack.getStackTrace();
+      if (elements.length > 1) stack.setStackTrace(Arrays.copyOfRange(elements, 1, elements.length));
+      MFAMainThreadViolation violation = new MFAMainThreadViolation(operation, duration, payloadSize, stack);
+      MFAMainThreadViolationListener listener = _listener;
+      if (listener != null)
+      {
+         listener.onMainThreadViolation(violation);
+      }
+      else
+      {
+         Log.w(TAG, violation.toString(), stack);
+      }
+   }
+}
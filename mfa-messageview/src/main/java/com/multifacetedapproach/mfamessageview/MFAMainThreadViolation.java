@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright 2016 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview;
+
+/**
+ * A heavy library operation that ran on the main thread, reported by
+ * MFAMainThreadAuditor.
+ */
+public class MFAMainThreadViolation
+{
+   // PNG compression and Base64 encoding of an image, payload is the bitmap's size in bytes
+   public static final String ENCODE_BASE64 = "encodeBase64";
+   // Base64 decoding and decompression of an image, payload is the decoded bitmap's size in bytes
+   public static final String DECODE_BASE64 = "decodeBase64";
+   // Cropping and rounding a message image, payload is the source bitmap's size in bytes
+   public static final String CROP_IMAGE = "setCroppedMessageImg";
+   // Grouping a new set of messages, payload is the number of messages
+   public static final String SET_MESSAGES = "setMessages";
+
+   // One of the constants above
+   public final String operation;
+   // Time the operation took
+   public final long durationNanos;
+   // Size of the operation's input, in the unit given for the operation
+   public final long payloadSize;
+   // Stack of the call that ran the operation
+   public final Throwable stack;
+
+   MFAMainThreadViolation(String operation, long durationNanos, long payloadSize, Throwable stack)
+   {
+      this.operation = operation;
+      this.durationNanos = durationNanos;
+      this.payloadSize = payloadSize;
+      this.stack = stack;
+   }
+
+   @Override
+   public String toString()
+   {
+      return operation + " ran on the main thread for " + (durationNanos / 1000) + "us with a payload of " + payloadSize;
+   }
+}
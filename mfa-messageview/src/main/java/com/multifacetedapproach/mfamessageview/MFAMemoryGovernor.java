@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright 2016 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the images held by MFAMessageView's messages within a byte budget, and
+ * gives them up when the system runs low on memory. Messages are ordered by when
+ * their image was last bound; once over budget, the images bound longest ago are
+ * dropped, except for messages within a margin of the viewport and images a
+ * cell still shows, as dropping those would free nothing. Dropped images are
+ * prepared again the next time their message is bound.
+ * <p>
+ * Cells release their image when they're recycled. When the system reports
+ * memory pressure, the view cache and RecycledViewPool are cleared first, so
+ * cells kept off screen don't hold on to the images being dropped.
+ * <p>
+ * Only images that can be prepared again are dropped: every cropped image, and
+ * message images restored from a Parcel or JSONObject, which keep their much
+ * smaller compressed form. Only used on the main thread.
+ */
+final class MFAMemoryGovernor implements ComponentCallbacks2
+{
+   // Messages either side of the viewport whose images are never dropped
+   static final int DEFAULT_MARGIN = 10;
+
+   private final MFAMessageView _view;
+   // Messages whose images are held, least recently bound first, with the bytes counted for each
+   private final LinkedHashMap<MFAMessage, Long> _held = new LinkedHashMap<>(16, 0.75f, true);
+   // Sum of the bytes in _held
+   private long _heldBytes = 0;
+   private long _budgetBytes;
+   private int _margin = DEFAULT_MARGIN;
+   // Messages near the viewport, reused by each trim
+   private final Set<MFAMessage> _protected = Collections.newSetFromMap(new IdentityHashMap<MFAMessage, Boolean>());
+
+   MFAMemoryGovernor(@NonNull MFAMessageView view, long budgetBytes)
+   {
+      _view = view;
+      _budgetBytes = budgetBytes;
+   }
+
+   void setBudget(long bytes)
+   {
+      _budgetBytes = bytes;
+      if (_heldBytes > _budgetBytes) trim(_budgetBytes);
+   }
+
+   void setMargin(int margin)
+   {
+      _margin = Math.max(0, margin);
+   }
+
+   /**
+    * Called when a message's cropped image is shown by a cell.
+    * @param message message whose image was bound
+    */
+   void onImageBound(@NonNull MFAMessage message)
+   {
+      long bytes = getSheddableBytes(message);
+      Long previous = _held.put(message, bytes);
+      _heldBytes += bytes - ((previous != null) ? previous : 0);
+      if (_heldBytes > _budgetBytes) trim(_budgetBytes);
+   }
+
+   /**
+    * Stop tracking a message that was removed.
+    * @param message message removed
+    */
+   void onMessageRemoved(@NonNull MFAMessage message)
+   {
+      Long bytes = _held.remove(message);
+      if (bytes != null) _heldBytes -= bytes;
+   }
+
+   /**
+    * Stop tracking every message, e.g. when a new set of messages is provided.
+    */
+   void clear()
+   {
+      _held.clear();
+      _heldBytes = 0;
+   }
+
+   /**
+    * Get the bytes counted for the images that could be dropped.
+    * @return bytes held
+    */
+   long getHeldBytes()
+   {
+      return _heldBytes;
+   }
+
+   /**
+    * Drop the images bound longest ago, outside the margin around the viewport,
+    * until the tracked images fit in target bytes or nothing more can be dropped.
+    * @param target bytes the tracked images should fit in
+    */
+   void trim(long target)
+   {
+      collectProtected();
+      MFAMetrics metrics = _view.getMetrics();
+      Iterator<Map.Entry<MFAMessage, Long>> it = _held.entrySet().iterator();
+      while (_heldBytes > target && it.hasNext())
+      {
+         Map.Entry<MFAMessage, Long> entry = it.next();
+         MFAMessage message = entry.getKey();
+         if (_protected.contains(message) || message.boundHolders > 0) continue;
+         long freed = getSheddableBytes(message);
+         message.shedImages();
+         if (metrics != null) metrics.onImagesShed(freed);
+         _heldBytes -= entry.getValue();
+         it.remove();
+      }
+      _protected.clear();
+   }
+
+   /**
+    * Helper method that collects the messages within the margin around the viewport.
+    */
+   private void collectProtected()
+   {
+      RecyclerView.LayoutManager layoutManager = _view.getLayoutManager();
+      if (!(layoutManager instanceof LinearLayoutManager)) return;
+      LinearLayoutManager llm = (LinearLayoutManager) layoutManager;
+      int first = llm.findFirstVisibleItemPosition();
+      int last = llm.findLastVisibleItemPosition();
+      if (first == RecyclerView.NO_POSITION) return;
+      List<MFAMessage> messages = _view.getMessageList();
+      int end = Math.min(messages.size() - 1, last + _margin);
+      for (int i = Math.max(0, first - _margin); i <= end; i++)
+      {
+         _protected.add(messages.get(i));
+      }
+   }
+
+   private static long getSheddableBytes(MFAMessage message)
+   {
+      long bytes = 0;
+      Bitmap croppedImg = message.peekCroppedImg();
+      if (croppedImg != null) bytes += croppedImg.getByteCount();
+      Bitmap messageImg = message.peekMessageImg();
+      if (messageImg != null && message.canShedMessageImg()) bytes += messageImg.getByteCount();
+      return bytes;
+   }
+
+   @Override
+   public void onTrimMemory(int level)
+   {
+      if (level >= TRIM_MEMORY_RUNNING_LOW)
+      {
+         // Includes the app being in the background, where nothing is on screen to keep
+         _view.releaseOffscreenViews();
+         trim(0);
+      }
+      else if (level >= TRIM_MEMORY_RUNNING_MODERATE)
+      {
+         _view.releaseOffscreenViews();
+         trim(_budgetBytes / 2);
+      }
+   }
+
+   @Override
+   public void onLowMemory()
+   {
+      _view.releaseOffscreenViews();
+      trim(0);
+   }
+
+   @Override
+   public void onConfigurationChanged(Configuration newConfig)
+   {
+   }
+}
@@ -29,12 +29,14 @@ import android.support.annotation.NonNull;
 import android.util.Base64;
 import android.util.Log;
 
+import com.multifacetedapproach.mfamessageview.core.MFAMessageMetadata;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.ByteArrayOutputStream;
 
-public class MFAMessage implements Parcelable
+public class MFAMessage implements Parcelable, MFAMessageMetadata
 {
    private static final String TAG = "MFAMessage";
    public long uid;
@@ -42,12 +44,24 @@ public class MFAMessage implements Parcelable
    public Bitmap profileImg;
    public @NonNull String message = "";
    public String timestamp;
+   // Set to null when MFAMessageView's memory governor drops the image of a message
+   // restored from a Parcel or JSONObject, getMessageImg() decodes it again
    public Bitmap messageImg;
    public boolean isSender;
    // Let this class decide these values
    private boolean timeVisible;
    private boolean nameVisible;
-   private Bitmap croppedImg;
+   // Square, rounded copy of messageImg. Prepared lazily, possibly on a worker thread.
+   private volatile Bitmap croppedImg;
+   // Compressed image messageImg was decoded from, when restored from a Parcel or
+   // JSONObject. Much smaller than the decoded bitmap, and lets messageImg be
+   // dropped under memory pressure and decoded again when it's next needed.
+   private volatile byte[] messageImgData;
+   // Time spent decoding the images of a message restored from a Parcel or
+   // JSONObject, until MFAMetrics reports it
+   long decodeNanos;
+   // Number of ViewHolders showing croppedImg. Only used on the main thread.
+   int boundHolders;
 
    /**
     * Default constructor
@@ -111,7 +125,6 @@ public class MFAMessage implements Parcelable
       this.isSender = isSender;
       timeVisible = true;
       nameVisible = false;
-      setCroppedMessageImg(messageImg);
    }
 
    /**
@@ -123,15 +136,14 @@ public class MFAMessage implements Parcelable
       uid = in.readLong();
       name = in.readString();
       String profileImgBase64 = in.readString();
-      profileImg = (profileImgBase64 != null && !profileImgBase64.isEmpty()) ? decodeBase64(profileImgBase64) : null;
+      profileImg = (profileImgBase64 != null && !profileImgBase64.isEmpty()) ? decodeBase64(profileImgBase64, false) : null;
       message = in.readString();
       timestamp = in.readString();
       String messageImgBase64 = in.readString();
-      messageImg = (messageImgBase64 != null && !messageImgBase64.isEmpty()) ? decodeBase64(messageImgBase64) : null;;
+      messageImg = (messageImgBase64 != null && !messageImgBase64.isEmpty()) ? decodeBase64(messageImgBase64, true) : null;
       isSender = in.readInt() != 0;
       timeVisible = in.readInt() != 0;
       nameVisible = false;
-      setCroppedMessageImg(messageImg);
    }
 
    /**
@@ -143,18 +155,18 @@ public class MFAMessage implements Parcelable
       try
       {
          uid = in.getLong("uid");
-         name = in.getString("name");
+         // JSONObject drops null values, so a message without a name has no name key
+         name = in.isNull("name") ? null : in.getString("name");
 
          String profileImgBase64 = in.getString("profileImg");
-         profileImg = (profileImgBase64 != null && !profileImgBase64.isEmpty()) ? decodeBase64(profileImgBase64) : null;
+         profileImg = (profileImgBase64 != null && !profileImgBase64.isEmpty()) ? decodeBase64(profileImgBase64, false) : null;
          message = in.getString("message");
          timestamp = in.getString("timestamp");
 
          String messageImgBase64 = in.getString("messageImg");
-         messageImg = (messageImgBase64 != null && !messageImgBase64.isEmpty()) ? decodeBase64(messageImgBase64) : null;
+         messageImg = (messageImgBase64 != null && !messageImgBase64.isEmpty()) ? decodeBase64(messageImgBase64, true) : null;
          isSender = in.getBoolean("isSender");
          timeVisible = in.getBoolean("timeVisible");
-         setCroppedMessageImg(messageImg);
       }
       catch (JSONException e)
       {
@@ -167,18 +179,28 @@ public class MFAMessage implements Parcelable
     * @return MFAMessage object represented as a JSONObject
     */
    public JSONObject writeToJSON()
+   {
+      return writeToJSON(true);
+   }
+
+   /**
+    * Convert MFAMessage object to a JSONObject, optionally leaving out the
+    * profile image, which is usually shared by many messages.
+    * @param includeProfileImg false to write an empty profile image
+    * @return MFAMessage object represented as a JSONObject
+    */
+   JSONObject writeToJSON(boolean includeProfileImg)
    {
       JSONObject jo = new JSONObject();
       try
       {
          jo.put("uid", uid);
          jo.put("name", name);
-         String profileImgBase64 = (profileImg != null) ? encodeBase64(profileImg) : "";
+         String profileImgBase64 = (includeProfileImg && profileImg != null) ? encodeBase64(profileImg) : "";
          jo.put("profileImg", profileImgBase64);
          jo.put("message", message);
          jo.put("timestamp", timestamp);
-         String messageImgBase64 = (messageImg != null) ? encodeBase64(messageImg) : "";
-         jo.put("messageImg", messageImgBase64);
+         jo.put("messageImg", encodeMessageImg());
          jo.put("isSender", isSender);
          jo.put("timeVisible", timeVisible);
       }
@@ -224,6 +246,8 @@ public class MFAMessage implements Parcelable
    {
       // Message cannot be both an image and text
       messageImg = null;
+      messageImgData = null;
+      croppedImg = null;
       this.message = message;
    }
 
@@ -246,14 +270,69 @@ public class MFAMessage implements Parcelable
    }
 
    /**
-    * Get the bitmap of the message image.
+    * Get the bitmap of the message image. If MFAMessageView dropped the image to
+    * save memory, it's decoded again first.
     * @return message image
     */
    public Bitmap getMessageImg()
    {
+      Bitmap bmp = messageImg;
+      return (bmp != null || messageImgData == null) ? bmp : reloadMessageImg();
+   }
+
+   /**
+    * Determine whether this is an image message, without decoding an image that
+    * was dropped to save memory.
+    * @return true if the message has an image, false otherwise
+    */
+   public boolean hasMessageImg()
+   {
+      return messageImg != null || messageImgData != null;
+   }
+
+   /**
+    * Get the message image only if it's currently decoded.
+    * @return the message image, or null if there is none or it was dropped
+    */
+   Bitmap peekMessageImg()
+   {
+      return messageImg;
+   }
+
+   /**
+    * Determine whether the message image can be dropped and decoded again later.
+    * @return true if the compressed image is kept
+    */
+   boolean canShedMessageImg()
+   {
+      return messageImgData != null;
+   }
+
+   /**
+    * Helper method that decodes the message image again after it was dropped.
+    * @return the decoded image, or null if decoding failed
+    */
+   private synchronized Bitmap reloadMessageImg()
+   {
+      byte[] data = messageImgData;
+      if (messageImg == null && data != null)
+      {
+         messageImg = BitmapFactory.decodeByteArray(data, 0, data.length);
+      }
       return messageImg;
    }
 
+   /**
+    * Drop the decoded images MFAMessageView can prepare again: the cropped image,
+    * and the message image if it can be decoded again from compressed data. The
+    * profile image is left alone, as it's usually shared between messages.
+    */
+   void shedImages()
+   {
+      croppedImg = null;
+      if (messageImgData != null) messageImg = null;
+   }
+
    /**
     * Set the message image's bitmap.
     * @param messageImg message image
@@ -263,7 +342,9 @@ public class MFAMessage implements Parcelable
       // Message cannot be both an image and text.
       message = "";
       this.messageImg = messageImg;
-      setCroppedMessageImg(messageImg);
+      messageImgData = null;
+      // The cropped image is prepared again the next time it's needed
+      croppedImg = null;
    }
 
    public String getTimestamp()
@@ -316,17 +397,60 @@ public class MFAMessage implements Parcelable
       this.nameVisible = nameVisible;
    }
 
+   /**
+    * Crop and round the message image if that hasn't been done yet. This is the
+    * expensive part of displaying an image message, so MFAMessageView schedules it
+    * on a worker thread, but it may be called from any thread.
+    * @return the cropped image, or null if the message has no image
+    */
+   synchronized Bitmap prepareCroppedImg()
+   {
+      cropIfNeeded();
+      return croppedImg;
+   }
+
+   /**
+    * Crop and round the message image if that hasn't been done yet, telling the
+    * caller whether this call did the work, e.g. so it's only reported once when
+    * a worker and the main thread race to prepare the same image.
+    * @return the image cropped by this call, or null if it was already cropped
+    *         or the message has no image
+    */
+   synchronized Bitmap cropIfNeeded()
+   {
+      if (croppedImg != null) return null;
+      Bitmap bmp = getMessageImg();
+      if (bmp == null) return null;
+      setCroppedMessageImg(bmp);
+      return croppedImg;
+   }
+
+   /**
+    * Get the cropped image only if it has already been prepared.
+    * @return the cropped image, or null if it hasn't been prepared
+    */
+   Bitmap peekCroppedImg()
+   {
+      return croppedImg;
+   }
+
    /**
     * Sets the message image to a square and rounds it's corners.
     * @param bmp bitmap to crop and round
     */
-   private void setCroppedMessageImg(@NonNull Bitmap bmp)
+   void setCroppedMessageImg(@NonNull Bitmap bmp)
    {
+      boolean trace = MFATrace.enabled;
+      if (trace) MFATrace.begin(MFATrace.CROP_IMAGE);
+      boolean audit = MFAMainThreadAuditor.shouldAudit();
+      long auditStart = audit ? System.nanoTime() : 0;
+      int sourceBytes = audit ? bmp.getByteCount() : 0;
       bmp = cropBitmapToSquare(bmp);
 
-      croppedImg = Bitmap.createBitmap(bmp.getWidth(), bmp
+      // Draw into a local bitmap so other threads never see a partially drawn image
+      Bitmap output = Bitmap.createBitmap(bmp.getWidth(), bmp
             .getHeight(), Bitmap.Config.ARGB_8888);
-      Canvas canvas = new Canvas(croppedImg);
+      Canvas canvas = new Canvas(output);
 
       final int color = 0xff424242;
       final Paint paint = new Paint();
@@ -340,6 +464,9 @@ public class MFAMessage implements Parcelable
 
       paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
       canvas.drawBitmap(bmp, rect, rect, paint);
+      croppedImg = output;
+      if (audit) MFAMainThreadAuditor.check(MFAMainThreadViolation.CROP_IMAGE, auditStart, sourceBytes);
+      if (trace) MFATrace.end();
    }
 
    /**
@@ -347,7 +474,7 @@ public class MFAMessage implements Parcelable
     * @param bmp bitmap to crop
     * @return bitmap cropped to a square
     */
-   private static Bitmap cropBitmapToSquare(@NonNull Bitmap bmp)
+   static Bitmap cropBitmapToSquare(@NonNull Bitmap bmp)
    {
       if (bmp.getWidth() >= bmp.getHeight())
       {
@@ -372,9 +499,15 @@ public class MFAMessage implements Parcelable
       return bmp;
    }
 
+   /**
+    * Get the square, rounded version of the message image, preparing it
+    * first if necessary.
+    * @return the cropped image, or null if the message has no image
+    */
    public Bitmap getCroppedImg()
    {
-      return croppedImg;
+      Bitmap bmp = croppedImg;
+      return (bmp != null) ? bmp : prepareCroppedImg();
    }
 
    @Override
@@ -394,8 +527,7 @@ public class MFAMessage implements Parcelable
       parcel.writeString(message);
       parcel.writeString(timestamp);
 
-      String messageImgBase64 = (messageImg != null) ? encodeBase64(messageImg) : "";
-      parcel.writeString(messageImgBase64);
+      parcel.writeString(encodeMessageImg());
       parcel.writeInt(isSender ? 1 : 0);
       parcel.writeInt(timeVisible ? 1 : 0);
    }
@@ -419,10 +551,14 @@ public class MFAMessage implements Parcelable
    /**
     * Helper method to decode a base64 String to a bitmap
     * @param input base64 String
+    * @param keepData true to keep the compressed image as messageImgData
     * @return bitmap decoded from base64 String
     */
-   private Bitmap decodeBase64(String input)
+   private Bitmap decodeBase64(String input, boolean keepData)
    {
+      boolean trace = MFATrace.enabled;
+      if (trace) MFATrace.begin(MFATrace.DECODE_BASE64);
+      long start = System.nanoTime();
       Bitmap bmp = null;
       try
       {
@@ -430,16 +566,38 @@ public class MFAMessage implements Parcelable
          if (decodedByte != null)
          {
             bmp = BitmapFactory.decodeByteArray(decodedByte, 0, decodedByte.length);
+            if (keepData && bmp != null) messageImgData = decodedByte;
          }
       }
       catch (Exception e)
       {
          e.printStackTrace();
       }
+      decodeNanos += System.nanoTime() - start;
+      if (MFAMainThreadAuditor.shouldAudit())
+      {
+         // Compared with the same image size threshold as encoding, so report what was decoded
+         MFAMainThreadAuditor.check(MFAMainThreadViolation.DECODE_BASE64, start, (bmp != null) ? bmp.getByteCount() : 0);
+      }
+      if (trace) MFATrace.end();
 
       return bmp;
    }
 
+   /**
+    * Helper method that encodes the message image to a base64 String. An image
+    * dropped to save memory is encoded from the compressed image it was decoded
+    * from, without decoding it again.
+    * @return base64 String, empty if the message has no image
+    */
+   private String encodeMessageImg()
+   {
+      Bitmap bmp = messageImg;
+      if (bmp != null) return encodeBase64(bmp);
+      byte[] data = messageImgData;
+      return (data != null) ? Base64.encodeToString(data, Base64.DEFAULT) : "";
+   }
+
    /**
     * Helper method to encode a Bitmap to a base64 String.
     * @param bmp bitmap to encode
@@ -447,6 +605,10 @@ public class MFAMessage implements Parcelable
     */
    private String encodeBase64(@NonNull Bitmap bmp)
    {
+      boolean trace = MFATrace.enabled;
+      if (trace) MFATrace.begin(MFATrace.ENCODE_BASE64);
+      boolean audit = MFAMainThreadAuditor.shouldAudit();
+      long auditStart = audit ? System.nanoTime() : 0;
       String base64 = "";
       try
       {
@@ -458,6 +620,8 @@ public class MFAMessage implements Parcelable
       {
          e.printStackTrace();
       }
+      if (audit) MFAMainThreadAuditor.check(MFAMainThreadViolation.ENCODE_BASE64, auditStart, bmp.getByteCount());
+      if (trace) MFATrace.end();
       return base64;
    }
 
@@ -20,6 +20,9 @@ import android.graphics.Bitmap;
 import android.graphics.Typeface;
 import android.support.annotation.NonNull;
 import android.support.v7.widget.RecyclerView;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.BackgroundColorSpan;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -29,6 +32,7 @@ import android.widget.TextView;
 
 import com.multifacetedapproach.mfamessageview.Listeners.OnMFAClickListener;
 import com.multifacetedapproach.mfamessageview.Listeners.OnMFALongClickListener;
+import com.multifacetedapproach.mfamessageview.core.MFASearchIndex;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -43,18 +47,52 @@ public class MFAMessageAdapter extends RecyclerView.Adapter<MFAMessageAdapter.Vi
    private static final int SENT_IMAGE = 2;
    // View on the left, image only
    private static final int RECEIVED_IMAGE = 3;
+   // Default background of text matching a search, translucent yellow
+   static final int DEFAULT_HIGHLIGHT_COLOR = 0x80ffd600;
+   // Payloads of changes to the search highlights and of spans becoming ready,
+   // which only rebind the message text
+   static final Object PAYLOAD_HIGHLIGHTS = new Object();
+   static final Object PAYLOAD_SPANS = new Object();
+   // Payload of a day separator coming or going above a message. Nothing in the
+   // cell changes, the rebind only makes RecyclerView measure the space again.
+   static final Object PAYLOAD_SEPARATOR = new Object();
+   // Added to the view type when cells are drawn by MFAMessageCellView so that flat
+   // cells and inflated cells never share a slot in the RecycledViewPool
+   private static final int FLAT_CELL_OFFSET = 4;
    // List of messages for the adpater
    private List<MFAMessage> _messageList = new ArrayList<>();
-   // boolean for profileImg visibility
-   private boolean _showProfileImg = false;
+   // boolean for profileImg visibility. Volatile, like _font, because
+   // MFAViewHolderWarmer may create holders on a background thread.
+   private volatile boolean _showProfileImg = false;
    // LayoutInflator for ViewHolder
    private LayoutInflater _inflater;
    // Typeface for custom font
-   private Typeface _font;
+   private volatile Typeface _font;
    // OnClickListener for Adapter items
    private OnMFAClickListener _onMFAClickListener;
    // OnLongClickListener for Adapter items
    private OnMFALongClickListener _onMFALongClickListener;
+   // True if cells are drawn by a single MFAMessageCellView instead of the XML layouts
+   private boolean _useFlatCells = false;
+   // Scheduler that prepares message images off the main thread, if provided
+   private MFAImageScheduler _imageScheduler;
+   // True while image work is deferred, e.g. during a fast fling. Only images that
+   // have already been prepared are bound in the meantime.
+   private boolean _deferImageWork = false;
+   // Reports creation, binding and image work, or null while metrics are disabled
+   private MFAMetrics _metrics;
+   // Sheds images of messages far from the viewport, or null if disabled
+   private MFAMemoryGovernor _memoryGovernor;
+   // Words of the search query highlighted in message text, or null when not searching
+   private List<String> _highlightTerms;
+   // Incremented whenever the highlighted query changes, so holders redo their highlights
+   private int _highlightVersion = 0;
+   // Background color of highlighted text
+   private int _highlightColor = DEFAULT_HIGHLIGHT_COLOR;
+   // Parses message text into spans off the main thread, or null to display plain text
+   private MFASpanProcessor _spanProcessor;
+   // Holders showing plain text until their message's spans are ready, attached or not
+   private final List<ViewHolder> _awaitingSpans = new ArrayList<>();
    /**
     * Custom adapter for setting up MFAMessageView's cells
     * @param context context of calling class
@@ -78,10 +116,45 @@ public class MFAMessageAdapter extends RecyclerView.Adapter<MFAMessageAdapter.Vi
       RelativeLayout container;
       ImageView profileImg;
       TextView message;
-      TextView timestamp;
       TextView name;
       ImageView messageImg;
       RelativeLayout messageHolder;
+      // Set instead of the views above when the cell is a flat MFAMessageCellView
+      MFAMessageCellView cell;
+      // Width of profileImg as inflated, restored when profile images are shown again
+      int profileImgWidth;
+      // Adapter that last bound this holder. Holders can move between adapters through
+      // a shared RecycledViewPool, so clicks are resolved against this rather than the
+      // adapter that created the holder.
+      MFAMessageAdapter adapter;
+      // Custom font currently applied to this holder's text
+      Typeface font;
+      // Image job scheduled for this holder, cancelled when it is recycled or rebound
+      MFAImageScheduler.Job imageJob;
+      // True if the holder shows a placeholder because image work was deferred
+      boolean imageDeferred;
+      // Content currently shown by the views above. TextView.setText and
+      // ImageView.setImageBitmap allocate even when given what's already shown,
+      // so rebinding unchanged content is skipped by comparing identities.
+      CharSequence boundMessage;
+      CharSequence boundName;
+      Bitmap boundProfileImg;
+      Bitmap boundMessageImg;
+      // Message whose cropped image is boundMessageImg, counted in its boundHolders
+      MFAMessage boundImgMessage;
+      // Message text last parsed into spans for this holder, the processor that parsed
+      // it, and the result. Spans depend only on the text and the parser, so this skips
+      // the cache while both are the same.
+      String spanSource;
+      MFASpanProcessor spanProcessor;
+      CharSequence spanText;
+      // True while the holder is in _awaitingSpans
+      boolean awaitingSpans;
+      // Text last highlighted for this holder, the query version it was
+      // highlighted for, and the result
+      CharSequence highlightSource;
+      int highlightVersion;
+      CharSequence highlightedText;
       // We also create a constructor that accepts the entire item row
       // and does the view lookups to find each subview
       public ViewHolder(final View itemView)
@@ -92,10 +165,13 @@ public class MFAMessageAdapter extends RecyclerView.Adapter<MFAMessageAdapter.Vi
          container = (RelativeLayout) itemView.findViewById(R.id.container);
          profileImg = (ImageView) itemView.findViewById(R.id.profileImg);
          message = (TextView) itemView.findViewById(R.id.message);
-         timestamp = (TextView) itemView.findViewById(R.id.timestamp);
          name = (TextView) itemView.findViewById(R.id.name);
          messageImg = (ImageView) itemView.findViewById(R.id.messageImg);
          messageHolder = (RelativeLayout) itemView.findViewById(R.id.messageHolder);
+         if (itemView instanceof MFAMessageCellView) cell = (MFAMessageCellView) itemView;
+         if (profileImg != null) profileImgWidth = profileImg.getLayoutParams().width;
+         if (message != null) boundMessage = message.getText();
+         if (name != null) boundName = name.getText();
 
          itemView.setOnClickListener(new View.OnClickListener()
          {
@@ -103,10 +179,11 @@ public class MFAMessageAdapter extends RecyclerView.Adapter<MFAMessageAdapter.Vi
             public void onClick(View view)
             {
                int position = getAdapterPosition(); // gets item position
-               if (position != RecyclerView.NO_POSITION && _messageList.size() > position)
+               MFAMessageAdapter a = adapter;
+               if (a != null && position != RecyclerView.NO_POSITION && a._messageList.size() > position)
                { // Check if the message was deleted, but the user clicked it before the UI removed it
-                  MFAMessage msg = _messageList.get(position);
-                  if (_onMFAClickListener != null) _onMFAClickListener.onClick(ViewHolder.this, msg, position);
+                  MFAMessage msg = a._messageList.get(position);
+                  if (a._onMFAClickListener != null) a._onMFAClickListener.onClick(ViewHolder.this, msg, position);
                }
             }
          });
@@ -117,11 +194,12 @@ public class MFAMessageAdapter extends RecyclerView.Adapter<MFAMessageAdapter.Vi
             public boolean onLongClick(View view)
             {
                int position = getAdapterPosition(); // gets item position
-               if (position != RecyclerView.NO_POSITION && _messageList.size() > position)
+               MFAMessageAdapter a = adapter;
+               if (a != null && position != RecyclerView.NO_POSITION && a._messageList.size() > position)
                { // Check if an item was deleted, but the user clicked it before the UI removed it
-                  MFAMessage msg = _messageList.get(position);
+                  MFAMessage msg = a._messageList.get(position);
                   // We can access the data within the views
-                  if (_onMFALongClickListener != null) _onMFALongClickListener.onLongClick(ViewHolder.this, msg, position);
+                  if (a._onMFALongClickListener != null) a._onMFALongClickListener.onLongClick(ViewHolder.this, msg, position);
                   return true;
                }
                return false;
@@ -157,6 +235,121 @@ public class MFAMessageAdapter extends RecyclerView.Adapter<MFAMessageAdapter.Vi
       _onMFALongClickListener = listener;
    }
 
+   /**
+    * Replace the list of messages displayed by this adapter. The caller is
+    * responsible for notifying the adapter of the change.
+    * @param messages list of MFAMessages
+    */
+   void setMessageList(@NonNull List<MFAMessage> messages)
+   {
+      _messageList = messages;
+   }
+
+   /**
+    * Provide the scheduler used to prepare message images off the main thread.
+    * Without one, images are prepared on the main thread as they are bound.
+    * @param scheduler image scheduler
+    */
+   void setImageScheduler(MFAImageScheduler scheduler)
+   {
+      _imageScheduler = scheduler;
+   }
+
+   /**
+    * Provide the metrics creation, binding and image work are reported to.
+    * @param metrics metrics to report to, or null to disable reporting
+    */
+   void setMetrics(MFAMetrics metrics)
+   {
+      _metrics = metrics;
+   }
+
+   /**
+    * Provide the governor told about every image bound, so it can shed the images
+    * bound longest ago when over budget.
+    * @param governor memory governor, or null
+    */
+   void setMemoryGovernor(MFAMemoryGovernor governor)
+   {
+      _memoryGovernor = governor;
+   }
+
+   /**
+    * Highlight the words matching a search query in the message text. The
+    * caller is responsible for rebinding the cells.
+    * @param query search query, or null to stop highlighting
+    */
+   void setHighlightQuery(String query)
+   {
+      List<String> terms = MFASearchIndex.tokenize(query);
+      _highlightTerms = terms.isEmpty() ? null : terms;
+      _highlightVersion++;
+   }
+
+   /**
+    * Provide the processor that parses message text into spans.
+    * @param processor span processor, or null to display plain text
+    */
+   void setSpanProcessor(MFASpanProcessor processor)
+   {
+      _spanProcessor = processor;
+   }
+
+   /**
+    * Set the background color of text matching a search.
+    * @param color color as an ARGB int
+    */
+   void setHighlightColor(int color)
+   {
+      _highlightColor = color;
+      _highlightVersion++;
+   }
+
+   /**
+    * Get the metrics creation, binding and image work are reported to.
+    * @return metrics, or null while reporting is disabled
+    */
+   MFAMetrics getMetrics()
+   {
+      return _metrics;
+   }
+
+   /**
+    * Set whether image work should be deferred. While deferred, image cells only
+    * show images that have already been prepared, and placeholders otherwise.
+    * @param defer true to defer image work, false to resume it
+    */
+   void setDeferImageWork(boolean defer)
+   {
+      _deferImageWork = defer;
+   }
+
+   /**
+    * Schedule the image for a holder whose image work was deferred while it was bound.
+    * Called for attached holders when deferral ends, and for holders reattached later.
+    * @param holder holder currently on screen
+    */
+   void resumeDeferredImage(ViewHolder holder)
+   {
+      if (!holder.imageDeferred) return;
+      int position = holder.getAdapterPosition();
+      if (position != RecyclerView.NO_POSITION && position < _messageList.size())
+      {
+         bindMessageImg(holder, _messageList.get(position), position);
+      }
+   }
+
+   /**
+    * Get the four view types this adapter currently creates, used when
+    * creating ViewHolders ahead of time.
+    * @return view types for sent text, received text, sent image and received image
+    */
+   int[] getViewTypes()
+   {
+      int offset = _useFlatCells ? FLAT_CELL_OFFSET : 0;
+      return new int[] { SENT_TEXT + offset, RECEIVED_TEXT + offset, SENT_IMAGE + offset, RECEIVED_IMAGE + offset };
+   }
+
    /**
     * Set whether or not you wish to display profile images.
     * @param show visible if true, gone if false
@@ -166,9 +359,42 @@ public class MFAMessageAdapter extends RecyclerView.Adapter<MFAMessageAdapter.Vi
       _showProfileImg = show;
    }
 
+   /**
+    * Set whether cells should be drawn by a single flat MFAMessageCellView rather
+    * than inflated from the mfa_*_cell layouts. Useful for A/B benchmarking.
+    * @param useFlatCells true for flat cells, false for the XML layouts
+    */
+   public void setUseFlatCells(boolean useFlatCells)
+   {
+      _useFlatCells = useFlatCells;
+   }
+
+   /**
+    * Determine whether a view type returned by this adapter displays a sent message.
+    * @param viewType view type of a ViewHolder
+    * @return true if the view type is a sent message, false if received
+    */
+   public static boolean isSentViewType(int viewType)
+   {
+      int type = viewType % FLAT_CELL_OFFSET;
+      return type == SENT_TEXT || type == SENT_IMAGE;
+   }
+
+   /**
+    * Determine whether a view type returned by this adapter displays an image.
+    * @param viewType view type of a ViewHolder
+    * @return true if the view type is an image message, false if text
+    */
+   public static boolean isImageViewType(int viewType)
+   {
+      int type = viewType % FLAT_CELL_OFFSET;
+      return type == SENT_IMAGE || type == RECEIVED_IMAGE;
+   }
+
    @Override
    public int getItemViewType(int position)
    {
+      int offset = _useFlatCells ? FLAT_CELL_OFFSET : 0;
       // This is done to increase the performance of the adapter, as this allows
       // us to position the layout of the view inside onCreateViewHolder rather than
       // in onBindViewHolder.
@@ -177,18 +403,18 @@ public class MFAMessageAdapter extends RecyclerView.Adapter<MFAMessageAdapter.Vi
       if (message.getIsSender())
       {
          // Message contains an image
-         if (message.getCroppedImg() != null)
+         if (message.hasMessageImg())
          {
-            return SENT_IMAGE;
+            return SENT_IMAGE + offset;
          }
-         return SENT_TEXT;
+         return SENT_TEXT + offset;
       }
       // Message was received and contains an image
-      if (message.getCroppedImg() != null)
+      if (message.hasMessageImg())
       {
-         return RECEIVED_IMAGE;
+         return RECEIVED_IMAGE + offset;
       }
-      return RECEIVED_TEXT;
+      return RECEIVED_TEXT + offset;
    }
 
    @Override
@@ -199,10 +425,40 @@ public class MFAMessageAdapter extends RecyclerView.Adapter<MFAMessageAdapter.Vi
 
    @Override
    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType)
+   {
+      boolean trace = MFATrace.enabled;
+      if (trace) MFATrace.begin(MFATrace.createViewHolder(viewType));
+      MFAMetrics metrics = _metrics;
+      long start = (metrics != null) ? System.nanoTime() : 0;
+      ViewHolder holder = inflateViewHolder(parent, viewType);
+      if (metrics != null) metrics.onViewHolderCreated(viewType, start);
+      if (trace) MFATrace.end();
+      return holder;
+   }
+
+   /**
+    * Helper method that creates a holder of the given view type, either a flat
+    * cell or one inflated from the matching layout.
+    * @param parent RecyclerView the holder will be attached to
+    * @param viewType view type returned by getItemViewType
+    * @return new holder
+    */
+   private ViewHolder inflateViewHolder(ViewGroup parent, int viewType)
    {
       // Return a new holder instance
       final ViewHolder holder;
 
+      if (viewType >= FLAT_CELL_OFFSET)
+      {
+         MFAMessageCellView cell = new MFAMessageCellView(parent.getContext(),
+               isSentViewType(viewType), isImageViewType(viewType));
+         cell.setLayoutParams(new RecyclerView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+               ViewGroup.LayoutParams.WRAP_CONTENT));
+         holder = new ViewHolder(cell);
+         applyFont(holder);
+         return holder;
+      }
+
       switch (viewType)
       {
          case SENT_TEXT:
@@ -268,66 +524,380 @@ public class MFAMessageAdapter extends RecyclerView.Adapter<MFAMessageAdapter.Vi
       }
 
       // Set the custom font here if provided
-      if (_font != null) holder.message.setTypeface(_font);
-      if (_font != null) holder.timestamp.setTypeface(_font);
-      if (_font != null) holder.name.setTypeface(_font);
+      applyFont(holder);
 
       return holder;
    }
 
+   /**
+    * Helper method that applies the custom font, if one was provided, to a holder.
+    * Without one, a holder given another view's font through a shared pool is
+    * reset to the default font.
+    * @param holder holder to apply the font to
+    */
+   private void applyFont(ViewHolder holder)
+   {
+      // Read once, the font may be changed on the main thread while warming up
+      Typeface font = _font;
+      Typeface previous = holder.font;
+      holder.font = font;
+      if (font == null)
+      {
+         // Holders that never had a custom font already use the default
+         if (previous == null) return;
+         font = Typeface.DEFAULT;
+      }
+      if (holder.cell != null)
+      {
+         holder.cell.setTypeface(font);
+         return;
+      }
+      holder.message.setTypeface(font);
+      holder.name.setTypeface(font);
+   }
+
    @Override
    public void onBindViewHolder(ViewHolder holder, int position)
+   {
+      boolean trace = MFATrace.enabled;
+      if (trace) MFATrace.begin(MFATrace.bindViewHolder(holder.getItemViewType()));
+      MFAMetrics metrics = _metrics;
+      long start = (metrics != null) ? System.nanoTime() : 0;
+      bindViewHolderContent(holder, position);
+      if (metrics != null) metrics.onViewHolderBound(holder.getItemViewType(), start);
+      if (trace) MFATrace.end();
+   }
+
+   @Override
+   public void onBindViewHolder(ViewHolder holder, int position, List<Object> payloads)
+   {
+      // RecyclerView drops the payloads when a full rebind is also pending
+      boolean textChanged = false;
+      for (int i = 0; i < payloads.size(); i++)
+      {
+         Object payload = payloads.get(i);
+         if (payload == PAYLOAD_HIGHLIGHTS || payload == PAYLOAD_SPANS)
+         {
+            textChanged = true;
+         }
+         else if (payload != PAYLOAD_SEPARATOR)
+         {
+            onBindViewHolder(holder, position);
+            return;
+         }
+      }
+      if (payloads.isEmpty())
+      {
+         onBindViewHolder(holder, position);
+      }
+      else if (textChanged)
+      {
+         bindText(holder, _messageList.get(position));
+      }
+   }
+
+   /**
+    * Helper method that shows a message in a holder.
+    * @param holder holder to bind
+    * @param position adapter position of the message
+    */
+   private void bindViewHolderContent(ViewHolder holder, int position)
    {
       MFAMessage message = _messageList.get(position);
+      holder.adapter = this;
+      // Holders from a shared pool may have been created with another view's font
+      if (holder.font != _font) applyFont(holder);
+      if (holder.cell != null)
+      {
+         holder.cell.bind(message, _showProfileImg, getDisplayText(holder, message));
+         if (isImageViewType(holder.getItemViewType())) bindMessageImg(holder, message, position);
+         return;
+      }
+      // Holders may have been created ahead of time or before profile images were
+      // known, so make sure the profile image matches the current setting.
+      int profileImgWidth = _showProfileImg ? holder.profileImgWidth : 0;
+      RelativeLayout.LayoutParams params = (RelativeLayout.LayoutParams) holder.profileImg.getLayoutParams();
+      if (params.width != profileImgWidth)
+      {
+         params.width = profileImgWidth;
+         holder.profileImg.setLayoutParams(params);
+      }
       switch (holder.getItemViewType())
       {
          case SENT_TEXT:
          {
-            holder.timestamp.setText(message.getTimestamp());
-            holder.timestamp.setVisibility(message.getTimeVisible() ? View.VISIBLE : View.GONE);
-            holder.message.setText(message.getMessage());
-            Bitmap profileBmp = message.getProfileImg();
-            if (profileBmp != null) holder.profileImg.setImageBitmap(profileBmp);
+            holder.boundMessage = setText(holder.message, holder.boundMessage, getDisplayText(holder, message));
+            setProfileImg(holder, message.getProfileImg());
             break;
          }
          case SENT_IMAGE:
          {
-            holder.timestamp.setText(message.getTimestamp());
-            holder.timestamp.setVisibility(message.getTimeVisible() ? View.VISIBLE : View.GONE);
-            holder.messageImg.setImageBitmap(message.getCroppedImg());
-            Bitmap profileBmp = message.getProfileImg();
-            if (profileBmp != null) holder.profileImg.setImageBitmap(profileBmp);
+            bindMessageImg(holder, message, position);
+            setProfileImg(holder, message.getProfileImg());
             break;
          }
          case RECEIVED_TEXT:
          {
-            holder.timestamp.setText(message.getTimestamp());
-            holder.timestamp.setVisibility(message.getTimeVisible() ? View.VISIBLE : View.GONE);
-            holder.message.setText(message.getMessage());
+            holder.boundMessage = setText(holder.message, holder.boundMessage, getDisplayText(holder, message));
             holder.name.setVisibility(message.getNameVisible() ? View.VISIBLE : View.GONE);
-            holder.name.setText(message.getName());
-            Bitmap profileBmp = message.getProfileImg();
-            if (profileBmp != null) holder.profileImg.setImageBitmap(profileBmp);
+            holder.boundName = setText(holder.name, holder.boundName, message.getName());
+            setProfileImg(holder, message.getProfileImg());
             break;
          }
          case RECEIVED_IMAGE:
          {
-            holder.timestamp.setText(message.getTimestamp());
-            holder.timestamp.setVisibility(message.getTimeVisible() ? View.VISIBLE : View.GONE);
-            holder.messageImg.setImageBitmap(message.getCroppedImg());
+            bindMessageImg(holder, message, position);
             holder.name.setVisibility(message.getNameVisible() ? View.VISIBLE : View.GONE);
-            holder.name.setText(message.getName());
-            Bitmap profileBmp = message.getProfileImg();
-            if (profileBmp != null) holder.profileImg.setImageBitmap(profileBmp);
+            holder.boundName = setText(holder.name, holder.boundName, message.getName());
+            setProfileImg(holder, message.getProfileImg());
             break;
          }
          default:
          {
-            holder.timestamp.setText(message.getTimestamp());
-            holder.timestamp.setVisibility(message.getTimeVisible() ? View.VISIBLE : View.GONE);
-            holder.message.setText(message.getMessage());
+            holder.boundMessage = setText(holder.message, holder.boundMessage, getDisplayText(holder, message));
             break;
          }
       }
    }
+
+   @Override
+   public void onViewAttachedToWindow(ViewHolder holder)
+   {
+      // Holders coming back from RecyclerView's view cache aren't rebound, so one
+      // deferred during a fling that has since ended would keep its placeholder
+      if (!_deferImageWork) resumeDeferredImage(holder);
+   }
+
+   @Override
+   public void onViewRecycled(ViewHolder holder)
+   {
+      if (_imageScheduler != null) _imageScheduler.cancel(holder);
+      // Pooled holders would otherwise keep the image alive after the memory
+      // governor dropped it from the message
+      setMessageImg(holder, null, null);
+      holder.imageDeferred = false;
+      setAwaitingSpans(holder, false);
+   }
+
+   /**
+    * Helper method that binds the cropped message image if it's ready, or shows
+    * an empty placeholder and schedules the image to be prepared unless image
+    * work is currently deferred.
+    * @param holder holder to bind
+    * @param message message being bound
+    * @param position adapter position of the message
+    */
+   private void bindMessageImg(ViewHolder holder, MFAMessage message, int position)
+   {
+      Bitmap bmp = message.peekCroppedImg();
+      MFAMetrics metrics = _metrics;
+      if (metrics != null) metrics.onImageCacheLookup(bmp != null);
+      if (bmp == null && _imageScheduler == null)
+      {
+         bmp = (metrics != null) ? metrics.prepareCroppedImg(message) : message.prepareCroppedImg();
+      }
+      setMessageImg(holder, message, bmp);
+      if (bmp != null && _memoryGovernor != null) _memoryGovernor.onImageBound(message);
+      holder.imageDeferred = false;
+      if (_imageScheduler != null)
+      {
+         if (bmp != null)
+         {
+            _imageScheduler.cancel(holder);
+         }
+         else if (_deferImageWork)
+         {
+            // Cell may only be on screen for a few milliseconds, wait for the scroll to settle
+            _imageScheduler.cancel(holder);
+            holder.imageDeferred = true;
+         }
+         else
+         {
+            _imageScheduler.schedule(this, holder, message, position);
+         }
+      }
+   }
+
+   /**
+    * Called on the main thread by MFAImageScheduler when an image finishes
+    * preparing for a holder that is still showing the same message.
+    * @param holder holder the image was prepared for
+    * @param message message the image was prepared for
+    * @param bmp cropped message image
+    */
+   void onImagePrepared(ViewHolder holder, MFAMessage message, Bitmap bmp)
+   {
+      setMessageImg(holder, message, bmp);
+      if (bmp != null && _memoryGovernor != null) _memoryGovernor.onImageBound(message);
+   }
+
+   /**
+    * Helper method that shows a message's cropped image, keeping count of the
+    * holders showing each message's image for the memory governor.
+    * @param holder holder to bind
+    * @param message message the image belongs to
+    * @param bmp cropped message image, or null for a placeholder
+    */
+   private static void setMessageImg(ViewHolder holder, MFAMessage message, Bitmap bmp)
+   {
+      MFAMessage imgMessage = (bmp != null) ? message : null;
+      if (holder.boundImgMessage != imgMessage)
+      {
+         if (holder.boundImgMessage != null) holder.boundImgMessage.boundHolders--;
+         if (imgMessage != null) imgMessage.boundHolders++;
+         holder.boundImgMessage = imgMessage;
+      }
+      if (holder.boundMessageImg == bmp) return;
+      holder.boundMessageImg = bmp;
+      if (holder.cell != null)
+      {
+         holder.cell.setMessageImg(bmp);
+      }
+      else
+      {
+         // Like the flat cell, reserve a square while the image is being prepared,
+         // rather than letting adjustViewBounds collapse the view to nothing. The
+         // image cell layouts start out with that minimum height.
+         int minHeight = (bmp == null) ? holder.messageImg.getLayoutParams().width : 0;
+         if (holder.messageImg.getMinimumHeight() != minHeight) holder.messageImg.setMinimumHeight(minHeight);
+         holder.messageImg.setImageBitmap(bmp);
+      }
+   }
+
+   private static void setProfileImg(ViewHolder holder, Bitmap bmp)
+   {
+      // A message without a profile image leaves the previous one in place
+      if (bmp == null || holder.boundProfileImg == bmp) return;
+      holder.boundProfileImg = bmp;
+      holder.profileImg.setImageBitmap(bmp);
+   }
+
+   /**
+    * Called on the main thread by MFAMessageView when a message's spans are
+    * ready. Every holder still showing the message as plain text is notified
+    * with a payload, so only its text is rebound, including holders in
+    * RecyclerView's view cache that aren't attached.
+    * @param message message whose spans are ready
+    */
+   void onSpansPrepared(MFAMessage message)
+   {
+      for (int i = _awaitingSpans.size() - 1; i >= 0; i--)
+      {
+         int position = _awaitingSpans.get(i).getAdapterPosition();
+         if (position != RecyclerView.NO_POSITION && _messageList.get(position) == message)
+         {
+            notifyItemChanged(position, PAYLOAD_SPANS);
+         }
+      }
+   }
+
+   /**
+    * Helper method that adds a holder to or removes it from the holders waiting
+    * for their message's spans.
+    * @param holder holder to update
+    * @param awaiting true if the holder shows plain text until the spans are ready
+    */
+   private void setAwaitingSpans(ViewHolder holder, boolean awaiting)
+   {
+      if (holder.awaitingSpans == awaiting) return;
+      holder.awaitingSpans = awaiting;
+      if (awaiting)
+      {
+         _awaitingSpans.add(holder);
+      }
+      else
+      {
+         _awaitingSpans.remove(holder);
+      }
+   }
+
+   /**
+    * Helper method that rebinds only the text of a holder already showing a
+    * message, e.g. once its spans are ready or its highlights change.
+    * @param holder holder showing the message
+    * @param message message to show the text of
+    */
+   private void bindText(ViewHolder holder, MFAMessage message)
+   {
+      if (isImageViewType(holder.getItemViewType())) return;
+      CharSequence text = getDisplayText(holder, message);
+      if (holder.cell != null)
+      {
+         holder.cell.bind(message, _showProfileImg, text);
+      }
+      else
+      {
+         holder.boundMessage = setText(holder.message, holder.boundMessage, text);
+      }
+   }
+
+   /**
+    * Helper method that returns a message's text with its spans, if they're
+    * ready, and the current search matches highlighted. Both results are kept on
+    * the holder, so rebinding the same message doesn't look them up again.
+    * @param holder holder the text is for
+    * @param message message being bound
+    * @return text to display
+    */
+   private CharSequence getDisplayText(ViewHolder holder, MFAMessage message)
+   {
+      String source = message.getMessage();
+      CharSequence text = source;
+      boolean awaitingSpans = false;
+      if (_spanProcessor != null)
+      {
+         if (holder.spanSource == source && holder.spanProcessor == _spanProcessor)
+         {
+            text = holder.spanText;
+         }
+         else
+         {
+            CharSequence spans = _spanProcessor.get(message);
+            // Shown as plain text until the spans are ready
+            if (spans != null)
+            {
+               holder.spanSource = source;
+               holder.spanProcessor = _spanProcessor;
+               holder.spanText = spans;
+               text = spans;
+            }
+            awaitingSpans = (spans == null);
+         }
+      }
+      setAwaitingSpans(holder, awaitingSpans);
+      List<String> terms = _highlightTerms;
+      if (terms == null) return text;
+      if (holder.highlightSource == text && holder.highlightVersion == _highlightVersion) return holder.highlightedText;
+      CharSequence highlighted = text;
+      int[] matches = MFASearchIndex.findMatches(text.toString(), terms);
+      if (matches.length > 0)
+      {
+         // Copies the spans of text along with it
+         SpannableString spannable = new SpannableString(text);
+         for (int i = 0; i < matches.length; i += 2)
+         {
+            spannable.setSpan(new BackgroundColorSpan(_highlightColor), matches[i], matches[i + 1],
+                  Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+         }
+         highlighted = spannable;
+      }
+      holder.highlightSource = text;
+      holder.highlightVersion = _highlightVersion;
+      holder.highlightedText = highlighted;
+      return highlighted;
+   }
+
+   /**
+    * Helper method that sets a TextView's text unless it's already showing that
+    * exact instance, so rebinding a cell to the same message allocates nothing.
+    * @param view view to set the text of
+    * @param bound text the view is currently showing
+    * @param text text to show
+    * @return text now shown by the view
+    */
+   private static CharSequence setText(TextView view, CharSequence bound, CharSequence text)
+   {
+      if (bound != text) view.setText(text);
+      return text;
+   }
 }
@@ -0,0 +1,359 @@
+/*******************************************************************************
+ * Copyright 2016 - 2017 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.NonNull;
+import android.support.v4.content.ContextCompat;
+import android.text.Layout;
+import android.text.Spanned;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.TypedValue;
+import android.view.View;
+
+/**
+ * A single flat view that measures and draws an entire message cell: the
+ * name, the profile image, the bubble and either the message text or the
+ * message image. Timestamps are drawn between cells by
+ * MFADaySeparatorDecoration. It mirrors the mfa_*_cell layouts so it can be
+ * swapped in for them, but without the nested RelativeLayout measure passes
+ * and without drawing the bubble as a separate view.
+ */
+public class MFAMessageCellView extends View
+{
+   // Color used for the name and received message text
+   private static final int GRAY = 0xff676767;
+   // Line spacing multiplier used by the message text
+   private static final float LINE_SPACING = 1.25f;
+   // True if this cell displays a sent message
+   private final boolean _isSender;
+   // True if this cell displays an image rather than text
+   private final boolean _isImage;
+   // Paints used for each piece of text
+   private final TextPaint _namePaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+   private final TextPaint _messagePaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+   // Paint used for bitmaps
+   private final Paint _bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+   // 9-patch bubble drawn behind the message text
+   private final Drawable _bubble;
+   // Reusable rects for drawing bitmaps
+   private final Rect _srcRect = new Rect();
+   private final Rect _dstRect = new Rect();
+   // Dimensions taken from the mfa_*_cell layouts, in pixels
+   private final int _nameHeight;
+   private final int _nameMarginStart;
+   private final int _nameMarginEnd;
+   private final int _profileSize;
+   private final int _profileMargin;
+   private final int _profileMarginBottom;
+   private final int _messageMarginNear;
+   private final int _messageMarginFar;
+   private final int _messageMarginTop;
+   private final int _messageMarginBottom;
+   private final int _messagePaddingHorizontal;
+   private final int _messagePaddingVertical;
+   private final int _imageWidth;
+   // Content currently bound to this cell
+   private String _name;
+   private CharSequence _message;
+   private Bitmap _profileImg;
+   private Bitmap _messageImg;
+   private boolean _nameVisible;
+   private boolean _showProfileImg;
+   // Cached text layouts, rebuilt only when the content or available width changes
+   private StaticLayout _messageLayout;
+   private int _messageLayoutWidth = -1;
+   private CharSequence _ellipsizedName;
+   private int _ellipsizedNameWidth = -1;
+   // Positions computed in onMeasure and used in onDraw
+   private int _contentTop;
+   private int _contentWidth;
+   private int _contentHeight;
+
+   /**
+    * Create a cell for one of the four message view types.
+    * @param context context of calling class
+    * @param isSender true if the cell displays sent messages, false if received
+    * @param isImage true if the cell displays image messages, false if text
+    */
+   public MFAMessageCellView(@NonNull Context context, boolean isSender, boolean isImage)
+   {
+      super(context);
+      _isSender = isSender;
+      _isImage = isImage;
+
+      _nameHeight = dp(20);
+      _nameMarginStart = dp(17.5f);
+      _nameMarginEnd = isSender ? dp(20) : dp(70);
+      _profileSize = dp(25);
+      _profileMargin = dp(7.5f);
+      _profileMarginBottom = dp(2);
+      _messageMarginNear = dp(7.5f);
+      _messageMarginFar = dp(70);
+      _messageMarginTop = dp(2);
+      _messageMarginBottom = dp(4);
+      _messagePaddingHorizontal = dp(15);
+      _messagePaddingVertical = dp(8);
+      _imageWidth = dp(240);
+
+      _namePaint.setColor(GRAY);
+      _namePaint.setTextSize(dp(12));
+      _messagePaint.setColor(isSender ? 0xffffffff : GRAY);
+      _messagePaint.setTextSize(sp(16));
+
+      _bubble = isImage ? null : ContextCompat.getDrawable(context,
+            isSender ? R.drawable.mfa_send_bubble : R.drawable.mfa_receive_bubble);
+   }
+
+   /**
+    * Provide a custom font for the text drawn by this cell.
+    * @param font custom font
+    */
+   public void setTypeface(@NonNull Typeface font)
+   {
+      _namePaint.setTypeface(font);
+      _messagePaint.setTypeface(font);
+      _messageLayoutWidth = -1;
+      _ellipsizedNameWidth = -1;
+      requestLayout();
+   }
+
+   /**
+    * Bind a message to this cell. Only content that differs from what is
+    * currently displayed causes a new layout or redraw.
+    * @param message message to display
+    * @param showProfileImg true if profile images should be shown
+    */
+   public void bind(@NonNull MFAMessage message, boolean showProfileImg)
+   {
+      bind(message, showProfileImg, message.getMessage());
+   }
+
+   /**
+    * Bind a message to this cell, displaying text in place of the message's own
+    * text, e.g. the text with search matches highlighted.
+    * @param message message to display
+    * @param showProfileImg true if profile images should be shown
+    * @param text text to display for a text message
+    */
+   public void bind(@NonNull MFAMessage message, boolean showProfileImg, CharSequence text)
+   {
+      boolean relayout = false;
+      if (_showProfileImg != showProfileImg)
+      {
+         _showProfileImg = showProfileImg;
+         relayout = true;
+      }
+      boolean nameVisible = !_isSender && message.getNameVisible();
+      if (_nameVisible != nameVisible || !TextUtils.equals(_name, message.getName()))
+      {
+         _nameVisible = nameVisible;
+         _name = message.getName();
+         _ellipsizedNameWidth = -1;
+         relayout = true;
+      }
+      boolean redraw = relayout;
+      if (_profileImg != message.getProfileImg())
+      {
+         _profileImg = message.getProfileImg();
+         redraw = true;
+      }
+      if (_isImage)
+      {
+         // The adapter schedules the image if it hasn't been prepared yet
+         Bitmap bmp = message.peekCroppedImg();
+         if (_messageImg != bmp)
+         {
+            relayout |= setMessageImgInternal(bmp);
+            redraw = true;
+         }
+      }
+      else if (_message != text && (text instanceof Spanned || _message instanceof Spanned
+            || !TextUtils.equals(_message, text)))
+      {
+         // TextUtils.equals ignores spans, so styled text is compared by identity
+         _message = text;
+         _messageLayoutWidth = -1;
+         relayout = true;
+      }
+
+      // Rebinding the same message, e.g. after a change elsewhere in the list, costs nothing
+      if (relayout) requestLayout();
+      if (relayout || redraw) invalidate();
+   }
+
+   /**
+    * Replace the displayed message image without rebinding the rest of the cell.
+    * @param bmp message image, or null to clear it
+    */
+   public void setMessageImg(Bitmap bmp)
+   {
+      if (setMessageImgInternal(bmp)) requestLayout();
+      invalidate();
+   }
+
+   private boolean setMessageImgInternal(Bitmap bmp)
+   {
+      boolean sizeChanged = (_messageImg == null) != (bmp == null) || (bmp != null
+            && (bmp.getWidth() != _messageImg.getWidth() || bmp.getHeight() != _messageImg.getHeight()));
+      _messageImg = bmp;
+      return sizeChanged;
+   }
+
+   @Override
+   protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec)
+   {
+      int width = MeasureSpec.getSize(widthMeasureSpec);
+      int profileWidth = _showProfileImg ? _profileSize : 0;
+      // Space the bubble may take up, the same constraint the XML cells express with margins
+      int maxContentWidth = Math.max(0, width - _profileMargin - profileWidth - _messageMarginNear - _messageMarginFar);
+
+      int top = 0;
+      if (_nameVisible)
+      {
+         top += _nameHeight;
+         int nameWidth = Math.max(0, width - _profileMargin - profileWidth - _nameMarginStart - _nameMarginEnd);
+         if (nameWidth != _ellipsizedNameWidth)
+         {
+            _ellipsizedName = (_name != null) ? TextUtils.ellipsize(_name, _namePaint, nameWidth, TextUtils.TruncateAt.END) : null;
+            _ellipsizedNameWidth = nameWidth;
+         }
+      }
+      _contentTop = top + _messageMarginTop;
+
+      if (_isImage)
+      {
+         _contentWidth = Math.min(_imageWidth, maxContentWidth);
+         // Mirrors fitCenter with adjustViewBounds on the XML ImageView. Cropped images
+         // are square, so reserve a square while the image is still being prepared.
+         _contentHeight = (_messageImg != null && _messageImg.getWidth() > 0)
+               ? _contentWidth * _messageImg.getHeight() / _messageImg.getWidth() : _contentWidth;
+      }
+      else
+      {
+         int textWidth = Math.max(0, maxContentWidth - 2 * _messagePaddingHorizontal);
+         if (textWidth != _messageLayoutWidth)
+         {
+            CharSequence text = (_message != null) ? _message : "";
+            int desired = (int) Math.ceil(Layout.getDesiredWidth(text, _messagePaint));
+            _messageLayout = new StaticLayout(text, _messagePaint, Math.min(desired, textWidth),
+                  Layout.Alignment.ALIGN_NORMAL, LINE_SPACING, 0f, true);
+            _messageLayoutWidth = textWidth;
+         }
+         _contentWidth = _messageLayout.getWidth() + 2 * _messagePaddingHorizontal;
+         _contentHeight = _messageLayout.getHeight() + 2 * _messagePaddingVertical;
+      }
+
+      int height = _contentTop + _contentHeight + _messageMarginBottom;
+      setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+   }
+
+   @Override
+   protected void onDraw(Canvas canvas)
+   {
+      int width = getWidth();
+      int profileWidth = _showProfileImg ? _profileSize : 0;
+
+      if (_nameVisible && _ellipsizedName != null)
+      {
+         Paint.FontMetricsInt fm = _namePaint.getFontMetricsInt();
+         int baseline = (_nameHeight - fm.descent - fm.ascent) / 2;
+         int start = _profileMargin + profileWidth + _nameMarginStart;
+         int nameWidth = (int) Math.ceil(_namePaint.measureText(_ellipsizedName, 0, _ellipsizedName.length()));
+         int left = _isSender ? width - start - nameWidth : start;
+         canvas.drawText(_ellipsizedName, 0, _ellipsizedName.length(), mirror(left, nameWidth), baseline, _namePaint);
+      }
+
+      int near = _profileMargin + profileWidth + _messageMarginNear;
+      int contentLeft = mirror(_isSender ? width - near - _contentWidth : near, _contentWidth);
+      int contentBottom = _contentTop + _contentHeight;
+
+      if (_isImage)
+      {
+         if (_messageImg != null)
+         {
+            _srcRect.set(0, 0, _messageImg.getWidth(), _messageImg.getHeight());
+            _dstRect.set(contentLeft, _contentTop, contentLeft + _contentWidth, contentBottom);
+            canvas.drawBitmap(_messageImg, _srcRect, _dstRect, _bitmapPaint);
+         }
+      }
+      else
+      {
+         if (_bubble != null)
+         {
+            _bubble.setBounds(contentLeft, _contentTop, contentLeft + _contentWidth, contentBottom);
+            _bubble.draw(canvas);
+         }
+         int save = canvas.save();
+         canvas.translate(contentLeft + _messagePaddingHorizontal, _contentTop + _messagePaddingVertical);
+         _messageLayout.draw(canvas);
+         canvas.restoreToCount(save);
+      }
+
+      if (_showProfileImg && _profileImg != null)
+      {
+         int profileLeft = mirror(_isSender ? width - _profileMargin - _profileSize : _profileMargin, _profileSize);
+         int profileBottom = contentBottom - _profileMarginBottom;
+         _srcRect.set(0, 0, _profileImg.getWidth(), _profileImg.getHeight());
+         centerCrop(_srcRect);
+         _dstRect.set(profileLeft, profileBottom - _profileSize, profileLeft + _profileSize, profileBottom);
+         canvas.drawBitmap(_profileImg, _srcRect, _dstRect, _bitmapPaint);
+      }
+   }
+
+   /**
+    * Helper method that shrinks a source rect to its centered square, matching
+    * the centerCrop scale type of the XML profile image.
+    * @param src source rect to crop in place
+    */
+   private static void centerCrop(Rect src)
+   {
+      int size = Math.min(src.width(), src.height());
+      src.left = (src.width() - size) / 2;
+      src.top = (src.height() - size) / 2;
+      src.right = src.left + size;
+      src.bottom = src.top + size;
+   }
+
+   /**
+    * Helper method that mirrors a horizontal position for right-to-left layouts.
+    * @param left left edge in a left-to-right layout
+    * @param width width of the element
+    * @return left edge for the current layout direction
+    */
+   private int mirror(int left, int width)
+   {
+      return (getLayoutDirection() == LAYOUT_DIRECTION_RTL) ? getWidth() - left - width : left;
+   }
+
+   private int dp(float value)
+   {
+      return Math.round(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, value, getResources().getDisplayMetrics()));
+   }
+
+   private float sp(float value)
+   {
+      return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, value, getResources().getDisplayMetrics());
+   }
+}
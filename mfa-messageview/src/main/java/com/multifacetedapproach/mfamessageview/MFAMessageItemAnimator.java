@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright 2016 - 2017 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview;
+
+import android.support.v7.widget.DefaultItemAnimator;
+import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
+import android.view.View;
+
+/**
+ * Item animator for MFAMessageView. Single inserts and removals fade on a
+ * hardware layer. When a burst of adapter changes arrives within one frame,
+ * such as a flood of incoming messages or a bulk removal, all animations are
+ * skipped and views jump straight to their final state, and the layout manager
+ * is told to skip the predictive pre-layout pass.
+ */
+public class MFAMessageItemAnimator extends DefaultItemAnimator
+{
+   // Default number of changes within a frame above which animations are skipped
+   public static final int DEFAULT_BURST_THRESHOLD = 3;
+   // Number of changes within a frame above which animations are skipped
+   private int _burstThreshold = DEFAULT_BURST_THRESHOLD;
+   // Number of adapter changes reported since the last frame
+   private int _changesThisFrame = 0;
+   // True once a frame has crossed the threshold, until a frame passes with no changes
+   private boolean _inBurst = false;
+   // True while a frame callback is pending
+   private boolean _frameCallbackPosted = false;
+   // Runs at the start of each frame while changes are arriving. Changes made
+   // before a frame are laid out and animated in that frame's traversal, which
+   // runs after this callback, so a burst only ends once a whole frame passes
+   // without any changes.
+   private final Choreographer.FrameCallback _frameCallback = new Choreographer.FrameCallback()
+   {
+      @Override
+      public void doFrame(long frameTimeNanos)
+      {
+         if (_changesThisFrame > 0)
+         {
+            _changesThisFrame = 0;
+            Choreographer.getInstance().postFrameCallback(this);
+         }
+         else
+         {
+            _inBurst = false;
+            _frameCallbackPosted = false;
+         }
+      }
+   };
+
+   /**
+    * Set the number of adapter changes within a single frame above which
+    * animations and predictive pre-layout are skipped.
+    * @param threshold number of changes per frame
+    */
+   public void setBurstThreshold(int threshold)
+   {
+      _burstThreshold = threshold;
+   }
+
+   /**
+    * Report adapter changes. MFAMessageView calls this for every change it
+    * notifies, with the number of items affected.
+    * @param count number of items changed
+    */
+   public void onChangesDispatched(int count)
+   {
+      _changesThisFrame += count;
+      if (_changesThisFrame > _burstThreshold && !_inBurst)
+      {
+         _inBurst = true;
+         // Anything still running from before the burst would overlap with it
+         endAnimations();
+      }
+      if (!_frameCallbackPosted)
+      {
+         _frameCallbackPosted = true;
+         Choreographer.getInstance().postFrameCallback(_frameCallback);
+      }
+   }
+
+   /**
+    * Get whether a burst of changes is in progress.
+    * @return true if animations and predictive pre-layout should be skipped
+    */
+   public boolean isInBurst()
+   {
+      return _inBurst;
+   }
+
+   @Override
+   public boolean animateAdd(RecyclerView.ViewHolder holder)
+   {
+      if (_inBurst)
+      {
+         dispatchAddFinished(holder);
+         return false;
+      }
+      holder.itemView.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+      return super.animateAdd(holder);
+   }
+
+   @Override
+   public void onAddFinished(RecyclerView.ViewHolder item)
+   {
+      item.itemView.setLayerType(View.LAYER_TYPE_NONE, null);
+   }
+
+   @Override
+   public boolean animateRemove(RecyclerView.ViewHolder holder)
+   {
+      if (_inBurst)
+      {
+         dispatchRemoveFinished(holder);
+         return false;
+      }
+      holder.itemView.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+      return super.animateRemove(holder);
+   }
+
+   @Override
+   public void onRemoveFinished(RecyclerView.ViewHolder item)
+   {
+      item.itemView.setLayerType(View.LAYER_TYPE_NONE, null);
+   }
+
+   @Override
+   public boolean animateMove(RecyclerView.ViewHolder holder, int fromX, int fromY, int toX, int toY)
+   {
+      if (_inBurst)
+      {
+         dispatchMoveFinished(holder);
+         return false;
+      }
+      return super.animateMove(holder, fromX, fromY, toX, toY);
+   }
+
+   @Override
+   public boolean animateChange(RecyclerView.ViewHolder oldHolder, RecyclerView.ViewHolder newHolder,
+                                int fromX, int fromY, int toX, int toY)
+   {
+      if (_inBurst)
+      {
+         dispatchChangeFinished(oldHolder, true);
+         if (newHolder != null && newHolder != oldHolder) dispatchChangeFinished(newHolder, false);
+         return false;
+      }
+      return super.animateChange(oldHolder, newHolder, fromX, fromY, toX, toY);
+   }
+}
@@ -0,0 +1,394 @@
+/*******************************************************************************
+ * Copyright 2016 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.multifacetedapproach.mfamessageview.core.MFATimeFormatter;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Persists messages of any number of conversations in SQLite with a full-text
+ * index of their text, so years of history can be searched without loading
+ * any MFAMessages. Search hits only identify messages; loadWindow loads the
+ * messages around a hit for MFAMessageView.showMessageWindow.
+ * <p>
+ * Persist messages as they arrive, before giving them to MFAMessageView, which
+ * replaces their timestamps with display text. Messages whose timestamps don't
+ * parse, including ones already given to MFAMessageView, can't be ordered and
+ * aren't persisted. Profile images are not stored, since they're shared by many
+ * messages: set them on loaded messages as for any others. Every method reads
+ * or writes the database, so call them off the main thread.
+ */
+public class MFAMessageStore extends SQLiteOpenHelper
+{
+   // Name of the database file used by default
+   public static final String DEFAULT_DATABASE_NAME = "mfa_messages.db";
+   private static final int DATABASE_VERSION = 1;
+   // Tag for log messages
+   private static final String TAG = "MFAMessageStore";
+   // Parses provided timestamps, so messages can be ordered by time. Guarded by _sdfLock.
+   private final Object _sdfLock = new Object();
+   private SimpleDateFormat _sdf = new SimpleDateFormat(MFATimeFormatter.DEFAULT_TIMESTAMP_FORMAT, Locale.ENGLISH);
+
+   /**
+    * @param context context used to open the database
+    */
+   public MFAMessageStore(@NonNull Context context)
+   {
+      this(context, DEFAULT_DATABASE_NAME);
+   }
+
+   /**
+    * @param context context used to open the database
+    * @param name name of the database file, or null for an in-memory database
+    */
+   public MFAMessageStore(@NonNull Context context, String name)
+   {
+      super(context.getApplicationContext(), name, null, DATABASE_VERSION);
+   }
+
+   @Override
+   public void onCreate(SQLiteDatabase db)
+   {
+      db.execSQL("CREATE TABLE messages (_id INTEGER PRIMARY KEY, conversation TEXT NOT NULL, "
+            + "uid INTEGER NOT NULL, time INTEGER NOT NULL, text TEXT NOT NULL, data TEXT NOT NULL)");
+      db.execSQL("CREATE INDEX messages_conversation_time ON messages (conversation, time)");
+      db.execSQL("CREATE INDEX messages_conversation_uid ON messages (conversation, uid)");
+      // The index reads text from the messages table rather than keeping its own copy.
+      // The unicode61 tokenizer would fold case beyond ASCII, but needs API 21.
+      db.execSQL("CREATE VIRTUAL TABLE message_text USING fts4(content=\"messages\", text)");
+   }
+
+   @Override
+   public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion)
+   {
+      // There is only one version of the schema so far
+   }
+
+   /**
+    * Set the SimpleDateFormat used to parse the timestamps of persisted messages.
+    * Should match the one given to MFAMessageView.
+    * @param sdf custom SimpleDateFormat
+    */
+   public void setSimpleDateFormat(@NonNull SimpleDateFormat sdf)
+   {
+      // A copy, as the view parses with its own on the main thread
+      SimpleDateFormat copy = (SimpleDateFormat) sdf.clone();
+      synchronized (_sdfLock)
+      {
+         _sdf = copy;
+      }
+   }
+
+   /**
+    * Persist a message and index its text. A message with a UID replaces the
+    * message persisted to the conversation with the same UID, if any.
+    * @param conversation identifies the conversation the message belongs to
+    * @param message message to persist
+    * @return true if the message was persisted, false if its timestamp doesn't parse
+    */
+   public boolean persist(@NonNull String conversation, @NonNull MFAMessage message)
+   {
+      return persist(conversation, Collections.singletonList(message)) == 1;
+   }
+
+   /**
+    * Persist messages in a single transaction, which is much faster than
+    * persisting them one at a time.
+    * @param conversation identifies the conversation the messages belong to
+    * @param messages messages to persist
+    * @return number of messages persisted, leaving out those whose timestamps don't parse
+    * @see #persist(String, MFAMessage)
+    */
+   public int persist(@NonNull String conversation, @NonNull List<MFAMessage> messages)
+   {
+      int persisted = 0;
+      SQLiteDatabase db = getWritableDatabase();
+      SQLiteStatement insert = db.compileStatement(
+            "INSERT INTO messages (conversation, uid, time, text, data) VALUES (?, ?, ?, ?, ?)");
+      SQLiteStatement index = db.compileStatement("INSERT INTO message_text (docid, text) VALUES (?, ?)");
+      db.beginTransaction();
+      try
+      {
+         for (MFAMessage message : messages)
+         {
+            Date time = parseTime(message.getTimestamp());
+            if (time == null)
+            {
+               // Stored with no time it would sort as the oldest message of all
+               Log.w(TAG, "Not persisting message " + message.uid + ", its timestamp \""
+                     + message.getTimestamp() + "\" doesn't parse");
+               continue;
+            }
+            if (message.uid != 0)
+            {
+               delete(db, "conversation = ? AND uid = ?", conversation, Long.toString(message.uid));
+            }
+            String text = message.getMessage();
+            insert.bindString(1, conversation);
+            insert.bindLong(2, message.uid);
+            insert.bindLong(3, time.getTime());
+            insert.bindString(4, text);
+            insert.bindString(5, message.writeToJSON(false).toString());
+            long rowId = insert.executeInsert();
+            if (!text.isEmpty())
+            {
+               index.bindLong(1, rowId);
+               index.bindString(2, text);
+               index.executeInsert();
+            }
+            persisted++;
+         }
+         db.setTransactionSuccessful();
+      }
+      finally
+      {
+         db.endTransaction();
+         insert.close();
+         index.close();
+      }
+      return persisted;
+   }
+
+   /**
+    * Remove a persisted message.
+    * @param conversation conversation the message was persisted to
+    * @param uid UID of the message
+    * @return true if a message was removed
+    */
+   public boolean remove(@NonNull String conversation, long uid)
+   {
+      return delete(getWritableDatabase(), "conversation = ? AND uid = ?", conversation, Long.toString(uid)) > 0;
+   }
+
+   /**
+    * Remove every message persisted to a conversation.
+    * @param conversation conversation to remove
+    * @return number of messages removed
+    */
+   public int removeConversation(@NonNull String conversation)
+   {
+      return delete(getWritableDatabase(), "conversation = ?", conversation);
+   }
+
+   /**
+    * Search the text of the messages of every conversation.
+    * @param query words to search for
+    * @param limit maximum number of hits
+    * @return hits, most recent first
+    * @see #search(String, String, int)
+    */
+   public List<MFASearchHit> search(String query, int limit)
+   {
+      return search(null, query, limit);
+   }
+
+   /**
+    * Search the text of persisted messages. Every word of the query must match
+    * the start of a word in a message, as for MFAMessageView.search, ignoring
+    * the case of ASCII letters.
+    * @param conversation conversation to search, or null to search them all
+    * @param query words to search for
+    * @param limit maximum number of hits
+    * @return hits, most recent first
+    */
+   public List<MFASearchHit> search(String conversation, String query, int limit)
+   {
+      List<MFASearchHit> hits = new ArrayList<>();
+      String match = toMatchExpression(query);
+      if (match == null || limit <= 0)
+      {
+         return hits;
+      }
+      String sql = "SELECT m._id, m.conversation, m.uid, m.time FROM message_text"
+            + " JOIN messages m ON m._id = message_text.docid WHERE message_text MATCH ?"
+            + ((conversation != null) ? " AND m.conversation = ?" : "")
+            + " ORDER BY m.time DESC, m._id DESC LIMIT " + limit;
+      String[] args = (conversation != null) ? new String[] {match, conversation} : new String[] {match};
+      Cursor cursor = getReadableDatabase().rawQuery(sql, args);
+      try
+      {
+         while (cursor.moveToNext())
+         {
+            hits.add(new MFASearchHit(cursor.getString(1), cursor.getLong(2), cursor.getLong(3), cursor.getLong(0)));
+         }
+      }
+      finally
+      {
+         cursor.close();
+      }
+      return hits;
+   }
+
+   /**
+    * Load the messages around a search hit, oldest first, so only they need to
+    * be displayed.
+    * @param hit hit to load the messages around
+    * @param before maximum number of messages older than the hit to load
+    * @param after maximum number of messages newer than the hit to load
+    * @param into list the messages are added to the end of
+    * @return position of the hit in into, or -1 if it has been removed since the search
+    */
+   public int loadWindow(@NonNull MFASearchHit hit, int before, int after, @NonNull List<MFAMessage> into)
+   {
+      SQLiteDatabase db = getReadableDatabase();
+      String rowId = Long.toString(hit.rowId);
+      Cursor cursor = db.rawQuery("SELECT time FROM messages WHERE _id = ?", new String[] {rowId});
+      String time;
+      try
+      {
+         if (!cursor.moveToFirst())
+         {
+            return -1;
+         }
+         time = Long.toString(cursor.getLong(0));
+      }
+      finally
+      {
+         cursor.close();
+      }
+
+      String[] args = {hit.conversation, time, time, rowId};
+      List<MFAMessage> older = new ArrayList<>(Math.max(before, 0));
+      if (before > 0)
+      {
+         load(db, "SELECT data FROM messages WHERE conversation = ? AND (time < ? OR (time = ? AND _id < ?))"
+               + " ORDER BY time DESC, _id DESC LIMIT " + before, args, older);
+      }
+      for (int i = older.size() - 1; i >= 0; i--)
+      {
+         into.add(older.get(i));
+      }
+      int position = into.size();
+      load(db, "SELECT data FROM messages WHERE conversation = ? AND (time > ? OR (time = ? AND _id >= ?))"
+            + " ORDER BY time, _id LIMIT " + (Math.max(after, 0) + 1), args, into);
+      return position;
+   }
+
+   /**
+    * Helper method that adds the messages a query selects to a list.
+    */
+   private static void load(SQLiteDatabase db, String sql, String[] args, List<MFAMessage> into)
+   {
+      Cursor cursor = db.rawQuery(sql, args);
+      try
+      {
+         while (cursor.moveToNext())
+         {
+            try
+            {
+               into.add(new MFAMessage(new JSONObject(cursor.getString(0))));
+            }
+            catch (JSONException e)
+            {
+               Log.e(TAG, "Skipping unreadable message", e);
+            }
+         }
+      }
+      finally
+      {
+         cursor.close();
+      }
+   }
+
+   /**
+    * Helper method that deletes the messages a where clause selects along with
+    * their index entries. The index keeps no copy of the text and reads it from
+    * the messages to find its entries, so they have to go first.
+    */
+   private static int delete(SQLiteDatabase db, String where, String... args)
+   {
+      db.beginTransaction();
+      try
+      {
+         db.execSQL("DELETE FROM message_text WHERE docid IN (SELECT _id FROM messages WHERE "
+               + where + " AND text != '')", args);
+         int count = db.delete("messages", where, args);
+         db.setTransactionSuccessful();
+         return count;
+      }
+      finally
+      {
+         db.endTransaction();
+      }
+   }
+
+   /**
+    * Helper method that turns a search query into an FTS query matching every
+    * word of it as a prefix, or returns null if the query has no words. Words
+    * keep their case: the index only folds the case of ASCII letters, so other
+    * letters have to match as typed.
+    */
+   private static String toMatchExpression(String query)
+   {
+      if (query == null)
+      {
+         return null;
+      }
+      StringBuilder match = new StringBuilder();
+      int start = -1;
+      for (int i = 0; i <= query.length(); i++)
+      {
+         boolean inWord = i < query.length() && Character.isLetterOrDigit(query.charAt(i));
+         if (inWord && start < 0)
+         {
+            start = i;
+         }
+         else if (!inWord && start >= 0)
+         {
+            if (match.length() > 0) match.append(' ');
+            // Quoted so words like OR and NOT aren't read as operators
+            match.append('"').append(query, start, i).append("*\"");
+            start = -1;
+         }
+      }
+      return (match.length() > 0) ? match.toString() : null;
+   }
+
+   /**
+    * Helper method that parses a provided timestamp.
+    * @param timestamp timestamp of a message
+    * @return time of the message, or null if the timestamp doesn't parse
+    */
+   private Date parseTime(String timestamp)
+   {
+      if (timestamp == null)
+      {
+         return null;
+      }
+      synchronized (_sdfLock)
+      {
+         return _sdf.parse(timestamp, new ParsePosition(0));
+      }
+   }
+}
@@ -17,22 +17,27 @@ package com.multifacetedapproach.mfamessageview;
 
 import android.content.Context;
 import android.graphics.Typeface;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
-import android.support.v7.widget.DefaultItemAnimator;
 import android.support.v7.widget.RecyclerView;
-import android.text.format.DateFormat;
 import android.util.AttributeSet;
 import android.util.Log;
 
+import com.multifacetedapproach.mfamessageview.Helpers.MFATimestampRevealHelper;
+import com.multifacetedapproach.mfamessageview.Helpers.MFASpanParser;
+import com.multifacetedapproach.mfamessageview.Helpers.MFATimestampSource;
+import com.multifacetedapproach.mfamessageview.Listeners.MFAMetricsListener;
 import com.multifacetedapproach.mfamessageview.Listeners.OnMFAClickListener;
 import com.multifacetedapproach.mfamessageview.Listeners.OnMFALongClickListener;
+import com.multifacetedapproach.mfamessageview.Listeners.OnMFAUnreadCountListener;
+import com.multifacetedapproach.mfamessageview.core.MFAMessageGrouper;
+import com.multifacetedapproach.mfamessageview.core.MFASearchIndex;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Date;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Locale;
+import java.util.concurrent.Executor;
 
 /**
  * This is the core class for this library. It is the RecyclerView
@@ -53,22 +58,121 @@ public class MFAMessageView extends RecyclerView
    private Context _context;
    // List of current MFAMessages
    private List<MFAMessage> _messages = new ArrayList<>();
-   // List of timestamps converted to milliseconds as longs
-   private List<Long> _timeInMillisList = new ArrayList<>();
-   // List of names associatec with the message
-   private List<String> _namesList = new ArrayList<>();
-   // SimpleDateFormat used for provided timestamps
-   private static SimpleDateFormat _sdf;
-   // Template format suffix used for configuring timestamp
-   private static final String TEMPLATE_SUFFIX = "h:mm a";
-   // Ten minutes represented in milliseconds
-   private static final long TEN_MINUTES = 600000;
+   // Configures which timestamps and names are displayed, and keeps
+   // the parsed time and name of every message
+   private MFAMessageGrouper _grouper;
+   // Number of ViewHolders RecyclerView pools per view type by default
+   static final int DEFAULT_POOL_SIZE = 5;
+   // Number of ViewHolders RecyclerView caches off screen by default
+   private static final int ITEM_VIEW_CACHE_SIZE = 2;
    // Custom Adapter for the recycler view
    private MFAMessageAdapter _adapter;
    // Custom LinearLayoutManager for the recycler view
    private MFALinearLayoutManager _llm;
    // Custom Typeface for font
    private Typeface _font;
+   // True if cells are drawn by MFAMessageCellView instead of the XML layouts
+   private boolean _useFlatCells = false;
+   // Pool shared with other MFAMessageViews, if one was provided
+   private MFASharedViewPool _sharedPool;
+   // Reusable counts of on screen cells per view type, reported to _sharedPool
+   private final int[] _onScreenCounts = new int[8];
+   // Prepares message images off the main thread, nearest the viewport first
+   private final MFAImageScheduler _imageScheduler = new MFAImageScheduler();
+   // Prepares whole lists of messages off the main thread for setMessagesAsync
+   private final MFABulkLoader _bulkLoader = new MFABulkLoader();
+   // Number of newest messages setMessagesProgressively displays straight away
+   static final int FIRST_PAGE_SIZE = 50;
+   // List given to setMessagesProgressively, and the number of its oldest messages not displayed yet
+   private List<MFAMessage> _olderMessages;
+   private int _olderCount = 0;
+   // Run once setMessagesProgressively has displayed every message
+   private Runnable _onOlderLoaded;
+   // Parses message text into spans off the main thread, or null to display plain text
+   private MFASpanProcessor _spanProcessor;
+   // Rebinds the text of on screen cells whose message's spans just became ready
+   private final MFASpanProcessor.Listener _spansListener = new MFASpanProcessor.Listener()
+   {
+      @Override
+      public void onSpansPrepared(MFAMessage message)
+      {
+         if (_adapter != null) _adapter.onSpansPrepared(message);
+      }
+   };
+   // Messages beyond the viewport, in the direction of scrolling, whose spans are prepared ahead of binding
+   private static final int SPAN_PREFETCH = 20;
+   // Last visible position when spans were last prefetched scrolling down, or first
+   // visible position scrolling up, so only newly reached messages are prepared
+   private int _spanPrefetchLast = NO_POSITION;
+   private int _spanPrefetchFirst = NO_POSITION;
+   // Scroll speed above which a fling defers image work, in dp per second
+   private static final int DEFER_IMAGES_VELOCITY_DP = 1000;
+   // True if image work should be deferred during fast flings
+   private boolean _deferImagesDuringFling = true;
+   // True while image work is currently deferred
+   private boolean _imageWorkDeferred = false;
+   // Smoothed vertical scroll velocity in pixels per second, and when it was last updated
+   private float _scrollVelocity = 0;
+   private long _lastScrollTime = 0;
+   // True if new messages only scroll the list when it's already at the bottom
+   private boolean _stickToBottom = true;
+   // Number of messages added below the viewport since the user was last at the bottom
+   private int _unreadCount = 0;
+   // Listener notified when _unreadCount changes
+   private OnMFAUnreadCountListener _onMFAUnreadCountListener;
+   // Draws the timestamps between messages and the sticky current day header
+   private MFADaySeparatorDecoration _daySeparators;
+   // Drag gesture revealing exact message times, if enabled
+   private MFATimestampRevealHelper _timestampRevealHelper;
+   // Reports the library's work to the metrics listener and jank detector, or null while both are disabled
+   private MFAMetrics _metrics;
+   // Metrics listener set by the app, if any
+   private MFAMetricsListener _metricsListener;
+   // Records janky frames while scrolling or animating, if enabled
+   private MFAJankDetector _jankDetector;
+   // Index of the message text, built by the first search and kept up to date from then on
+   private MFASearchIndex _searchIndex;
+   // Current search query, or null when not searching
+   private String _searchQuery;
+   // Positions of the messages matching _searchQuery, or null until they're needed again
+   private int[] _searchMatches;
+   // Position of the match last jumped to, or NO_POSITION
+   private int _currentMatch = NO_POSITION;
+   // Sheds images far from the viewport when over budget or low on memory, if enabled
+   private MFAMemoryGovernor _memoryGovernor;
+   // Bytes message images may hold before the governor sheds them
+   private long _imageMemoryBudget = Runtime.getRuntime().maxMemory() / 4;
+   // Messages either side of the viewport whose images the governor keeps
+   private int _imageMemoryMargin = MFAMemoryGovernor.DEFAULT_MARGIN;
+   // Size of the view cache, RecyclerView's default unless set, restored after it's flushed
+   private int _itemViewCacheSize = ITEM_VIEW_CACHE_SIZE;
+   // Reports the size of every adapter change to the item animator for burst detection
+   private final AdapterDataObserver _changeCounter = new AdapterDataObserver()
+   {
+      @Override
+      public void onItemRangeChanged(int positionStart, int itemCount)
+      {
+         onChangesDispatched(itemCount);
+      }
+
+      @Override
+      public void onItemRangeInserted(int positionStart, int itemCount)
+      {
+         onChangesDispatched(itemCount);
+      }
+
+      @Override
+      public void onItemRangeRemoved(int positionStart, int itemCount)
+      {
+         onChangesDispatched(itemCount);
+      }
+
+      @Override
+      public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount)
+      {
+         onChangesDispatched(itemCount);
+      }
+   };
 
    public MFAMessageView(Context context)
    {
@@ -95,16 +199,56 @@ public class MFAMessageView extends RecyclerView
    public void init(Context context)
    {
       _context = context;
-      // Initiate custom SimpleDateFormat
-      _sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ENGLISH);
+      // Initiate grouping, with the default SimpleDateFormat
+      _grouper = new MFAMessageGrouper();
       // This is simply done to guarantee _messages is not null and a fresh set of messages when
       // initiating this class
       _messages = new ArrayList<>();
       // Initiate custom LinearLayoutManager
       _llm = new MFALinearLayoutManager(_context);
       setLayoutManager(_llm);
-      // Default message animator
-      setItemAnimator(new DefaultItemAnimator());
+      // Default message animator, which skips animations during bursts of changes
+      setItemAnimator(new MFAMessageItemAnimator());
+      // Timestamps are drawn between the cells rather than by views inside them
+      _daySeparators = new MFADaySeparatorDecoration(context, new MFADaySeparatorDecoration.Source()
+      {
+         @Override
+         public MFAMessage getMessage(int position)
+         {
+            return (position >= 0 && position < _messages.size()) ? _messages.get(position) : null;
+         }
+
+         @Override
+         public long getTimeInMillis(int position)
+         {
+            return (position >= 0 && position < _grouper.size()) ? _grouper.getTimeInMillis(position) : 0;
+         }
+      });
+      addItemDecoration(_daySeparators);
+      addOnScrollListener(new OnScrollListener()
+      {
+         @Override
+         public void onScrollStateChanged(RecyclerView recyclerView, int newState)
+         {
+            if (newState != SCROLL_STATE_IDLE) startJankDetection();
+            if (newState == SCROLL_STATE_IDLE)
+            {
+               recordOnScreenComposition();
+               _scrollVelocity = 0;
+               setImageWorkDeferred(false);
+            }
+         }
+
+         @Override
+         public void onScrolled(RecyclerView recyclerView, int dx, int dy)
+         {
+            updateImageViewport(dy);
+            updateScrollVelocity(dy);
+            prefetchSpans(dy);
+            // The user caught up with the unread messages
+            if (_unreadCount > 0 && isAtBottom()) setUnreadCount(0);
+         }
+      });
    }
 
    /**
@@ -113,7 +257,23 @@ public class MFAMessageView extends RecyclerView
     */
    private void initAdapter()
    {
-      _adapter = new MFAMessageAdapter(_context, _messages);
+      if (_adapter == null)
+      {
+         _adapter = new MFAMessageAdapter(_context, _messages);
+         _adapter.setUseFlatCells(_useFlatCells);
+         _adapter.setImageScheduler(_imageScheduler);
+         _adapter.setMetrics(_metrics);
+         _adapter.setMemoryGovernor(_memoryGovernor);
+         _adapter.setHighlightQuery(_searchQuery);
+         _adapter.setSpanProcessor(_spanProcessor);
+         _adapter.registerAdapterDataObserver(_changeCounter);
+      }
+      else
+      {
+         // Reuse the existing adapter so ViewHolders already in the pool, including
+         // any created by warmUpViewHolders, survive a new set of messages.
+         _adapter.setMessageList(_messages);
+      }
       // Set the apapter's custom font
       if (_font != null)
       {
@@ -171,8 +331,11 @@ public class MFAMessageView extends RecyclerView
    protected void onLayout(boolean changed, int left, int top, int right, int bottom)
    {
       super.onLayout(changed, left, top, right, bottom);
-      // changed is true any time the keyboard is opened or closed
-      if (changed && !_messages.isEmpty())
+      recordOnScreenComposition();
+      updateImageViewport(0);
+      // changed is true any time the keyboard is opened or closed. A bottom anchored
+      // layout already keeps the newest message in place, so only scroll otherwise.
+      if (changed && !_messages.isEmpty() && !_llm.isBottomAnchored())
       {
          smoothScrollToPosition(_messages.size()-1);
       }
@@ -184,6 +347,7 @@ public class MFAMessageView extends RecyclerView
     */
    public void setCustomFont(@NonNull Typeface font)
    {
+      _daySeparators.setTypeface(font);
       if (_adapter != null)
       {
          _adapter.setCustomFont(font);
@@ -197,346 +361,1223 @@ public class MFAMessageView extends RecyclerView
    }
 
    /**
-    * Provide a custom click event listener.
-    * @param listener click event listener
+    * Draw each cell with a single flat MFAMessageCellView instead of inflating the
+    * mfa_*_cell layouts. Both paths display the same content, so this can be toggled
+    * to A/B benchmark measure, layout and draw costs.
+    * @param useFlatCells true for flat cells, false for the XML layouts
     */
-   public void setOnMFAClickListener(@NonNull OnMFAClickListener listener)
+   public void setUseFlatCells(boolean useFlatCells)
    {
+      _useFlatCells = useFlatCells;
       if (_adapter != null)
       {
-         _adapter.setOnMFAClickListener(listener);
-      }
-      else
-      {
-         // In case this is called before the adapter has been set
-         _onMFAClickListener = listener;
+         _adapter.setUseFlatCells(useFlatCells);
+         // View types differ between the two modes, so every cell must be recreated
+         _adapter.notifyDataSetChanged();
       }
    }
 
    /**
-    * Provide a custom long click event listener.
-    * @param listener long click event listener
+    * Create ViewHolders for each of the message view types ahead of time and place
+    * them in the RecycledViewPool, so that the first screenful and the first fling
+    * through a conversation don't stall on inflation. Call this before the conversation
+    * is shown, for example right after the view is created.
+    * @param countPerType number of ViewHolders to create for each view type
+    * @param inBackground true to inflate on a background thread, false to inflate
+    *                     one ViewHolder at a time whenever the main thread is idle
     */
-   public void setOnMFALongClickListener(@NonNull OnMFALongClickListener listener)
+   public void warmUpViewHolders(int countPerType, boolean inBackground)
    {
-      if (_adapter != null)
+      if (countPerType <= 0) return;
+      if (_adapter == null)
       {
-         _adapter.setOnMFALongClickListener(listener);
+         initAdapter();
+         setAdapter(_adapter);
+      }
+      MFAViewHolderWarmer warmer = new MFAViewHolderWarmer(this, _adapter, countPerType);
+      if (inBackground)
+      {
+         warmer.startInBackground();
       }
       else
       {
-         // In case this is called before the adapter has been set
-         _onMFALongClickListener = listener;
+         warmer.startWhenIdle();
       }
    }
 
    /**
-    * Set the visibility of profile images in the message list.
-    * @param show true if profile images should be shown, false otherwise
+    * Anchor the message list to the bottom, so the newest message stays pinned
+    * through size changes, such as the keyboard opening or closing, and through
+    * new messages being added, without animated scrolling.
+    * @param anchored true to anchor the list to the bottom, false to lay out from the top
     */
-   public void showProfileImages(boolean show)
+   public void setBottomAnchored(boolean anchored)
    {
-      if (_adapter != null)
+      _llm.setBottomAnchored(anchored);
+   }
+
+   /**
+    * Set whether new messages should only scroll the list when it's already at the
+    * bottom. When the user has scrolled up to read older messages, received messages
+    * are counted as unread instead of yanking the viewport; see
+    * {@link #setOnMFAUnreadCountListener(OnMFAUnreadCountListener)}. Messages the user
+    * sent always scroll the list. Enabled by default.
+    * @param stick true to only follow new messages at the bottom, false to always follow them
+    */
+   public void setStickToBottom(boolean stick)
+   {
+      _stickToBottom = stick;
+   }
+
+   /**
+    * Set whether the day of the topmost visible message is pinned to the top of
+    * the list while scrolling. Timestamps between messages are drawn either way.
+    * Enabled by default.
+    * @param enabled true to pin the current day, false to only show timestamps between messages
+    */
+   public void setStickyDayHeadersEnabled(boolean enabled)
+   {
+      _daySeparators.setStickyEnabled(enabled);
+      invalidate();
+   }
+
+   /**
+    * Set whether dragging the list to the left reveals the exact time of every
+    * visible message. This uses horizontal drags, so it should not be combined with
+    * swipe to dismiss from MFAMessageTouchHelper.
+    * @param enabled true to enable the gesture, false to disable it
+    */
+   public void setTimestampRevealEnabled(boolean enabled)
+   {
+      if (enabled && _timestampRevealHelper == null)
       {
-         _adapter.showProfileImg(show);
+         _timestampRevealHelper = new MFATimestampRevealHelper(_context, new MFATimestampSource()
+         {
+            @Override
+            public long getTimeInMillis(int position)
+            {
+               return _grouper.getTimeInMillis(position);
+            }
+         });
+         _timestampRevealHelper.attachToRecyclerView(this);
+      }
+      else if (!enabled && _timestampRevealHelper != null)
+      {
+         _timestampRevealHelper.attachToRecyclerView(null);
+         _timestampRevealHelper = null;
       }
    }
 
    /**
-    * Set a custom SimpleDateFormat to configure timestamps
-    * @param sdf custom SimpleDateFormat
+    * Provide a listener notified when the number of unread messages below the
+    * viewport changes.
+    * @param listener unread count listener
     */
-   public void setSimpleDateFormat(@NonNull SimpleDateFormat sdf)
+   public void setOnMFAUnreadCountListener(OnMFAUnreadCountListener listener)
    {
-      _sdf = sdf;
+      _onMFAUnreadCountListener = listener;
    }
 
    /**
-    * Get the current SimpleDateFormat being used
-    * @return current SimpleDateFormat
+    * Get the number of messages added below the viewport since the user was
+    * last at the bottom of the list.
+    * @return number of unread messages
     */
-   public SimpleDateFormat getSimpleDateFormat()
+   public int getUnreadCount()
    {
-      return _sdf;
+      return _unreadCount;
    }
 
-   @Override
-   public void setLayoutManager(LayoutManager layout)
+   /**
+    * Helper method that updates the unread count and notifies the listener of changes.
+    * @param count new unread count
+    */
+   private void setUnreadCount(int count)
    {
-      super.setLayoutManager(layout);
+      if (_unreadCount == count) return;
+      _unreadCount = count;
+      if (_onMFAUnreadCountListener != null) _onMFAUnreadCountListener.onUnreadCountChanged(count);
    }
 
    /**
-    * Provide a list of messages
-    * @param messages list of all current messages
+    * Helper method that determines whether the list is scrolled all the way to the bottom.
+    * @return true if the newest message is fully visible, false otherwise
     */
-   public void setMessages(@NonNull List<MFAMessage> messages)
+   private boolean isAtBottom()
    {
-      _messages = messages;
-      // Clear any existing names and timestamps as a new
-      // set mmessages have been provided
-      _timeInMillisList.clear();
-      _namesList.clear();
-      boolean showProfileImg = true;
-      for (MFAMessage message : _messages)
-      {
-         configureContentVisibility(message);
-         if (message.getProfileImg() == null)
-         {
-            showProfileImg = false;
-         }
-      }
-      initAdapter();
-      _adapter.showProfileImg(showProfileImg);
-      setAdapter(_adapter);
+      return !canScrollVertically(1);
    }
 
    /**
-    * Add a new message to the recycler view
-    * @param message most recent message
+    * Smooth scroll to the newest message. However far away it is, at most a couple
+    * of screens of messages are animated through; the rest is jumped over instantly.
     */
-   public void addMessage(@NonNull MFAMessage message)
+   public void scrollToLatestMessage()
+   {
+      if (!_messages.isEmpty()) smoothScrollToPosition(_messages.size()-1);
+   }
+
+   /**
+    * Provide a listener that receives counters and timings for view holder creation
+    * and binding, image work, grouping and the bytes held by message images.
+    * Metrics are disabled by default, and cost a null check per measuring point
+    * until a listener is set.
+    * @param listener metrics listener, or null to disable metrics
+    */
+   public void setMetricsListener(MFAMetricsListener listener)
+   {
+      _metricsListener = listener;
+      updateMetrics();
+   }
+
+   /**
+    * Set whether frames are watched while the list scrolls or animates. Frames
+    * that exceed the display's budget are recorded with the number of ViewHolders
+    * created and bound, images prepared on the main thread and grouping passes in
+    * that frame, and the time each took. Disabled by default.
+    * @param enabled true to record janky frames, false to stop
+    * @see #getJankReport()
+    */
+   public void setJankDetectionEnabled(boolean enabled)
    {
-      if (message.getMessageImg() == null && message.getMessage().isEmpty())
+      if (enabled && _jankDetector == null)
       {
-         Log.w(TAG, "Message content is empty");
-         //return;
+         _jankDetector = new MFAJankDetector(this);
       }
-      int prevPosition = _messages.size()-1;
-      // Configure current messages time stamp
-      configureContentVisibility(message);
-      _messages.add(message);
-      // In case this is the first message.
-      if (_adapter == null)
+      else if (!enabled && _jankDetector != null)
       {
-         initAdapter();
-         setAdapter(_adapter);
+         _jankDetector.stop();
+         _jankDetector = null;
       }
-      showProfileImages(message.getProfileImg() != null);
-      if (shouldAnimateNewMessage(prevPosition))
+      updateMetrics();
+   }
+
+   /**
+    * Get the frames recorded since jank detection was enabled or last reset.
+    * @return snapshot of the observed frames, empty if jank detection is disabled
+    */
+   public MFAJankReport getJankReport()
+   {
+      if (_jankDetector == null) return new MFAJankReport(0, new ArrayList<MFAJankFrame>());
+      return _jankDetector.getReport();
+   }
+
+   /**
+    * Forget the frames recorded so far, e.g. between QA scenarios.
+    */
+   public void resetJankReport()
+   {
+      if (_jankDetector != null) _jankDetector.reset();
+   }
+
+   /**
+    * Helper method that recreates the metrics for the current listener and jank
+    * detector, and hands them to the adapter.
+    */
+   private void updateMetrics()
+   {
+      if (_metricsListener == null && _jankDetector == null)
       {
-         _adapter.notifyItemInserted(_messages.size()-1);
-         scrollToPosition(_messages.size()-1);
+         _metrics = null;
       }
       else
       {
-         // Last visible image was not the previous message, this prevents
-         // adding multiple cell addition animations.
-         _adapter.notifyItemInserted(_messages.size()-1);
-         smoothScrollToPosition(_messages.size()-1);
+         _metrics = new MFAMetrics(_metricsListener, _jankDetector);
+         _metrics.onMessagesSet(_messages);
       }
+      if (_adapter != null) _adapter.setMetrics(_metrics);
    }
 
    /**
-    * Remove a message at a specific position.
-    * @param position index position of the message
-    * @return true if a message was removed at position, false otherwise
+    * Get the metrics the library's work is reported to.
+    * @return metrics, or null while disabled
     */
-   public boolean removeMessageAtPosition(int position)
+   MFAMetrics getMetrics()
    {
-      if (_messages.size() > position && _adapter != null)
-      {
-         // Check that the list of timestamps in milliseconds is equal to that
-         // of the messages list. If it is, remove the timestamp at the same index.
-         if (_timeInMillisList.size() == _messages.size()) _timeInMillisList.remove(position);
-         if (_namesList.size() == _messages.size()) _namesList.remove(position);
+      return _metrics;
+   }
 
-         boolean timeVisible = _messages.get(position).getTimeVisible();
-         _messages.remove(position);
-         _adapter.notifyItemRemoved(position);
-         if (_messages.size() > position)
-         {
-            updateMessage(timeVisible, position, _messages.get(position));
-         }
-         return true;
-      }
-      return false;
+   /**
+    * Get the list of messages currently displayed.
+    * @return messages, oldest first
+    */
+   List<MFAMessage> getMessageList()
+   {
+      return _messages;
    }
 
    /**
-    * Clear all messages
-    * @return true if messages were cleared, false otherwise
+    * Set whether message images are dropped to save memory. Images are dropped,
+    * least recently shown first, when they hold more than the budget set with
+    * {@link #setImageMemoryBudget(long)} and when the system reports it's low on
+    * memory, except for messages near the viewport. Dropped images are prepared
+    * again when their message is next shown.
+    * <p>
+    * Cropped images can always be dropped. Message images are only dropped when
+    * the message was restored from a Parcel or JSONObject, so they can be decoded
+    * again. While enabled, the public messageImg field of such a message may
+    * become null at any time; read the image with getMessageImg() instead, which
+    * decodes it again when needed.
+    * <p>
+    * Under memory pressure, cells cached off screen and those in the
+    * RecycledViewPool are also released, including a pool shared with
+    * {@link #setSharedViewPool(MFASharedViewPool)}. Disabled by default.
+    * @param enabled true to drop images under memory pressure, false to keep them
     */
-   public boolean clearAllMessages()
+   public void setMemoryGovernorEnabled(boolean enabled)
    {
-      if (!_messages.isEmpty() && _adapter != null)
+      if (enabled && _memoryGovernor == null)
       {
-         //setItemAnimator(null);
-         _timeInMillisList.clear();
-         _namesList.clear();
-         int size = _messages.size();
-         _messages.clear();
-         _adapter.notifyItemRangeRemoved(0, size);
-         return true;
+         _memoryGovernor = new MFAMemoryGovernor(this, _imageMemoryBudget);
+         _memoryGovernor.setMargin(_imageMemoryMargin);
+         if (isAttachedToWindow()) _context.getApplicationContext().registerComponentCallbacks(_memoryGovernor);
       }
-      return false;
+      else if (!enabled && _memoryGovernor != null)
+      {
+         _context.getApplicationContext().unregisterComponentCallbacks(_memoryGovernor);
+         _memoryGovernor = null;
+      }
+      if (_adapter != null) _adapter.setMemoryGovernor(_memoryGovernor);
    }
 
-   private void updateMessage(boolean timeVisible, int position, MFAMessage msgToUpdate)
+   /**
+    * Get the governor that drops message images to save memory.
+    * @return memory governor, or null while disabled
+    */
+   MFAMemoryGovernor getMemoryGovernor()
    {
-      if (_adapter != null)
-      {
-         msgToUpdate.setTimeVisible(timeVisible);
-         boolean update = timeVisible;
-         // Only consider displaying the name if it's non-null, not empty, and not the sender
-         // as the sender should only be the current user.
-         if (msgToUpdate.getName() != null && !msgToUpdate.getName().isEmpty() && !msgToUpdate.getIsSender())
-         {
-            if (!_namesList.isEmpty() && position > 0)
-            {
-               String previousName = _namesList.get(position-1);
-               // This check is done so that if a string of messages arrive from the same
-               // entity in a row we only display the name of the with the first message of that
-               // string.
-               if (previousName != null)
-               {
-                  boolean setVisible = !previousName.equalsIgnoreCase(msgToUpdate.getName());
-                  msgToUpdate.setNameVisible(setVisible);
-                  if (setVisible) update = true;
-               }
-            }
-            else
-            {
-               // First message received
-               msgToUpdate.setNameVisible(true);
-               update = true;
-            }
-         }
-         if (update) _adapter.notifyItemChanged(position);
-      }
+      return _memoryGovernor;
    }
 
    /**
-    * Determine if an animation should occur.
-    * @param position index position of the last message before new message add
-    * @return true if the adapter should animate, false otherwise
+    * Set the bytes message images may hold before the memory governor starts
+    * dropping them. Defaults to a quarter of the maximum heap.
+    * @param bytes image memory budget
     */
-   private boolean shouldAnimateNewMessage(int position)
+   public void setImageMemoryBudget(long bytes)
    {
-      int lastVisibleMessage = _llm.findLastVisibleItemPosition();
-      return position < 0 || position == lastVisibleMessage;
+      _imageMemoryBudget = bytes;
+      if (_memoryGovernor != null) _memoryGovernor.setBudget(bytes);
    }
 
    /**
-    * Helper method to configure the timestamps so that they display in a terse format
-    * and only display those that are necessary, and to display names associated with
-    * received messages so that they appear only when necessary
-    * @param message message to be configured
+    * Set how many messages either side of the viewport keep their images when the
+    * memory governor drops images, so scrolling a little never prepares them again.
+    * @param messages margin around the viewport, in messages
     */
-   private void configureContentVisibility(MFAMessage message)
+   public void setImageMemoryMargin(int messages)
    {
-      long time = getTimeInMillis(message.getTimestamp());
-      // If time equals zero, our timestamp did not match
-      // our SimpleDateFormat template.
-      if (time != 0)
-      {
-         if (!_timeInMillisList.isEmpty())
-         {
-            // Calculates the difference in milliseconds between a message and it's previous
-            // message. This is done so that the timestamp isn't shown in every single cell.
-            long t = _timeInMillisList.get(_timeInMillisList.size() - 1);
-            long delta = time - t;
-            // Only display if more than 10 minutes has elapsed since previous message
-            message.setTimeVisible(delta > TEN_MINUTES);
-         }
-         else
-         {  // First message in queue
-            message.setTimeVisible(true);
-         }
-         message.setTimestamp(getFormattedDate(time));
-      }
-      // Only consider displaying the name if it's non-null, not empty, and not the sender
-      // as the sender should only be the current user.
-      if (message.getName() != null && !message.getName().isEmpty() && !message.getIsSender())
-      {
-         if (!_namesList.isEmpty())
-         {
-            String previousName = _namesList.get(_namesList.size()-1);
-            // This check is done so that if a string of messages arrive from the same
-            // entity in a row we only display the name of the with the first message of that
-            // string.
-            if (previousName != null)
-            {
-               message.setNameVisible(!previousName.equalsIgnoreCase(message.getName()));
-            }
-            else
-            {
-               message.setNameVisible(true);
-            }
-         }
-         else
-         {
-            // First message received
-            message.setNameVisible(true);
-         }
-      }
+      _imageMemoryMargin = messages;
+      if (_memoryGovernor != null) _memoryGovernor.setMargin(messages);
+   }
+
+   /**
+    * Helper method that starts watching frames if jank detection is enabled.
+    */
+   private void startJankDetection()
+   {
+      if (_jankDetector != null) _jankDetector.start();
+   }
+
+   @Override
+   protected void onAttachedToWindow()
+   {
+      super.onAttachedToWindow();
+      if (_memoryGovernor != null) _context.getApplicationContext().registerComponentCallbacks(_memoryGovernor);
+   }
 
-      _timeInMillisList.add(time);
-      _namesList.add(message.getName());
+   @Override
+   protected void onDetachedFromWindow()
+   {
+      super.onDetachedFromWindow();
+      if (_jankDetector != null) _jankDetector.stop();
+      if (_memoryGovernor != null) _context.getApplicationContext().unregisterComponentCallbacks(_memoryGovernor);
    }
 
    /**
-    * Helper method to convert a timestamp into milliseconds represented as
-    * a long
-    * @param formattedTimestamp timestamp represented by a string
-    * @return timestamp in milliseconds
+    * Set whether the library emits android.os.Trace sections around view holder
+    * creation and binding, image cropping, Base64 encoding and decoding, grouping
+    * and scrolling, so its work shows up in systrace and Perfetto captures. This
+    * applies to every MFAMessageView in the process and is off by default.
+    * @param enabled true to emit trace sections, false otherwise
     */
-   private static long getTimeInMillis(String formattedTimestamp)
+   public static void setTracingEnabled(boolean enabled)
    {
-      long timeMillis = 0;
+      MFATrace.enabled = enabled;
+   }
 
-      try
+   /**
+    * Search the message text and highlight the matches. Every word of the query
+    * must match the start of a word in a message, ignoring case, so the query can
+    * be searched for as the user types. The first search builds an index of the
+    * messages, which is kept up to date as messages are added and removed, so
+    * later searches don't scan the conversation.
+    * @param query words to search for, or null or empty to clear the search
+    * @return number of matching messages
+    * @see #jumpToNextMatch()
+    * @see #jumpToPreviousMatch()
+    */
+   public int search(String query)
+   {
+      if (query == null || MFASearchIndex.tokenize(query).isEmpty())
       {
-         Date time = _sdf.parse(formattedTimestamp);
-         // The time in milliseconds of the messages formattedTimeStamp
-         timeMillis = time.getTime();
+         clearSearch();
+         return 0;
       }
-      catch (Exception e)
+      if (_searchIndex == null)
       {
-         e.printStackTrace();
+         _searchIndex = new MFASearchIndex();
+         indexMessages();
       }
-      return timeMillis;
+      _searchQuery = query;
+      _searchMatches = _searchIndex.search(query);
+      _currentMatch = NO_POSITION;
+      refreshHighlights();
+      return _searchMatches.length;
    }
 
    /**
-    * Helper method to to format a timestamp represented in milliseconds to
-    * a terse timestamp represented as a string
-    * @param smsTimeInMilis timestamp in milliseconds
-    * @return reformatted timestamp
+    * Stop highlighting the matches of the current search.
     */
-   private static String getFormattedDate(long smsTimeInMilis)
+   public void clearSearch()
    {
-      Calendar now = Calendar.getInstance();
-      Calendar smsTime = Calendar.getInstance();
-      smsTime.setTimeInMillis(smsTimeInMilis);
+      if (_searchQuery == null) return;
+      _searchQuery = null;
+      _searchMatches = null;
+      _currentMatch = NO_POSITION;
+      refreshHighlights();
+   }
 
-      // Message was sent today
-      if (now.get(Calendar.DAY_OF_YEAR) == smsTime.get(Calendar.DAY_OF_YEAR)
-            && now.get(Calendar.YEAR) == smsTime.get(Calendar.YEAR))
-      {
-         return "Today "+ DateFormat.format(TEMPLATE_SUFFIX, smsTime).toString();
-      }
-      // Message was sent yesterday
-      else if (now.get(Calendar.DAY_OF_YEAR) - smsTime.get(Calendar.DAY_OF_YEAR) == 1
-            && now.get(Calendar.YEAR) == smsTime.get(Calendar.YEAR))
-      {
-         return "Yesterday " + DateFormat.format(TEMPLATE_SUFFIX, smsTime).toString();
-      }
-      // Message was sent within a week
-      else if (now.get(Calendar.DAY_OF_YEAR) - smsTime.get(Calendar.DAY_OF_YEAR) <= 6
-            && now.get(Calendar.YEAR) == smsTime.get(Calendar.YEAR))
-      {
-         return DateFormat.format("EEE "+TEMPLATE_SUFFIX, smsTime).toString();
-      }
-      // Message is more than a week old but was sent within the calendar year
-      else if (now.get(Calendar.YEAR) == smsTime.get(Calendar.YEAR))
-      {
-         return DateFormat.format("EEE, MMM d, "+TEMPLATE_SUFFIX, smsTime).toString();
-      }
-      // Message is more than a week old and was sent from a different year
-      else
-      {
-         return DateFormat.format("M/d/yyyy " + TEMPLATE_SUFFIX, smsTime).toString();
-      }
+   /**
+    * Get the positions of the messages matching the current search.
+    * @return positions, ascending; empty when not searching
+    */
+   public int[] getSearchMatchPositions()
+   {
+      return getSearchMatches().clone();
+   }
+
+   /**
+    * Scroll to the next newer message matching the current search. The first
+    * jump after a search goes to the first match from the top of the screen.
+    * @return position of the match, or NO_POSITION if there are no newer matches
+    */
+   public int jumpToNextMatch()
+   {
+      int[] matches = getSearchMatches();
+      int from = (_currentMatch != NO_POSITION) ? _currentMatch + 1 : Math.max(0, _llm.findFirstVisibleItemPosition());
+      int i = lowerBound(matches, from);
+      return (i < matches.length) ? jumpToMatch(matches[i]) : NO_POSITION;
+   }
+
+   /**
+    * Scroll to the next older message matching the current search. The first
+    * jump after a search goes to the first match from the bottom of the screen.
+    * @return position of the match, or NO_POSITION if there are no older matches
+    */
+   public int jumpToPreviousMatch()
+   {
+      int[] matches = getSearchMatches();
+      int last = _llm.findLastVisibleItemPosition();
+      int from = (_currentMatch != NO_POSITION) ? _currentMatch - 1 : ((last != NO_POSITION) ? last : _messages.size() - 1);
+      int i = lowerBound(matches, from + 1) - 1;
+      return (i >= 0) ? jumpToMatch(matches[i]) : NO_POSITION;
+   }
+
+   /**
+    * Set the background color of text matching the current search.
+    * @param color color as an ARGB int
+    */
+   public void setSearchHighlightColor(int color)
+   {
+      initAdapter();
+      _adapter.setHighlightColor(color);
+      if (_searchQuery != null) refreshHighlights();
+   }
+
+   private int jumpToMatch(int position)
+   {
+      _currentMatch = position;
+      scrollToPosition(position);
+      return position;
+   }
+
+   /**
+    * Helper method that returns the matches of the current search, searching the
+    * index again if messages have been added or removed since.
+    */
+   private int[] getSearchMatches()
+   {
+      if (_searchQuery == null) return new int[0];
+      if (_searchMatches == null) _searchMatches = _searchIndex.search(_searchQuery);
+      return _searchMatches;
+   }
+
+   /**
+    * Helper method that finds the index of the first value not less than key.
+    */
+   private static int lowerBound(int[] sorted, int key)
+   {
+      int i = Arrays.binarySearch(sorted, key);
+      return (i >= 0) ? i : -i - 1;
+   }
+
+   /**
+    * Helper method that rebuilds the search index from the current messages.
+    */
+   private void indexMessages()
+   {
+      _searchIndex.clear();
+      for (int i = 0; i < _messages.size(); i++)
+      {
+         _searchIndex.append(_messages.get(i).getMessage());
+      }
+   }
+
+   /**
+    * Helper method that passes the current query to the adapter and rebinds the
+    * text of the cells so their highlights match it.
+    */
+   private void refreshHighlights()
+   {
+      if (_adapter == null) return;
+      _adapter.setHighlightQuery(_searchQuery);
+      if (!_messages.isEmpty())
+      {
+         _adapter.notifyItemRangeChanged(0, _messages.size(), MFAMessageAdapter.PAYLOAD_HIGHLIGHTS);
+      }
+   }
+
+   /**
+    * Style message text with spans, such as links, mentions and emphasis with an
+    * MFADefaultSpanParser. Text is parsed on a worker thread as messages are
+    * added and as cells need it, and the spans of the most recently displayed
+    * messages are cached, so binding never parses. Cells show plain text until
+    * their spans are ready.
+    * @param parser parser for message text, or null to display plain text
+    */
+   public void setSpanParser(MFASpanParser parser)
+   {
+      if (_spanProcessor != null) _spanProcessor.clear();
+      _spanProcessor = (parser != null)
+            ? new MFASpanProcessor(parser, MFASpanProcessor.DEFAULT_CACHE_SIZE, _spansListener) : null;
+      if (_adapter != null)
+      {
+         _adapter.setSpanProcessor(_spanProcessor);
+         if (!_messages.isEmpty()) _adapter.notifyItemRangeChanged(0, _messages.size());
+      }
+      prepareNewestSpans();
+      resetSpanPrefetch();
+   }
+
+   /**
+    * Helper method that queues the newest messages, which are displayed first,
+    * to be parsed into spans, newest first.
+    */
+   private void prepareNewestSpans()
+   {
+      if (_spanProcessor == null) return;
+      int end = Math.max(0, _messages.size() - FIRST_PAGE_SIZE);
+      for (int i = _messages.size() - 1; i >= end; i--)
+      {
+         _spanProcessor.prepare(_messages.get(i));
+      }
+   }
+
+   /**
+    * Share a RecycledViewPool with other MFAMessageViews, for example conversations
+    * shown in tabs or split panes. Cells a view gives up are reused by its siblings,
+    * and the pool sizes each view type from what is observed on screen.
+    * @param pool pool shared between MFAMessageViews
+    */
+   public void setSharedViewPool(@NonNull MFASharedViewPool pool)
+   {
+      _sharedPool = pool;
+      setRecycledViewPool(pool);
+      // Without this, cells stay attached to a detached view (e.g. a hidden tab)
+      // instead of returning to the shared pool.
+      _llm.setRecycleChildrenOnDetach(true);
+   }
+
+   /**
+    * Provide the Executor used to crop and round message images off the main
+    * thread. By default a shared pool sized to the device's cores is used.
+    * @param executor executor for image work, or null to use the default
+    */
+   public void setImageExecutor(Executor executor)
+   {
+      _imageScheduler.setExecutor(executor);
+   }
+
+   /**
+    * Set whether image work should be deferred during fast flings. While deferred,
+    * cells only show images that have already been prepared, and the images for
+    * the messages left on screen are prepared once scrolling settles.
+    * @param defer true to defer image work during flings, false to never defer it
+    */
+   public void setDeferImagesDuringFling(boolean defer)
+   {
+      _deferImagesDuringFling = defer;
+      if (!defer) setImageWorkDeferred(false);
+   }
+
+   /**
+    * Helper method that tracks scroll velocity and defers image work while a
+    * fling is moving faster than cells can usefully display images.
+    * @param dy vertical scroll distance since the last update
+    */
+   private void updateScrollVelocity(int dy)
+   {
+      long now = SystemClock.uptimeMillis();
+      long elapsed = now - _lastScrollTime;
+      _lastScrollTime = now;
+      if (elapsed <= 0 || elapsed > 100)
+      {
+         // First movement after a pause, not enough information yet
+         return;
+      }
+      // Average with the previous value to smooth out uneven frame times
+      _scrollVelocity = (_scrollVelocity + dy * 1000f / elapsed) / 2f;
+
+      float threshold = DEFER_IMAGES_VELOCITY_DP * getResources().getDisplayMetrics().density;
+      boolean fling = getScrollState() == SCROLL_STATE_SETTLING && Math.abs(_scrollVelocity) > threshold;
+      setImageWorkDeferred(_deferImagesDuringFling && fling);
+   }
+
+   /**
+    * Helper method that starts or stops deferring image work. When it stops, images
+    * for the cells currently on screen are scheduled.
+    * @param deferred true to defer image work
+    */
+   private void setImageWorkDeferred(boolean deferred)
+   {
+      if (_imageWorkDeferred == deferred) return;
+      _imageWorkDeferred = deferred;
+      if (_adapter == null) return;
+      _adapter.setDeferImageWork(deferred);
+      if (!deferred)
+      {
+         for (int i = 0; i < getChildCount(); i++)
+         {
+            ViewHolder holder = getChildViewHolder(getChildAt(i));
+            if (holder instanceof MFAMessageAdapter.ViewHolder)
+            {
+               _adapter.resumeDeferredImage((MFAMessageAdapter.ViewHolder) holder);
+            }
+         }
+      }
+   }
+
+   /**
+    * Helper method that tells the image scheduler which messages are visible and
+    * which way the user is scrolling, so it can prepare the nearest images first.
+    * @param dy vertical scroll distance since the last update
+    */
+   private void updateImageViewport(int dy)
+   {
+      _imageScheduler.setViewport(_llm.findFirstVisibleItemPosition(), _llm.findLastVisibleItemPosition(),
+            (dy > 0) ? 1 : (dy < 0) ? -1 : 0);
+   }
+
+   /**
+    * Helper method that prepares the spans of the messages about to scroll into
+    * view, nearest first, so cells rarely show plain text first.
+    * @param dy vertical scroll distance, in pixels
+    */
+   private void prefetchSpans(int dy)
+   {
+      if (_spanProcessor == null || dy == 0) return;
+      if (dy > 0)
+      {
+         int last = _llm.findLastVisibleItemPosition();
+         if (last == NO_POSITION || last == _spanPrefetchLast) return;
+         // The messages up to SPAN_PREFETCH past the previous last position were prepared already
+         int from = (_spanPrefetchLast != NO_POSITION && last > _spanPrefetchLast)
+               ? Math.max(last, _spanPrefetchLast + SPAN_PREFETCH) + 1 : last + 1;
+         int to = Math.min(_messages.size() - 1, last + SPAN_PREFETCH);
+         for (int i = from; i <= to; i++) _spanProcessor.prepare(_messages.get(i));
+         _spanPrefetchLast = last;
+         _spanPrefetchFirst = NO_POSITION;
+      }
+      else
+      {
+         int first = _llm.findFirstVisibleItemPosition();
+         if (first == NO_POSITION || first == _spanPrefetchFirst) return;
+         int from = (_spanPrefetchFirst != NO_POSITION && first < _spanPrefetchFirst)
+               ? Math.min(first, _spanPrefetchFirst - SPAN_PREFETCH) - 1 : first - 1;
+         int to = Math.max(0, first - SPAN_PREFETCH);
+         for (int i = Math.min(from, _messages.size() - 1); i >= to; i--) _spanProcessor.prepare(_messages.get(i));
+         _spanPrefetchFirst = first;
+         _spanPrefetchLast = NO_POSITION;
+      }
+   }
+
+   /**
+    * Helper method that makes the next prefetch start over, e.g. once the
+    * positions it remembers no longer hold the same messages.
+    */
+   private void resetSpanPrefetch()
+   {
+      _spanPrefetchFirst = NO_POSITION;
+      _spanPrefetchLast = NO_POSITION;
+   }
+
+   /**
+    * Helper method that reports how many cells of each view type are on screen to
+    * the shared pool so it can size itself.
+    */
+   private void recordOnScreenComposition()
+   {
+      if (_sharedPool == null) return;
+      int[] counts = _onScreenCounts;
+      for (int i = 0; i < counts.length; i++) counts[i] = 0;
+      for (int i = 0; i < getChildCount(); i++)
+      {
+         int viewType = getChildViewHolder(getChildAt(i)).getItemViewType();
+         if (viewType >= 0 && viewType < counts.length) counts[viewType]++;
+      }
+      for (int viewType = 0; viewType < counts.length; viewType++)
+      {
+         if (counts[viewType] > 0) _sharedPool.recordOnScreen(viewType, counts[viewType]);
+      }
+   }
+
+   /**
+    * Provide a custom click event listener.
+    * @param listener click event listener
+    */
+   public void setOnMFAClickListener(@NonNull OnMFAClickListener listener)
+   {
+      if (_adapter != null)
+      {
+         _adapter.setOnMFAClickListener(listener);
+      }
+      else
+      {
+         // In case this is called before the adapter has been set
+         _onMFAClickListener = listener;
+      }
+   }
+
+   /**
+    * Provide a custom long click event listener.
+    * @param listener long click event listener
+    */
+   public void setOnMFALongClickListener(@NonNull OnMFALongClickListener listener)
+   {
+      if (_adapter != null)
+      {
+         _adapter.setOnMFALongClickListener(listener);
+      }
+      else
+      {
+         // In case this is called before the adapter has been set
+         _onMFALongClickListener = listener;
+      }
+   }
+
+   /**
+    * Set the visibility of profile images in the message list.
+    * @param show true if profile images should be shown, false otherwise
+    */
+   public void showProfileImages(boolean show)
+   {
+      if (_adapter != null)
+      {
+         _adapter.showProfileImg(show);
+      }
+   }
+
+   /**
+    * Set a custom SimpleDateFormat to configure timestamps
+    * @param sdf custom SimpleDateFormat
+    */
+   public void setSimpleDateFormat(@NonNull SimpleDateFormat sdf)
+   {
+      _grouper.getTimeFormatter().setSimpleDateFormat(sdf);
+   }
+
+   /**
+    * Get the current SimpleDateFormat being used
+    * @return current SimpleDateFormat
+    */
+   public SimpleDateFormat getSimpleDateFormat()
+   {
+      return _grouper.getTimeFormatter().getSimpleDateFormat();
+   }
+
+   @Override
+   public void setLayoutManager(LayoutManager layout)
+   {
+      super.setLayoutManager(layout);
+   }
+
+   @Override
+   public void setItemViewCacheSize(int size)
+   {
+      super.setItemViewCacheSize(size);
+      _itemViewCacheSize = size;
+   }
+
+   /**
+    * Called by the memory governor under memory pressure. Recycles the cells in
+    * the view cache, which releases their images, and clears the RecycledViewPool.
+    */
+   void releaseOffscreenViews()
+   {
+      // Shrinking the cache recycles the cells in it
+      super.setItemViewCacheSize(0);
+      super.setItemViewCacheSize(_itemViewCacheSize);
+      getRecycledViewPool().clear();
+   }
+
+   @Override
+   public void setItemAnimator(ItemAnimator animator)
+   {
+      super.setItemAnimator(animator);
+      // RecyclerView may set an animator before init has created _llm
+      if (_llm != null)
+      {
+         _llm.setItemAnimator((animator instanceof MFAMessageItemAnimator) ? (MFAMessageItemAnimator) animator : null);
+      }
+   }
+
+   /**
+    * Helper method that reports adapter changes to the item animator so it can
+    * skip animations during bursts.
+    * @param count number of items affected
+    */
+   private void onChangesDispatched(int count)
+   {
+      // Changes are animated, and bind and group messages in the frames that follow
+      startJankDetection();
+      ItemAnimator animator = getItemAnimator();
+      if (animator instanceof MFAMessageItemAnimator)
+      {
+         ((MFAMessageItemAnimator) animator).onChangesDispatched(count);
+      }
+   }
+
+   /**
+    * Provide a list of messages
+    * @param messages list of all current messages
+    */
+   public void setMessages(@NonNull List<MFAMessage> messages)
+   {
+      boolean audit = MFAMainThreadAuditor.shouldAudit();
+      long auditStart = audit ? System.nanoTime() : 0;
+      cancelLoads();
+      startJankDetection();
+      // Clear any existing names and timestamps as a new
+      // set mmessages have been provided
+      _grouper.clear();
+      boolean showProfileImg = true;
+      boolean trace = MFATrace.enabled;
+      if (trace) MFATrace.begin(MFATrace.GROUP_MESSAGES);
+      long start = (_metrics != null) ? System.nanoTime() : 0;
+      for (MFAMessage message : messages)
+      {
+         _grouper.append(message);
+         if (message.getProfileImg() == null)
+         {
+            showProfileImg = false;
+         }
+      }
+      if (trace) MFATrace.end();
+      if (_metrics != null) _metrics.onGroupingPass(messages.size(), start);
+      displayMessages(messages, showProfileImg);
+      if (audit) MFAMainThreadAuditor.check(MFAMainThreadViolation.SET_MESSAGES, auditStart, messages.size());
+   }
+
+   /**
+    * Provide a list of messages, preparing them off the main thread. Parsing and
+    * formatting timestamps is spread across cores and followed by a single quick
+    * grouping pass, so long histories load without holding up the UI. The
+    * current messages stay displayed until the new ones are ready. Should that
+    * work fail, the messages are prepared on the main thread instead. A later call
+    * to setMessages, setMessagesAsync, setMessagesProgressively or
+    * clearAllMessages cancels the load.
+    * <p>
+    * The list mustn't be changed until it's loaded. Messages that arrive in the
+    * meantime should be added with addMessage once onLoaded has run.
+    * @param messages list of all current messages
+    * @param onLoaded run on the main thread once the messages are displayed, may be null
+    */
+   public void setMessagesAsync(@NonNull List<MFAMessage> messages, final Runnable onLoaded)
+   {
+      // The new grouper only reads times the loader has already parsed, so it can share the formatter
+      MFAMessageGrouper grouper = new MFAMessageGrouper(_grouper.getTimeFormatter());
+      cancelLoads();
+      // Spans of the newest messages are parsed along with them, as many as are cached
+      int spanCount = (_spanProcessor != null) ? _spanProcessor.getCacheSize() : 0;
+      _bulkLoader.load(messages, grouper, getSimpleDateFormat(), _spanProcessor, spanCount, new MFABulkLoader.Callback()
+      {
+         @Override
+         public void onLoaded(List<MFAMessage> loaded, MFAMessageGrouper loadedGrouper, boolean showProfileImg)
+         {
+            startJankDetection();
+            _grouper = loadedGrouper;
+            displayMessages(loaded, showProfileImg);
+            if (onLoaded != null) onLoaded.run();
+         }
+
+         @Override
+         public void onFailed(List<MFAMessage> messages, Throwable error)
+         {
+            // Prepare them here instead, which throws again if the messages themselves are at fault
+            Log.e(TAG, "Failed to load messages off the main thread", error);
+            setMessages(messages);
+            if (onLoaded != null) onLoaded.run();
+         }
+      });
+   }
+
+   /**
+    * Provide a list of messages, displaying the newest straight away and the
+    * rest as they're prepared. Only the newest page is grouped on the main
+    * thread, so a conversation appears as quickly with a million messages as
+    * with fifty. Older messages are prepared off the main thread as by
+    * setMessagesAsync, in chunks that double in size, and inserted above the
+    * displayed ones without moving what's on screen.
+    * <p>
+    * The view displays its own list rather than the one provided, which isn't
+    * changed and mustn't be until loaded. Whether profile images are shown is
+    * decided by the newest page. A later call to setMessages, setMessagesAsync,
+    * setMessagesProgressively or clearAllMessages stops the load.
+    * @param messages list of all current messages, oldest first
+    * @param onLoaded run on the main thread once every message is displayed, may be null
+    */
+   public void setMessagesProgressively(@NonNull List<MFAMessage> messages, Runnable onLoaded)
+   {
+      int first = Math.max(0, messages.size() - FIRST_PAGE_SIZE);
+      setMessages(new ArrayList<>(messages.subList(first, messages.size())));
+      _olderMessages = messages;
+      _olderCount = first;
+      _onOlderLoaded = onLoaded;
+      loadOlderMessages();
+   }
+
+   /**
+    * Get whether setMessagesAsync or setMessagesProgressively is still preparing messages.
+    * @return true if messages are loading
+    */
+   public boolean isLoadingMessages()
+   {
+      return _bulkLoader.isLoading();
+   }
+
+   /**
+    * Provide the Executor setMessagesAsync prepares messages on. By default a
+    * shared pool with a thread per core is used.
+    * @param executor executor for loading messages, or null for the default
+    */
+   public void setBulkLoadExecutor(Executor executor)
+   {
+      _bulkLoader.setExecutor(executor);
+   }
+
+   /**
+    * Helper method that prepares the next chunk of older messages for
+    * setMessagesProgressively, or reports the load finished.
+    */
+   private void loadOlderMessages()
+   {
+      if (_olderCount == 0)
+      {
+         Runnable onLoaded = _onOlderLoaded;
+         cancelLoads();
+         if (onLoaded != null) onLoaded.run();
+         return;
+      }
+      // Chunks double in size, so there are only a logarithmic number of them and the
+      // displayed messages are moved along as few times as possible
+      final int start = Math.max(0, _olderCount - Math.max(_messages.size(), FIRST_PAGE_SIZE));
+      // Parse spans until the cache holds the newest messages, older ones would only evict them
+      int spanCount = (_spanProcessor != null) ? Math.max(0, _spanProcessor.getCacheSize() - _messages.size()) : 0;
+      _bulkLoader.load(_olderMessages.subList(start, _olderCount), new MFAMessageGrouper(_grouper.getTimeFormatter()),
+            getSimpleDateFormat(), _spanProcessor, spanCount, new MFABulkLoader.Callback()
+      {
+         @Override
+         public void onLoaded(List<MFAMessage> older, MFAMessageGrouper olderGrouper, boolean showProfileImg)
+         {
+            _olderCount = start;
+            prependMessages(older, olderGrouper);
+            loadOlderMessages();
+         }
+
+         @Override
+         public void onFailed(List<MFAMessage> older, Throwable error)
+         {
+            // Group the chunk here instead, which throws again if the messages themselves are at fault
+            Log.e(TAG, "Failed to load older messages off the main thread", error);
+            MFAMessageGrouper olderGrouper = new MFAMessageGrouper(_grouper.getTimeFormatter());
+            for (MFAMessage message : older)
+            {
+               olderGrouper.append(message);
+            }
+            onLoaded(older, olderGrouper, false);
+         }
+      });
+   }
+
+   /**
+    * Helper method that inserts older messages grouped by their own grouper
+    * above the displayed messages.
+    */
+   private void prependMessages(List<MFAMessage> older, MFAMessageGrouper olderGrouper)
+   {
+      startJankDetection();
+      int count = older.size();
+      MFAMessage first = _messages.isEmpty() ? null : _messages.get(0);
+      boolean hadSeparator = (first != null) && _daySeparators.hasSeparator(0);
+      boolean regrouped = _grouper.prepend(olderGrouper, first);
+      _messages.addAll(0, older);
+      resetSpanPrefetch();
+      if (_searchIndex != null)
+      {
+         List<String> texts = new ArrayList<>(count);
+         for (int i = 0; i < count; i++)
+         {
+            texts.add(older.get(i).getMessage());
+         }
+         // Only the new chunk is tokenized, rather than the whole history again
+         _searchIndex.prepend(texts);
+         _searchMatches = null;
+         if (_currentMatch != NO_POSITION) _currentMatch += count;
+      }
+      if (_metrics != null) _metrics.onMessagesSet(_messages);
+      _adapter.notifyItemRangeInserted(0, count);
+      if (regrouped)
+      {
+         _adapter.notifyItemChanged(count);
+      }
+      else if (first != null)
+      {
+         notifySeparatorChanged(count, hadSeparator);
+      }
+   }
+
+   /**
+    * Helper method that tells RecyclerView a message's separator came or went
+    * because its previous message changed, e.g. when a new day now starts at it.
+    * RecyclerView caches the space item decorations reserve for each item, so
+    * the change is reported rather than relying on the item having moved.
+    * @param position adapter position of the message
+    * @param hadSeparator true if the message had a separator before the change
+    */
+   private void notifySeparatorChanged(int position, boolean hadSeparator)
+   {
+      if (_daySeparators.hasSeparator(position) != hadSeparator)
+      {
+         _adapter.notifyItemChanged(position, MFAMessageAdapter.PAYLOAD_SEPARATOR);
+      }
+   }
+
+   /**
+    * Helper method that stops setMessagesAsync and setMessagesProgressively
+    * loads in progress.
+    */
+   private void cancelLoads()
+   {
+      _bulkLoader.cancel();
+      _olderMessages = null;
+      _olderCount = 0;
+      _onOlderLoaded = null;
+   }
+
+   /**
+    * Helper method that displays messages whose timestamps and names have been
+    * configured by _grouper.
+    */
+   private void displayMessages(List<MFAMessage> messages, boolean showProfileImg)
+   {
+      _messages = messages;
+      if (_memoryGovernor != null) _memoryGovernor.clear();
+      if (_searchIndex != null)
+      {
+         indexMessages();
+         _searchMatches = null;
+         _currentMatch = NO_POSITION;
+      }
+      setUnreadCount(0);
+      prepareNewestSpans();
+      resetSpanPrefetch();
+      if (_metrics != null) _metrics.onMessagesSet(_messages);
+      initAdapter();
+      _adapter.showProfileImg(showProfileImg);
+      if (getAdapter() == _adapter)
+      {
+         // Setting the same adapter again would clear the RecycledViewPool
+         _adapter.notifyDataSetChanged();
+      }
+      else
+      {
+         setAdapter(_adapter);
+      }
+   }
+
+   /**
+    * Display messages loaded around a search hit by MFAMessageStore.loadWindow
+    * and scroll to the hit.
+    * @param window messages around the hit, oldest first
+    * @param hitPosition position of the hit in window
+    */
+   public void showMessageWindow(@NonNull List<MFAMessage> window, int hitPosition)
+   {
+      setMessages(window);
+      if (hitPosition >= 0 && hitPosition < window.size())
+      {
+         scrollToPosition(hitPosition);
+      }
+   }
+
+   /**
+    * Add a new message to the recycler view
+    * @param message most recent message
+    */
+   public void addMessage(@NonNull MFAMessage message)
+   {
+      if (!message.hasMessageImg() && message.getMessage().isEmpty())
+      {
+         Log.w(TAG, "Message content is empty");
+         //return;
+      }
+      int prevPosition = _messages.size()-1;
+      // Must be checked before the new message changes the scroll range
+      boolean wasAtBottom = prevPosition < 0 || isAtBottom();
+      startJankDetection();
+      // Configure current messages time stamp
+      boolean trace = MFATrace.enabled;
+      if (trace) MFATrace.begin(MFATrace.GROUP_MESSAGES);
+      if (_metrics != null)
+      {
+         long start = System.nanoTime();
+         _grouper.append(message);
+         _metrics.onGroupingPass(1, start);
+         _metrics.onMessageAdded(message);
+      }
+      else
+      {
+         _grouper.append(message);
+      }
+      if (trace) MFATrace.end();
+      if (_searchIndex != null)
+      {
+         _searchIndex.append(message.getMessage());
+         _searchMatches = null;
+      }
+      if (_spanProcessor != null) _spanProcessor.prepare(message);
+      _messages.add(message);
+      // In case this is the first message.
+      if (_adapter == null)
+      {
+         initAdapter();
+         setAdapter(_adapter);
+      }
+      showProfileImages(message.getProfileImg() != null);
+      // Only follow new messages if the user isn't reading older ones, unless they sent it
+      if (_stickToBottom && !message.getIsSender() && !wasAtBottom)
+      {
+         _adapter.notifyItemInserted(_messages.size()-1);
+         setUnreadCount(_unreadCount + 1);
+         return;
+      }
+      setUnreadCount(0);
+      if (_llm.isBottomAnchored())
+      {
+         // Keep the newest message pinned in the same layout pass as the insert
+         _adapter.notifyItemInserted(_messages.size()-1);
+         _llm.pinToBottom(_messages.size()-1);
+      }
+      else if (shouldAnimateNewMessage(prevPosition))
+      {
+         _adapter.notifyItemInserted(_messages.size()-1);
+         scrollToPosition(_messages.size()-1);
+      }
+      else
+      {
+         // Last visible image was not the previous message, this prevents
+         // adding multiple cell addition animations.
+         _adapter.notifyItemInserted(_messages.size()-1);
+         smoothScrollToPosition(_messages.size()-1);
+      }
+   }
+
+   /**
+    * Remove a message at a specific position.
+    * @param position index position of the message
+    * @return true if a message was removed at position, false otherwise
+    */
+   public boolean removeMessageAtPosition(int position)
+   {
+      if (_messages.size() > position && _adapter != null)
+      {
+         startJankDetection();
+         boolean nextHadSeparator = _daySeparators.hasSeparator(position + 1);
+         MFAMessage removed = _messages.remove(position);
+         if (_metrics != null) _metrics.onMessageRemoved(removed);
+         if (_memoryGovernor != null) _memoryGovernor.onMessageRemoved(removed);
+         if (_searchIndex != null)
+         {
+            _searchIndex.remove(position);
+            _searchMatches = null;
+            if (position <= _currentMatch) _currentMatch--;
+         }
+         _adapter.notifyItemRemoved(position);
+         MFAMessage next = (_messages.size() > position) ? _messages.get(position) : null;
+         boolean trace = MFATrace.enabled;
+         if (trace) MFATrace.begin(MFATrace.GROUP_MESSAGES);
+         boolean regrouped = _grouper.remove(position, removed, next);
+         if (trace) MFATrace.end();
+         if (regrouped)
+         {
+            _adapter.notifyItemChanged(position);
+         }
+         else if (next != null)
+         {
+            notifySeparatorChanged(position, nextHadSeparator);
+         }
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * Clear all messages
+    * @return true if messages were cleared, false otherwise
+    */
+   public boolean clearAllMessages()
+   {
+      cancelLoads();
+      if (!_messages.isEmpty() && _adapter != null)
+      {
+         //setItemAnimator(null);
+         _grouper.clear();
+         setUnreadCount(0);
+         int size = _messages.size();
+         _messages.clear();
+         if (_metrics != null) _metrics.onMessagesSet(_messages);
+         if (_memoryGovernor != null) _memoryGovernor.clear();
+         if (_searchIndex != null)
+         {
+            _searchIndex.clear();
+            _searchMatches = null;
+            _currentMatch = NO_POSITION;
+         }
+         _adapter.notifyItemRangeRemoved(0, size);
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * Determine if an animation should occur.
+    * @param position index position of the last message before new message add
+    * @return true if the adapter should animate, false otherwise
+    */
+   private boolean shouldAnimateNewMessage(int position)
+   {
+      int lastVisibleMessage = _llm.findLastVisibleItemPosition();
+      return position < 0 || position == lastVisibleMessage;
    }
 }
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright 2016 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview;
+
+import android.graphics.Bitmap;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import com.multifacetedapproach.mfamessageview.Listeners.MFAMetricsListener;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the library's work and reports it to an MFAMetricsListener and to an
+ * MFAJankDetector. One is only created while either is set; MFAMessageView and
+ * its adapter hold null otherwise, so with reporting disabled every measuring
+ * point costs a single null check and never reads the clock.
+ */
+final class MFAMetrics
+{
+   // Listener set by the app, or null
+   private final MFAMetricsListener _listener;
+   // Jank detector counting the work per frame, or null
+   private final MFAJankDetector _jankDetector;
+   // Bytes held by the displayed messages' images. Updated from image workers too.
+   private final AtomicLong _bitmapBytes = new AtomicLong();
+
+   /**
+    * @param listener listener set by the app, or null
+    * @param jankDetector jank detector, or null
+    */
+   MFAMetrics(MFAMetricsListener listener, MFAJankDetector jankDetector)
+   {
+      _listener = listener;
+      _jankDetector = jankDetector;
+   }
+
+   /**
+    * Report a ViewHolder that was created.
+    * @param viewType view type of the holder
+    * @param start System.nanoTime() when creation started
+    */
+   void onViewHolderCreated(int viewType, long start)
+   {
+      long duration = System.nanoTime() - start;
+      if (_listener != null) _listener.onViewHolderCreated(viewType, duration);
+      if (_jankDetector != null) _jankDetector.onViewHolderCreated(duration);
+   }
+
+   /**
+    * Report a ViewHolder that was bound.
+    * @param viewType view type of the holder
+    * @param start System.nanoTime() when binding started
+    */
+   void onViewHolderBound(int viewType, long start)
+   {
+      long duration = System.nanoTime() - start;
+      if (_listener != null) _listener.onViewHolderBound(viewType, duration);
+      if (_jankDetector != null) _jankDetector.onViewHolderBound(duration);
+   }
+
+   /**
+    * Report whether an image cell found its prepared image ready.
+    * @param hit true if the prepared image was ready
+    */
+   void onImageCacheLookup(boolean hit)
+   {
+      if (_listener != null) _listener.onImageCacheLookup(hit);
+   }
+
+   /**
+    * Report a grouping pass.
+    * @param messageCount number of messages grouped
+    * @param start System.nanoTime() when grouping started
+    */
+   void onGroupingPass(int messageCount, long start)
+   {
+      long duration = System.nanoTime() - start;
+      if (_listener != null) _listener.onGroupingPass(messageCount, duration);
+      if (_jankDetector != null) _jankDetector.onGroupingPass(duration);
+   }
+
+   /**
+    * Prepare a message's cropped image, timing the work. May be called from any thread.
+    * @param message message whose image should be prepared
+    * @return the cropped image, or null if the message has no image
+    */
+   Bitmap prepareCroppedImg(@NonNull MFAMessage message)
+   {
+      // The message image may be decoded again too, if it was dropped to save memory
+      long heldBefore = (_listener != null) ? getBitmapBytes(message) : 0;
+      long start = System.nanoTime();
+      Bitmap cropped = message.cropIfNeeded();
+      // Already cropped, e.g. by a worker that got there first, so there's nothing to report
+      if (cropped == null) return message.peekCroppedImg();
+      long duration = System.nanoTime() - start;
+      if (_listener != null)
+      {
+         _listener.onImageCropped(duration, cropped.getByteCount());
+         _listener.onBitmapBytesChanged(_bitmapBytes.addAndGet(getBitmapBytes(message) - heldBefore));
+      }
+      // Only work on the main thread can drop frames
+      if (_jankDetector != null && Looper.myLooper() == Looper.getMainLooper())
+      {
+         _jankDetector.onImagePrepared(duration);
+      }
+      return cropped;
+   }
+
+   /**
+    * Start counting the bytes held by a new set of messages.
+    * @param messages messages now displayed
+    */
+   void onMessagesSet(@NonNull List<MFAMessage> messages)
+   {
+      if (_listener == null) return;
+      long bytes = 0;
+      for (int i = 0; i < messages.size(); i++)
+      {
+         MFAMessage message = messages.get(i);
+         reportDecode(message);
+         bytes += getBitmapBytes(message);
+      }
+      _bitmapBytes.set(bytes);
+      _listener.onBitmapBytesChanged(bytes);
+   }
+
+   /**
+    * Count the bytes held by a message that was added.
+    * @param message message added
+    */
+   void onMessageAdded(@NonNull MFAMessage message)
+   {
+      if (_listener == null) return;
+      reportDecode(message);
+      long bytes = getBitmapBytes(message);
+      if (bytes != 0) _listener.onBitmapBytesChanged(_bitmapBytes.addAndGet(bytes));
+   }
+
+   /**
+    * Stop counting the bytes held by a message that was removed. An image still
+    * being prepared for it when it was removed is counted until the next
+    * onMessagesSet.
+    * @param message message removed
+    */
+   void onMessageRemoved(@NonNull MFAMessage message)
+   {
+      if (_listener == null) return;
+      long bytes = getBitmapBytes(message);
+      if (bytes != 0) _listener.onBitmapBytesChanged(_bitmapBytes.addAndGet(-bytes));
+   }
+
+   /**
+    * Stop counting the bytes of images dropped to save memory.
+    * @param bytes bytes dropped
+    */
+   void onImagesShed(long bytes)
+   {
+      if (_listener == null || bytes == 0) return;
+      _listener.onBitmapBytesChanged(_bitmapBytes.addAndGet(-bytes));
+   }
+
+   /**
+    * Helper method that reports the time spent decoding a message's images, the
+    * first time the message is displayed.
+    */
+   private void reportDecode(MFAMessage message)
+   {
+      long nanos = message.decodeNanos;
+      if (nanos == 0) return;
+      message.decodeNanos = 0;
+      _listener.onImageDecoded(nanos);
+   }
+
+   private static long getBitmapBytes(MFAMessage message)
+   {
+      long bytes = 0;
+      Bitmap messageImg = message.peekMessageImg();
+      if (messageImg != null) bytes += messageImg.getByteCount();
+      Bitmap croppedImg = message.peekCroppedImg();
+      if (croppedImg != null) bytes += croppedImg.getByteCount();
+      return bytes;
+   }
+}
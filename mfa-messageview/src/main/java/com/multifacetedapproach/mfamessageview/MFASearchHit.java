@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright 2016 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview;
+
+/**
+ * A persisted message matching a search of an MFAMessageStore. Hits carry no
+ * message content: load the messages around one with
+ * MFAMessageStore.loadWindow to display it.
+ */
+public class MFASearchHit
+{
+   // Conversation the message was persisted to
+   public final String conversation;
+   // UID of the message, 0 if it had none
+   public final long uid;
+   // Time the message was sent, in milliseconds, or 0 if its timestamp couldn't be parsed
+   public final long timeInMillis;
+   // Row of the message in the store, which tells apart messages without a UID
+   final long rowId;
+
+   MFASearchHit(String conversation, long uid, long timeInMillis, long rowId)
+   {
+      this.conversation = conversation;
+      this.uid = uid;
+      this.timeInMillis = timeInMillis;
+      this.rowId = rowId;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "MFASearchHit{" + conversation + ", uid " + uid + ", " + timeInMillis + "}";
+   }
+}
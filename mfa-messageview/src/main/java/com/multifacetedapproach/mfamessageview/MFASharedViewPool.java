@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright 2016 - 2017 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview;
+
+import android.support.v7.widget.RecyclerView;
+import android.util.SparseIntArray;
+
+/**
+ * A RecycledViewPool that several MFAMessageViews can share, for example one per
+ * tab or split pane, so switching conversations reuses the cells a sibling view
+ * just gave up instead of inflating new ones. Rather than a fixed number of
+ * holders per view type, each view type is sized from the largest number of
+ * cells of that type observed on screen at once, so an image heavy conversation
+ * keeps more image cells and a text heavy one keeps more text cells.
+ * <p>
+ * Views sharing a pool should use the same cell mode (see
+ * {@link MFAMessageView#setUseFlatCells(boolean)}) to get any benefit from it.
+ */
+public class MFASharedViewPool extends RecyclerView.RecycledViewPool
+{
+   // Extra holders kept per view type beyond the observed on screen peak
+   private static final int HEADROOM = 2;
+   // Smallest and largest number of holders kept per view type
+   private static final int MIN_SIZE = 2;
+   private static final int MAX_SIZE = 40;
+   // Largest number of cells of each view type observed on screen at once
+   private final SparseIntArray _peakOnScreen = new SparseIntArray();
+   // Sizes explicitly requested through setMaxRecycledViews, used as a floor
+   private final SparseIntArray _requestedSize = new SparseIntArray();
+
+   @Override
+   public void setMaxRecycledViews(int viewType, int max)
+   {
+      _requestedSize.put(viewType, max);
+      super.setMaxRecycledViews(viewType, computeSize(viewType));
+   }
+
+   /**
+    * Record how many cells of a view type are currently on screen in one of the
+    * views sharing this pool. The pool only grows a view type when a new peak
+    * is observed, so calling this after every layout is cheap.
+    * @param viewType view type of the cells
+    * @param count number of cells of that type on screen
+    */
+   public void recordOnScreen(int viewType, int count)
+   {
+      if (count <= _peakOnScreen.get(viewType, 0)) return;
+      _peakOnScreen.put(viewType, count);
+      super.setMaxRecycledViews(viewType, computeSize(viewType));
+   }
+
+   /**
+    * Get the number of holders currently kept for a view type.
+    * @param viewType view type of the cells
+    * @return maximum number of pooled holders for the view type
+    */
+   public int getMaxRecycledViews(int viewType)
+   {
+      return computeSize(viewType);
+   }
+
+   private int computeSize(int viewType)
+   {
+      int peak = _peakOnScreen.get(viewType, 0);
+      int auto = (peak > 0) ? Math.max(MIN_SIZE, Math.min(MAX_SIZE, peak + HEADROOM))
+            : MFAMessageView.DEFAULT_POOL_SIZE;
+      return Math.max(auto, _requestedSize.get(viewType, 0));
+   }
+}
@@ -0,0 +1,294 @@
+/*******************************************************************************
+ * Copyright 2016 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.multifacetedapproach.mfamessageview.Helpers.MFASpanParser;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Parses message text into spans on a worker thread and caches the results,
+ * so binding only ever looks them up. Results are keyed by the message's UID,
+ * or by the message itself when it has none, and are checked against the text
+ * they were parsed from, so an edited message is parsed again. Looking them up
+ * allocates nothing, as it's done whenever a recycled cell is bound. Everything
+ * but the parsing happens on the main thread. MFABulkLoader also parses the
+ * newest messages of a load on its own workers and caches them with put.
+ */
+final class MFASpanProcessor
+{
+   // Tag for log messages and the worker thread
+   private static final String TAG = "MFASpanProcessor";
+   // Number of messages whose spans are cached by default
+   static final int DEFAULT_CACHE_SIZE = 1000;
+   // Shared worker thread
+   private static Executor _executor;
+   // Parses text into spans
+   private final MFASpanParser _parser;
+   // Parsed text of messages with a UID by UID, and of messages without one by identity.
+   // Both are looked up without boxing a key.
+   private final LongSparseArray<Entry> _byUid = new LongSparseArray<>();
+   private final Map<MFAMessage, Entry> _byMessage = new HashMap<>();
+   // Most and least recently used entries of both, linked through Entry.older and
+   // Entry.newer, and the number of entries and the most that are kept
+   private Entry _newest;
+   private Entry _oldest;
+   private int _size;
+   private final int _maxSize;
+   // Keys of messages being parsed, so each is only queued once
+   private final Set<Object> _pending = new HashSet<>();
+   // Handler used to deliver results on the main thread
+   private final Handler _mainHandler = new Handler(Looper.getMainLooper());
+   // Told when a message's spans are ready
+   private final Listener _listener;
+   // Incremented by clear, so results of parses queued before it are dropped
+   private int _generation = 0;
+
+   /**
+    * Told on the main thread when spans are ready for a message that had none.
+    */
+   interface Listener
+   {
+      void onSpansPrepared(MFAMessage message);
+   }
+
+   /**
+    * A parsed text and the text it was parsed from, linked to the entries used
+    * just before and after it.
+    */
+   private static final class Entry
+   {
+      // UID of the message, or 0 if it's keyed by message
+      final long uid;
+      // Message without a UID, or null if it's keyed by UID
+      final MFAMessage message;
+      // Text parsed and the result
+      String source;
+      CharSequence text;
+      // Entries used just before and after this one
+      Entry older;
+      Entry newer;
+
+      Entry(long uid, MFAMessage message)
+      {
+         this.uid = uid;
+         this.message = message;
+      }
+   }
+
+   MFASpanProcessor(@NonNull MFASpanParser parser, int cacheSize, @NonNull Listener listener)
+   {
+      _parser = parser;
+      _maxSize = cacheSize;
+      _listener = listener;
+   }
+
+   /**
+    * Get the parsed text of a message, queueing it to be parsed if it isn't
+    * cached. The listener is told once it's ready.
+    * @param message message to get the text of
+    * @return parsed text, or null if it isn't ready yet
+    */
+   CharSequence get(MFAMessage message)
+   {
+      String text = message.getMessage();
+      if (text.isEmpty()) return text;
+      Entry entry = (message.uid != 0) ? _byUid.get(message.uid) : _byMessage.get(message);
+      if (entry != null && (entry.source == text || entry.source.equals(text)))
+      {
+         touch(entry);
+         return entry.text;
+      }
+      schedule(message, text);
+      return null;
+   }
+
+   /**
+    * Parse a message's text ahead of it being bound, unless it's already cached.
+    * @param message message to parse
+    */
+   void prepare(MFAMessage message)
+   {
+      get(message);
+   }
+
+   /**
+    * Cache text parsed ahead of time, e.g. by MFABulkLoader while the messages
+    * were loading. The listener isn't told, as no cell shows them yet.
+    * @param message message the text belongs to
+    * @param source text the spans were parsed from
+    * @param text parsed text
+    */
+   void put(MFAMessage message, String source, CharSequence text)
+   {
+      Entry entry = (message.uid != 0) ? _byUid.get(message.uid) : _byMessage.get(message);
+      if (entry == null)
+      {
+         entry = new Entry(message.uid, (message.uid != 0) ? null : message);
+         if (message.uid != 0) _byUid.put(message.uid, entry);
+         else _byMessage.put(message, entry);
+         _size++;
+      }
+      entry.source = source;
+      entry.text = text;
+      touch(entry);
+      if (_size > _maxSize) evict(_oldest);
+   }
+
+   /**
+    * @return number of messages whose spans are cached
+    */
+   int getCacheSize()
+   {
+      return _maxSize;
+   }
+
+   /**
+    * Parse text into spans. Called on worker threads.
+    * @param text text of a message
+    * @return parsed text, or text itself if the parser failed
+    */
+   CharSequence parse(String text)
+   {
+      try
+      {
+         return _parser.parse(text);
+      }
+      catch (RuntimeException e)
+      {
+         // A message the parser chokes on is still displayed, just without spans
+         Log.e(TAG, "Failed to parse message text", e);
+         return text;
+      }
+   }
+
+   /**
+    * Drop every cached result and any parse in progress.
+    */
+   void clear()
+   {
+      _generation++;
+      _pending.clear();
+      _byUid.clear();
+      _byMessage.clear();
+      _newest = null;
+      _oldest = null;
+      _size = 0;
+   }
+
+   /**
+    * Helper method that marks an entry as the most recently used.
+    */
+   private void touch(Entry entry)
+   {
+      if (entry == _newest) return;
+      unlink(entry);
+      entry.older = _newest;
+      if (_newest != null) _newest.newer = entry;
+      _newest = entry;
+      if (_oldest == null) _oldest = entry;
+   }
+
+   /**
+    * Helper method that drops an entry from the cache.
+    */
+   private void evict(Entry entry)
+   {
+      unlink(entry);
+      if (entry.message != null) _byMessage.remove(entry.message);
+      else _byUid.remove(entry.uid);
+      _size--;
+   }
+
+   /**
+    * Helper method that takes an entry out of the list of recently used ones.
+    */
+   private void unlink(Entry entry)
+   {
+      if (entry.older != null) entry.older.newer = entry.newer;
+      if (entry.newer != null) entry.newer.older = entry.older;
+      if (_oldest == entry) _oldest = entry.newer;
+      if (_newest == entry) _newest = entry.older;
+      entry.older = null;
+      entry.newer = null;
+   }
+
+   private void schedule(final MFAMessage message, final String text)
+   {
+      // MFAMessage doesn't override equals, so messages without a UID are told apart by identity
+      final Object key = (message.uid != 0) ? Long.valueOf(message.uid) : message;
+      if (!_pending.add(key)) return;
+      final int generation = _generation;
+      getExecutor().execute(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            final CharSequence result = parse(text);
+            _mainHandler.post(new Runnable()
+            {
+               @Override
+               public void run()
+               {
+                  if (generation != _generation) return;
+                  _pending.remove(key);
+                  put(message, text, result);
+                  _listener.onSpansPrepared(message);
+               }
+            });
+         }
+      });
+   }
+
+   private static synchronized Executor getExecutor()
+   {
+      if (_executor == null)
+      {
+         _executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+         {
+            @Override
+            public Thread newThread(@NonNull final Runnable r)
+            {
+               Thread thread = new Thread(new Runnable()
+               {
+                  @Override
+                  public void run()
+                  {
+                     Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                     r.run();
+                  }
+               }, TAG);
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      }
+      return _executor;
+   }
+}
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright 2016 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview;
+
+import android.os.Trace;
+
+/**
+ * Trace sections around the library's hot paths, shown in systrace and Perfetto
+ * captures. Tracing is off by default; while off, every section costs a single
+ * read of a static flag. Section names are constants so nothing is built per call.
+ * <p>
+ * Callers read {@link #enabled} once and use that value to both begin and end
+ * their section, so sections stay balanced if tracing is toggled in between.
+ */
+final class MFATrace
+{
+   // True while trace sections are emitted
+   static boolean enabled = false;
+
+   static final String CROP_IMAGE = "MFA:cropImage";
+   static final String ENCODE_BASE64 = "MFA:encodeBase64";
+   static final String DECODE_BASE64 = "MFA:decodeBase64";
+   static final String GROUP_MESSAGES = "MFA:groupMessages";
+   static final String LAYOUT_CHILDREN = "MFA:layoutChildren";
+   static final String SCROLL = "MFA:scroll";
+   static final String SMOOTH_SCROLL = "MFA:smoothScroll";
+
+   // Indexed by view type, see MFAMessageAdapter
+   private static final String[] CREATE_VIEW_HOLDER = {
+         "MFA:create:sentText", "MFA:create:receivedText", "MFA:create:sentImage", "MFA:create:receivedImage",
+         "MFA:create:flatSentText", "MFA:create:flatReceivedText", "MFA:create:flatSentImage", "MFA:create:flatReceivedImage" };
+   private static final String[] BIND_VIEW_HOLDER = {
+         "MFA:bind:sentText", "MFA:bind:receivedText", "MFA:bind:sentImage", "MFA:bind:receivedImage",
+         "MFA:bind:flatSentText", "MFA:bind:flatReceivedText", "MFA:bind:flatSentImage", "MFA:bind:flatReceivedImage" };
+
+   private MFATrace()
+   {
+   }
+
+   static void begin(String section)
+   {
+      Trace.beginSection(section);
+   }
+
+   static void end()
+   {
+      Trace.endSection();
+   }
+
+   static String createViewHolder(int viewType)
+   {
+      return (viewType >= 0 && viewType < CREATE_VIEW_HOLDER.length) ? CREATE_VIEW_HOLDER[viewType] : "MFA:create";
+   }
+
+   static String bindViewHolder(int viewType)
+   {
+      return (viewType >= 0 && viewType < BIND_VIEW_HOLDER.length) ? BIND_VIEW_HOLDER[viewType] : "MFA:bind";
+   }
+}
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright 2016 - 2017 Multifaceted Approach, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.multifacetedapproach.mfamessageview;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates MFAMessageAdapter ViewHolders ahead of time and places them in the
+ * RecycledViewPool of an MFAMessageView, so the first screenful and the first
+ * fling through a conversation don't stall on inflation. Holders are either
+ * created on a background thread or one at a time while the main thread is idle.
+ */
+final class MFAViewHolderWarmer implements Runnable, MessageQueue.IdleHandler
+{
+   private static final String TAG = "MFAViewHolderWarmer";
+   // Single low priority thread shared by every warm up
+   private static Executor _executor;
+   // View the holders are created for
+   private final RecyclerView _parent;
+   // Adapter that creates the holders
+   private final MFAMessageAdapter _adapter;
+   // Handler used to hand holders created in the background to the main thread
+   private final Handler _mainHandler = new Handler(Looper.getMainLooper());
+   // View types to create, and how many of each
+   private final int[] _viewTypes;
+   private final int _countPerType;
+   // Index of the next holder to create when warming up during idle
+   private int _next = 0;
+
+   /**
+    * @param parent view the holders are created for
+    * @param adapter adapter that creates the holders
+    * @param countPerType number of holders to create for each view type
+    */
+   MFAViewHolderWarmer(@NonNull RecyclerView parent, @NonNull MFAMessageAdapter adapter, int countPerType)
+   {
+      _parent = parent;
+      _adapter = adapter;
+      _viewTypes = adapter.getViewTypes();
+      _countPerType = countPerType;
+      // Make sure the pool can hold everything we're about to create
+      RecyclerView.RecycledViewPool pool = parent.getRecycledViewPool();
+      for (int viewType : _viewTypes)
+      {
+         pool.setMaxRecycledViews(viewType, Math.max(MFAMessageView.DEFAULT_POOL_SIZE, countPerType));
+      }
+   }
+
+   /**
+    * Create all holders on a background thread.
+    */
+   void startInBackground()
+   {
+      getExecutor().execute(this);
+   }
+
+   /**
+    * Create holders one at a time whenever the main thread's queue is idle.
+    * Must be called from the main thread.
+    */
+   void startWhenIdle()
+   {
+      Looper.myQueue().addIdleHandler(this);
+   }
+
+   @Override
+   public void run()
+   {
+      for (int i = 0; i < _viewTypes.length * _countPerType; i++)
+      {
+         // Stop early if the view has moved on to another adapter
+         if (_parent.getAdapter() != _adapter) return;
+         final RecyclerView.ViewHolder holder = createViewHolder(_viewTypes[i % _viewTypes.length]);
+         if (holder == null) return;
+         _mainHandler.post(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               putRecycledView(holder);
+            }
+         });
+      }
+   }
+
+   @Override
+   public boolean queueIdle()
+   {
+      if (_next >= _viewTypes.length * _countPerType) return false;
+      RecyclerView.ViewHolder holder = createViewHolder(_viewTypes[_next % _viewTypes.length]);
+      _next++;
+      if (holder == null) return false;
+      putRecycledView(holder);
+      return _next < _viewTypes.length * _countPerType;
+   }
+
+   private RecyclerView.ViewHolder createViewHolder(int viewType)
+   {
+      try
+      {
+         return _adapter.createViewHolder(_parent, viewType);
+      }
+      catch (Exception e)
+      {
+         // Some custom fonts or views may refuse to be created off the main thread,
+         // in which case they'll simply be inflated on demand as before.
+         Log.w(TAG, "Unable to create ViewHolder ahead of time", e);
+         return null;
+      }
+   }
+
+   private void putRecycledView(RecyclerView.ViewHolder holder)
+   {
+      // A holder created for a replaced adapter would bind against the wrong messages
+      if (_parent.getAdapter() == _adapter)
+      {
+         _parent.getRecycledViewPool().putRecycledView(holder);
+      }
+   }
+
+   private static synchronized Executor getExecutor()
+   {
+      if (_executor == null)
+      {
+         _executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+         {
+            @Override
+            public Thread newThread(@NonNull final Runnable r)
+            {
+               Thread thread = new Thread(new Runnable()
+               {
+                  @Override
+                  public void run()
+                  {
+                     Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                     r.run();
+                  }
+               }, TAG);
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      }
+      return _executor;
+   }
+}
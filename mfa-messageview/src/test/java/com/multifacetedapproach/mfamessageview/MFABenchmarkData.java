@@ -0,0 +1,115 @@
+package com.multifacetedapproach.mfamessageview;
+
+import android.graphics.Bitmap;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Builds realistic conversations for the benchmarks: mostly short texts with
+ * the occasional long one, received messages from a few people with profile
+ * images, and photos in portrait and landscape.
+ */
+final class MFABenchmarkData
+{
+   // Same format MFAMessageView parses timestamps with by default
+   static final String TIMESTAMP_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+   // Size of the profile images on received messages
+   private static final int PROFILE_IMG_SIZE = 96;
+   private static final String[] NAMES = {"Alex", "Sam", "Jordan", "Riley"};
+   private static final String[] WORDS = {"hey", "are", "we", "still", "on", "for", "tonight", "lol",
+         "sure", "sounds", "good", "running", "late", "see", "you", "there", "thanks", "the",
+         "meeting", "moved", "to", "tomorrow", "ok", "call", "me", "when", "free"};
+
+   private MFABenchmarkData()
+   {
+   }
+
+   /**
+    * Create a conversation.
+    * @param count number of messages
+    * @param imagePercent percentage of messages that are photos
+    * @param imageSize length of the short side of each photo in pixels
+    * @param spanMillis time covered by the conversation, ending now
+    * @return messages, oldest first
+    */
+   static List<MFAMessage> createConversation(int count, int imagePercent, int imageSize, long spanMillis)
+   {
+      Random random = new Random(42);
+      Bitmap profileImg = createImage(PROFILE_IMG_SIZE, PROFILE_IMG_SIZE);
+      SimpleDateFormat sdf = createDateFormat();
+      long now = System.currentTimeMillis();
+      List<MFAMessage> messages = new ArrayList<>(count);
+      for (int i = 0; i < count; i++)
+      {
+         boolean isSender = random.nextInt(3) == 0;
+         String name = isSender ? null : NAMES[random.nextInt(NAMES.length)];
+         String timestamp = sdf.format(new Date(now - spanMillis + spanMillis * i / count));
+         MFAMessage message;
+         if (random.nextInt(100) < imagePercent)
+         {
+            // Phone photos are 4:3, in either orientation
+            boolean portrait = random.nextBoolean();
+            int longSide = imageSize * 4 / 3;
+            Bitmap img = portrait ? createImage(imageSize, longSide) : createImage(longSide, imageSize);
+            message = new MFAMessage(i, name, isSender ? null : profileImg, "", img, timestamp, isSender);
+         }
+         else
+         {
+            message = new MFAMessage(i, name, isSender ? null : profileImg, createText(random), null, timestamp, isSender);
+         }
+         messages.add(message);
+      }
+      return messages;
+   }
+
+   /**
+    * Create timestamps spread evenly over a span of time ending now.
+    * @param count number of timestamps
+    * @param spanMillis time covered, ending now
+    * @return timestamps in TIMESTAMP_FORMAT, oldest first
+    */
+   static String[] createTimestamps(int count, long spanMillis)
+   {
+      SimpleDateFormat sdf = createDateFormat();
+      long now = System.currentTimeMillis();
+      String[] timestamps = new String[count];
+      for (int i = 0; i < count; i++)
+      {
+         timestamps[i] = sdf.format(new Date(now - spanMillis + spanMillis * i / count));
+      }
+      return timestamps;
+   }
+
+   static Bitmap createImage(int width, int height)
+   {
+      Bitmap bmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+      bmp.eraseColor(0xff3a7bd5);
+      return bmp;
+   }
+
+   static SimpleDateFormat createDateFormat()
+   {
+      return new SimpleDateFormat(TIMESTAMP_FORMAT, Locale.ENGLISH);
+   }
+
+   /**
+    * Helper method that creates a message text, usually a few words and
+    * occasionally a paragraph.
+    */
+   private static String createText(Random random)
+   {
+      int words = (random.nextInt(10) == 0) ? 40 + random.nextInt(40) : 1 + random.nextInt(12);
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < words; i++)
+      {
+         if (i > 0) sb.append(' ');
+         sb.append(WORDS[random.nextInt(WORDS.length)]);
+      }
+      return sb.toString();
+   }
+}
@@ -0,0 +1,61 @@
+package com.multifacetedapproach.mfamessageview;
+
+import android.os.Build;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+/**
+ * Runs the JMH benchmarks on the JVM, inside Robolectric so MFAMessage can use
+ * Parcel, JSONObject, Base64 and Bitmap. Skipped unless requested:
+ * <pre>
+ * ./gradlew :mfa-messageview:testDebugUnitTest --tests '*MFABenchmarkRunner' -Pbenchmark
+ * </pre>
+ * Add -PbenchmarkInclude=&lt;regex&gt; to run a subset. Throughput is reported per
+ * benchmark, and the GC profiler adds the allocation rate and bytes allocated per
+ * operation (gc.alloc.rate.norm). Results are also written as JSON to
+ * build/reports/benchmarks.
+ * <p>
+ * Robolectric's Bitmap and Canvas are shadows that don't touch pixels, so the
+ * image benchmarks measure the library's own work and allocations rather than
+ * Skia's.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = Build.VERSION_CODES.O)
+public class MFABenchmarkRunner
+{
+   private static final String DEFAULT_INCLUDE = MFABenchmarkRunner.class.getPackage().getName() + ".MFA\\w+Benchmark";
+
+   @Test
+   public void runBenchmarks() throws RunnerException
+   {
+      Assume.assumeTrue(Boolean.getBoolean("mfa.benchmark"));
+
+      File results = new File("build/reports/benchmarks/results.json");
+      results.getParentFile().mkdirs();
+      ChainedOptionsBuilder options = new OptionsBuilder()
+            .include(System.getProperty("mfa.benchmark.include", DEFAULT_INCLUDE))
+            // The classes under test only work inside Robolectric's sandbox in this JVM
+            .forks(0)
+            .warmupIterations(5)
+            .warmupTime(TimeValue.seconds(1))
+            .measurementIterations(5)
+            .measurementTime(TimeValue.seconds(1))
+            .addProfiler(GCProfiler.class)
+            .resultFormat(ResultFormatType.JSON)
+            .result(results.getPath());
+      new Runner(options.build()).run();
+   }
+}
@@ -0,0 +1,265 @@
+package com.multifacetedapproach.mfamessageview;
+
+import android.os.Build;
+import android.os.Looper;
+
+import com.multifacetedapproach.mfamessageview.core.MFAMessageGrouper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks setMessagesAsync and setMessagesProgressively configure messages
+ * exactly as setMessages does when the work is split across threads, that
+ * a later setMessages wins over a load still in progress, that a load that
+ * fails off the main thread still finishes, and that the newest messages'
+ * spans are parsed along with them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = Build.VERSION_CODES.O)
+public class MFABulkLoaderTest
+{
+   private static final long THIRTY_DAYS = 30L * 24 * 60 * 60 * 1000;
+   // Enough messages for several chunks
+   private static final int COUNT = 10000;
+   private static final long TIMEOUT_MILLIS = 10000;
+   // Spans cached by the span processor, fewer than a chunk
+   private static final int SPAN_COUNT = 500;
+
+   private ExecutorService _executor;
+   private MFAMessageView _view;
+
+   @Before
+   public void setUp()
+   {
+      _executor = Executors.newFixedThreadPool(4);
+      _view = new MFAMessageView(RuntimeEnvironment.application);
+      _view.setBulkLoadExecutor(_executor);
+   }
+
+   @After
+   public void tearDown()
+   {
+      _executor.shutdownNow();
+   }
+
+   @Test
+   public void matchesSetMessages() throws InterruptedException
+   {
+      List<MFAMessage> expected = MFABenchmarkData.createConversation(COUNT, 0, 0, THIRTY_DAYS);
+      List<MFAMessage> messages = copy(expected);
+      new MFAMessageView(RuntimeEnvironment.application).setMessages(expected);
+
+      final AtomicBoolean loaded = new AtomicBoolean();
+      _view.setMessagesAsync(messages, new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            loaded.set(true);
+         }
+      });
+      awaitLoad();
+
+      assertTrue(loaded.get());
+      assertSame(messages, _view.getMessageList());
+      for (int i = 0; i < COUNT; i++)
+      {
+         assertEquals(expected.get(i).getTimestamp(), messages.get(i).getTimestamp());
+         assertEquals(expected.get(i).getTimeVisible(), messages.get(i).getTimeVisible());
+         assertEquals(expected.get(i).getNameVisible(), messages.get(i).getNameVisible());
+      }
+   }
+
+   @Test
+   public void progressiveLoadShowsNewestPageFirst() throws InterruptedException
+   {
+      List<MFAMessage> expected = MFABenchmarkData.createConversation(COUNT, 0, 0, THIRTY_DAYS);
+      List<MFAMessage> messages = copy(expected);
+      new MFAMessageView(RuntimeEnvironment.application).setMessages(expected);
+
+      _view.setMessagesProgressively(messages, null);
+      List<MFAMessage> displayed = _view.getMessageList();
+      assertEquals(MFAMessageView.FIRST_PAGE_SIZE, displayed.size());
+      assertSame(messages.get(COUNT - 1), displayed.get(MFAMessageView.FIRST_PAGE_SIZE - 1));
+      assertTrue(_view.isLoadingMessages());
+      awaitLoad();
+
+      assertEquals(COUNT, displayed.size());
+      for (int i = 0; i < COUNT; i++)
+      {
+         assertSame(messages.get(i), displayed.get(i));
+         assertEquals(expected.get(i).getTimestamp(), messages.get(i).getTimestamp());
+         assertEquals(expected.get(i).getTimeVisible(), messages.get(i).getTimeVisible());
+         assertEquals(expected.get(i).getNameVisible(), messages.get(i).getNameVisible());
+      }
+   }
+
+   @Test
+   public void setMessagesCancelsLoad() throws InterruptedException
+   {
+      List<MFAMessage> latest = MFABenchmarkData.createConversation(10, 0, 0, THIRTY_DAYS);
+      _view.setMessagesAsync(MFABenchmarkData.createConversation(COUNT, 0, 0, THIRTY_DAYS), null);
+      _view.setMessages(latest);
+      assertFalse(_view.isLoadingMessages());
+
+      // Let the cancelled load finish, its result must be dropped
+      _executor.shutdown();
+      _executor.awaitTermination(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+      ShadowLooper.idleMainLooper();
+      assertSame(latest, _view.getMessageList());
+   }
+
+   @Test
+   public void failedLoadFallsBackToMainThread() throws InterruptedException
+   {
+      List<MFAMessage> expected = MFABenchmarkData.createConversation(COUNT, 0, 0, THIRTY_DAYS);
+      List<MFAMessage> messages = copy(expected);
+      // Fails like an out of memory worker would, but not when prepared on the main thread
+      MFAMessage failing = messages.get(COUNT / 2);
+      messages.set(COUNT / 2, new MFAMessage(failing.getUID(), failing.getName(), null, failing.getMessage(),
+            null, failing.getTimestamp(), failing.getIsSender())
+      {
+         @Override
+         public String getTimestamp()
+         {
+            if (Looper.myLooper() != Looper.getMainLooper()) throw new IllegalStateException("Worker failed");
+            return super.getTimestamp();
+         }
+      });
+      new MFAMessageView(RuntimeEnvironment.application).setMessages(expected);
+
+      final AtomicBoolean loaded = new AtomicBoolean();
+      ShadowLooper.pauseMainLooper();
+      _view.setMessagesAsync(messages, new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            loaded.set(true);
+         }
+      });
+      awaitLoad();
+
+      assertTrue(loaded.get());
+      assertSame(messages, _view.getMessageList());
+      for (int i = 0; i < COUNT; i++)
+      {
+         assertEquals(expected.get(i).getTimestamp(), messages.get(i).getTimestamp());
+         assertEquals(expected.get(i).getTimeVisible(), messages.get(i).getTimeVisible());
+      }
+   }
+
+   @Test
+   public void searchFollowsOlderMessages() throws InterruptedException
+   {
+      List<MFAMessage> messages = new ArrayList<>(COUNT);
+      for (int i = 0; i < COUNT; i++)
+      {
+         String text = (i % 7 == 0) ? "Lunch at " + i : "Message " + i;
+         messages.add(new MFAMessage(i, null, null, text, null, "", true));
+      }
+      // Otherwise chunks may be delivered on the worker thread while searching
+      ShadowLooper.pauseMainLooper();
+      _view.setMessagesProgressively(messages, null);
+      _view.search("lunch");
+      awaitLoad();
+
+      int[] positions = _view.getSearchMatchPositions();
+      assertEquals((COUNT + 6) / 7, positions.length);
+      for (int i = 0; i < positions.length; i++)
+      {
+         assertEquals(i * 7, positions[i]);
+      }
+   }
+
+   @Test
+   public void parsesSpansOfNewestMessages() throws InterruptedException
+   {
+      List<MFAMessage> messages = MFABenchmarkData.createConversation(COUNT, 0, 0, THIRTY_DAYS);
+      MFASpanProcessor processor = new MFASpanProcessor(new MFADefaultSpanParser(), SPAN_COUNT,
+            new MFASpanProcessor.Listener()
+      {
+         @Override
+         public void onSpansPrepared(MFAMessage message)
+         {
+         }
+      });
+      MFABulkLoader loader = new MFABulkLoader();
+      loader.setExecutor(_executor);
+      final AtomicBoolean loaded = new AtomicBoolean();
+      // Deliver the result when idling below, rather than on a worker thread
+      ShadowLooper.pauseMainLooper();
+      loader.load(messages, new MFAMessageGrouper(), _view.getSimpleDateFormat(), processor, SPAN_COUNT,
+            new MFABulkLoader.Callback()
+      {
+         @Override
+         public void onLoaded(List<MFAMessage> loadedMessages, MFAMessageGrouper grouper, boolean showProfileImg)
+         {
+            loaded.set(true);
+         }
+
+         @Override
+         public void onFailed(List<MFAMessage> loadedMessages, Throwable error)
+         {
+            throw new AssertionError(error);
+         }
+      });
+      long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+      while (!loaded.get() && System.currentTimeMillis() < deadline)
+      {
+         Thread.sleep(5);
+         ShadowLooper.idleMainLooper();
+      }
+      assertTrue("load didn't finish", loaded.get());
+
+      for (int i = COUNT - SPAN_COUNT; i < COUNT; i++)
+      {
+         assertNotNull("position " + i, processor.get(messages.get(i)));
+      }
+      // Older messages are parsed as they're bound
+      assertNull(processor.get(messages.get(COUNT - SPAN_COUNT - 1)));
+   }
+
+   private void awaitLoad() throws InterruptedException
+   {
+      long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+      while (_view.isLoadingMessages() && System.currentTimeMillis() < deadline)
+      {
+         Thread.sleep(5);
+         ShadowLooper.idleMainLooper();
+      }
+      assertFalse("load didn't finish", _view.isLoadingMessages());
+   }
+
+   private static List<MFAMessage> copy(List<MFAMessage> messages)
+   {
+      List<MFAMessage> copy = new ArrayList<>(messages.size());
+      for (MFAMessage message : messages)
+      {
+         copy.add(new MFAMessage(message.getUID(), message.getName(), message.getProfileImg(), message.getMessage(),
+               null, message.getTimestamp(), message.getIsSender()));
+      }
+      return copy;
+   }
+}
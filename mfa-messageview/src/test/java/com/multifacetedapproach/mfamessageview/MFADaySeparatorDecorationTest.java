@@ -0,0 +1,161 @@
+package com.multifacetedapproach.mfamessageview;
+
+import android.os.Build;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+import com.multifacetedapproach.mfamessageview.core.MFATimeFormatter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which messages MFADaySeparatorDecoration draws a separator above.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", sdk = Build.VERSION_CODES.O)
+public class MFADaySeparatorDecorationTest
+{
+   private static final long ONE_MINUTE = 60000;
+   // Size of the laid-out view, in pixels
+   private static final int WIDTH = 480;
+   private static final int HEIGHT = 800;
+
+   private final List<MFAMessage> _messages = new ArrayList<>();
+   private final List<Long> _times = new ArrayList<>();
+   private MFADaySeparatorDecoration _decoration;
+
+   @Before
+   public void setUp()
+   {
+      _decoration = new MFADaySeparatorDecoration(RuntimeEnvironment.application, new MFADaySeparatorDecoration.Source()
+      {
+         @Override
+         public MFAMessage getMessage(int position)
+         {
+            return (position >= 0 && position < _messages.size()) ? _messages.get(position) : null;
+         }
+
+         @Override
+         public long getTimeInMillis(int position)
+         {
+            return (position >= 0 && position < _times.size()) ? _times.get(position) : 0;
+         }
+      });
+   }
+
+   @Test
+   public void visibleTimesGetSeparators()
+   {
+      long start = todayAt(12, 0);
+      add(start, true);
+      add(start + 5 * ONE_MINUTE, false);
+      add(start + 20 * ONE_MINUTE, true);
+
+      assertTrue(_decoration.hasSeparator(0));
+      assertFalse(_decoration.hasSeparator(1));
+      assertTrue(_decoration.hasSeparator(2));
+   }
+
+   @Test
+   public void newDayGetsSeparator()
+   {
+      long midnight = todayAt(0, 0);
+      add(midnight - 2 * ONE_MINUTE, true);
+      // Within ten minutes, so the grouper hides its time, but it's a new day
+      add(midnight + 3 * ONE_MINUTE, false);
+      add(midnight + 4 * ONE_MINUTE, false);
+
+      assertTrue(_decoration.hasSeparator(0));
+      assertTrue(_decoration.hasSeparator(1));
+      assertFalse(_decoration.hasSeparator(2));
+   }
+
+   @Test
+   public void removingMessageMovesDayBoundary()
+   {
+      long midnight = todayAt(0, 0);
+      SimpleDateFormat sdf = new SimpleDateFormat(MFATimeFormatter.DEFAULT_TIMESTAMP_FORMAT, Locale.ENGLISH);
+      List<MFAMessage> messages = new ArrayList<>();
+      messages.add(new MFAMessage("Alex", "Before midnight", sdf.format(midnight - 5 * ONE_MINUTE), false));
+      messages.add(new MFAMessage("Alex", "Just after", sdf.format(midnight + ONE_MINUTE), false));
+      messages.add(new MFAMessage("Alex", "Later", sdf.format(midnight + 3 * ONE_MINUTE), false));
+      MFAMessageView view = new MFAMessageView(RuntimeEnvironment.application);
+      view.setMessages(messages);
+      layOut(view);
+      assertEquals(0, getTopOffset(view, 2));
+      final List<Integer> changed = new ArrayList<>();
+      view.getAdapter().registerAdapterDataObserver(new RecyclerView.AdapterDataObserver()
+      {
+         @Override
+         public void onItemRangeChanged(int positionStart, int itemCount, Object payload)
+         {
+            assertSame(MFAMessageAdapter.PAYLOAD_SEPARATOR, payload);
+            changed.add(positionStart);
+         }
+      });
+
+      // The last message now follows one from the previous day
+      view.removeMessageAtPosition(1);
+      assertEquals(Collections.singletonList(1), changed);
+      layOut(view);
+      assertEquals(_decoration.getSeparatorHeight(), getTopOffset(view, 1));
+   }
+
+   private static void layOut(MFAMessageView view)
+   {
+      view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+            View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+      view.layout(0, 0, WIDTH, HEIGHT);
+      ShadowLooper.idleMainLooper();
+   }
+
+   /**
+    * Helper method that returns the space reserved above a laid-out message.
+    * @param view laid-out view
+    * @param position adapter position of the message
+    * @return top decoration height of the message's cell, in pixels
+    */
+   private static int getTopOffset(MFAMessageView view, int position)
+   {
+      RecyclerView.ViewHolder holder = view.findViewHolderForAdapterPosition(position);
+      assertNotNull(holder);
+      return view.getLayoutManager().getTopDecorationHeight(holder.itemView);
+   }
+
+   private void add(long time, boolean timeVisible)
+   {
+      MFAMessage message = new MFAMessage("Alex", "Hello", "timestamp", false);
+      message.setTimeVisible(timeVisible);
+      _messages.add(message);
+      _times.add(time);
+   }
+
+   private static long todayAt(int hour, int minute)
+   {
+      Calendar calendar = Calendar.getInstance();
+      calendar.set(Calendar.HOUR_OF_DAY, hour);
+      calendar.set(Calendar.MINUTE, minute);
+      calendar.set(Calendar.SECOND, 0);
+      calendar.set(Calendar.MILLISECOND, 0);
+      return calendar.getTimeInMillis();
+   }
+}
@@ -0,0 +1,52 @@
+package com.multifacetedapproach.mfamessageview;
+
+import android.graphics.Bitmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cropping and rounding of message images, from thumbnails up to full camera
+ * resolution, in both orientations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MFAImageBenchmark
+{
+   // Width x height of the message image
+   @Param({"240x320", "320x240", "1080x1440", "4032x3024"})
+   public String size;
+
+   private MFAMessage _message;
+   private Bitmap _img;
+
+   @Setup
+   public void setUp()
+   {
+      String[] dimensions = size.split("x");
+      _img = MFABenchmarkData.createImage(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]));
+      _message = new MFAMessage(1, "Alex", null, "", _img, null, false);
+   }
+
+   @Benchmark
+   public Bitmap cropBitmapToSquare()
+   {
+      return MFAMessage.cropBitmapToSquare(_img);
+   }
+
+   @Benchmark
+   public Bitmap setCroppedMessageImg()
+   {
+      _message.setCroppedMessageImg(_img);
+      return _message.peekCroppedImg();
+   }
+}
@@ -0,0 +1,81 @@
+package com.multifacetedapproach.mfamessageview;
+
+import android.os.Build;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks which frames MFAJankDetector records and what it blames them on. Frame
+ * callbacks are made by hand, so the timings don't depend on the test machine.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = Build.VERSION_CODES.O)
+public class MFAJankDetectorTest
+{
+   private static final long NANOS_PER_MILLI = 1000000;
+
+   private MFAJankDetector _detector;
+   private long _frameTime;
+
+   @Before
+   public void setUp()
+   {
+      _detector = new MFAJankDetector(new MFAMessageView(RuntimeEnvironment.application));
+      // Start counting from a known frame
+      _frameTime = System.nanoTime();
+      _detector.doFrame(_frameTime);
+      _detector.reset();
+   }
+
+   @Test
+   public void framesWithinBudgetAreNotRecorded()
+   {
+      _detector.onViewHolderBound(2 * NANOS_PER_MILLI);
+      nextFrame(16 * NANOS_PER_MILLI);
+      nextFrame(17 * NANOS_PER_MILLI);
+
+      MFAJankReport report = _detector.getReport();
+      assertEquals(2, report.frameCount);
+      assertEquals(0, report.jankFrames.size());
+   }
+
+   @Test
+   public void jankyFramesAreBlamedOnTheSlowestSubsystem()
+   {
+      _detector.onViewHolderCreated(12 * NANOS_PER_MILLI);
+      _detector.onViewHolderBound(3 * NANOS_PER_MILLI);
+      _detector.onViewHolderBound(3 * NANOS_PER_MILLI);
+      nextFrame(33 * NANOS_PER_MILLI);
+      _detector.onGroupingPass(40 * NANOS_PER_MILLI);
+      nextFrame(50 * NANOS_PER_MILLI);
+      // Library work is well under the budget, so something else dropped this one
+      _detector.onViewHolderBound(NANOS_PER_MILLI);
+      nextFrame(50 * NANOS_PER_MILLI);
+
+      MFAJankReport report = _detector.getReport();
+      assertEquals(3, report.jankFrames.size());
+      MFAJankFrame first = report.jankFrames.get(0);
+      assertEquals(MFAJankFrame.CAUSE_INFLATION, first.cause);
+      assertEquals(1, first.inflations);
+      assertEquals(2, first.binds);
+      assertEquals(18 * NANOS_PER_MILLI, first.getLibraryNanos());
+      assertEquals(MFAJankFrame.CAUSE_GROUPING, report.jankFrames.get(1).cause);
+      assertEquals(MFAJankFrame.CAUSE_OTHER, report.jankFrames.get(2).cause);
+
+      _detector.reset();
+      assertEquals(0, _detector.getReport().frameCount);
+   }
+
+   private void nextFrame(long duration)
+   {
+      _frameTime += duration;
+      _detector.doFrame(_frameTime);
+   }
+}
@@ -0,0 +1,125 @@
+package com.multifacetedapproach.mfamessageview;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import com.multifacetedapproach.mfamessageview.Listeners.MFAMainThreadViolationListener;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which operations MFAMainThreadAuditor reports, using payload thresholds
+ * so the results don't depend on how fast the test machine is.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = Build.VERSION_CODES.O)
+public class MFAMainThreadAuditorTest
+{
+   private final List<MFAMainThreadViolation> _violations = new ArrayList<>();
+
+   @Before
+   public void setUp()
+   {
+      MFAMainThreadAuditor.setDurationThreshold(Long.MAX_VALUE / 1000000);
+      MFAMainThreadAuditor.setPayloadThreshold(100 * 100 * 4);
+      MFAMainThreadAuditor.setMessageCountThreshold(100);
+      MFAMainThreadAuditor.enable(new MFAMainThreadViolationListener()
+      {
+         @Override
+         public void onMainThreadViolation(MFAMainThreadViolation violation)
+         {
+            _violations.add(violation);
+         }
+      });
+   }
+
+   @After
+   public void tearDown()
+   {
+      MFAMainThreadAuditor.disable();
+      MFAMainThreadAuditor.setDurationThreshold(MFAMainThreadAuditor.DEFAULT_DURATION_THRESHOLD_MILLIS);
+      MFAMainThreadAuditor.setPayloadThreshold(MFAMainThreadAuditor.DEFAULT_PAYLOAD_THRESHOLD_BYTES);
+      MFAMainThreadAuditor.setMessageCountThreshold(MFAMainThreadAuditor.DEFAULT_MESSAGE_COUNT_THRESHOLD);
+   }
+
+   @Test
+   public void reportsLargeImagesOnTheMainThread()
+   {
+      MFAMessage small = new MFAMessage(1, null, null, "", MFABenchmarkData.createImage(64, 48), "", true);
+      small.writeToJSON();
+      small.getCroppedImg();
+      assertTrue(_violations.isEmpty());
+
+      MFAMessage large = new MFAMessage(2, null, null, "", MFABenchmarkData.createImage(320, 240), "", true);
+      JSONObject json = large.writeToJSON();
+      large.getCroppedImg();
+      assertEquals(2, _violations.size());
+      assertEquals(MFAMainThreadViolation.ENCODE_BASE64, _violations.get(0).operation);
+      assertEquals(320 * 240 * 4, _violations.get(0).payloadSize);
+      assertEquals(MFAMainThreadViolation.CROP_IMAGE, _violations.get(1).operation);
+      // The stack starts at the audited operation
+      assertEquals("setCroppedMessageImg", _violations.get(1).stack.getStackTrace()[0].getMethodName());
+      assertTrue(json.length() > 0);
+   }
+
+   @Test
+   public void reportsDecodedSizeOfImages()
+   {
+      JSONObject json = new MFAMessage(1, null, null, "", MFABenchmarkData.createImage(320, 240), "", true).writeToJSON();
+      // Robolectric doesn't really decode images, so report every decode and check its size is what was decoded
+      MFAMainThreadAuditor.setPayloadThreshold(1);
+      _violations.clear();
+
+      Bitmap decoded = new MFAMessage(json).getMessageImg();
+      assertEquals(1, _violations.size());
+      assertEquals(MFAMainThreadViolation.DECODE_BASE64, _violations.get(0).operation);
+      assertEquals(decoded.getByteCount(), _violations.get(0).payloadSize);
+   }
+
+   @Test
+   public void reportsLargeSetMessages()
+   {
+      MFAMessageView view = new MFAMessageView(RuntimeEnvironment.application);
+      view.setMessages(MFABenchmarkData.createConversation(50, 0, 0, 60000));
+      assertTrue(_violations.isEmpty());
+
+      view.setMessages(MFABenchmarkData.createConversation(150, 0, 0, 60000));
+      assertEquals(1, _violations.size());
+      assertEquals(MFAMainThreadViolation.SET_MESSAGES, _violations.get(0).operation);
+      assertEquals(150, _violations.get(0).payloadSize);
+   }
+
+   @Test
+   public void ignoresWorkerThreadsAndDisabledAuditing() throws InterruptedException
+   {
+      final MFAMessage message = new MFAMessage(1, null, null, "", MFABenchmarkData.createImage(320, 240), "", true);
+      Thread worker = new Thread(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            message.getCroppedImg();
+         }
+      });
+      worker.start();
+      worker.join();
+      assertTrue(_violations.isEmpty());
+
+      MFAMainThreadAuditor.disable();
+      message.writeToJSON();
+      assertTrue(_violations.isEmpty());
+   }
+}
@@ -0,0 +1,245 @@
+package com.multifacetedapproach.mfamessageview;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.v7.widget.LinearLayoutManager;
+import android.view.View;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which images MFAMemoryGovernor drops and that they can be prepared
+ * again. Most tests don't lay out the view, so no message counts as near the
+ * viewport; the laid-out ones bind images through the adapter and check that
+ * the messages near the viewport and the images cells still show are kept.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", sdk = Build.VERSION_CODES.O)
+public class MFAMemoryGovernorTest
+{
+   private static final int COUNT = 5;
+   // Messages and margin used by the laid-out tests
+   private static final int LAID_OUT_COUNT = 40;
+   private static final int MARGIN = 2;
+   private static final int WIDTH = 480;
+   private static final int HEIGHT = 800;
+
+   private MFAMessageView _view;
+   private List<MFAMessage> _messages;
+   private MFAMemoryGovernor _governor;
+
+   @Before
+   public void setUp() throws JSONException
+   {
+      _view = new MFAMessageView(RuntimeEnvironment.application);
+      _messages = new ArrayList<>();
+      for (int i = 0; i < COUNT; i++)
+      {
+         MFAMessage original = new MFAMessage(i, "Alex", null, "", MFABenchmarkData.createImage(320, 240), "", false);
+         // Restored messages keep their compressed image, so the message image can be dropped too
+         _messages.add(new MFAMessage(original.writeToJSON()));
+      }
+      _view.setMessages(_messages);
+      _governor = new MFAMemoryGovernor(_view, Long.MAX_VALUE);
+   }
+
+   @Test
+   public void dropsLeastRecentlyBoundImagesOverBudget()
+   {
+      long bytesPerMessage = bindAll();
+      _governor.setBudget(2 * bytesPerMessage);
+
+      for (int i = 0; i < COUNT - 2; i++)
+      {
+         MFAMessage message = _messages.get(i);
+         assertNull(message.peekCroppedImg());
+         assertNull(message.peekMessageImg());
+         assertTrue(message.hasMessageImg());
+      }
+      for (int i = COUNT - 2; i < COUNT; i++)
+      {
+         assertNotNull(_messages.get(i).peekCroppedImg());
+      }
+      assertEquals(2 * bytesPerMessage, _governor.getHeldBytes());
+   }
+
+   @Test
+   public void droppedImagesArePreparedAgain() throws JSONException
+   {
+      bindAll();
+      _governor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+      assertEquals(0, _governor.getHeldBytes());
+
+      MFAMessage message = _messages.get(0);
+      assertNull(message.peekMessageImg());
+      // Serializing doesn't need the image decoded
+      assertFalse(message.writeToJSON().getString("messageImg").isEmpty());
+      assertNull(message.peekMessageImg());
+
+      Bitmap cropped = message.prepareCroppedImg();
+      assertNotNull(cropped);
+      assertNotNull(message.peekMessageImg());
+   }
+
+   @Test
+   public void keepsMessageImagesThatCannotBeDecodedAgain()
+   {
+      MFAMessage message = new MFAMessage(9, null, null, "", MFABenchmarkData.createImage(320, 240), "", true);
+      message.prepareCroppedImg();
+      _governor.onImageBound(message);
+      _governor.onLowMemory();
+
+      assertNull(message.peekCroppedImg());
+      assertNotNull(message.peekMessageImg());
+   }
+
+   @Test
+   public void laidOutViewKeepsImagesNearViewport() throws JSONException
+   {
+      MFAMessageView view = createLaidOutView();
+      List<MFAMessage> messages = view.getMessageList();
+      boolean[] prepared = new boolean[messages.size()];
+      for (int i = 0; i < messages.size(); i++)
+      {
+         prepared[i] = messages.get(i).peekCroppedImg() != null;
+      }
+      view.setImageMemoryBudget(0);
+
+      LinearLayoutManager llm = (LinearLayoutManager) view.getLayoutManager();
+      int first = llm.findFirstVisibleItemPosition() - MARGIN;
+      int last = llm.findLastVisibleItemPosition() + MARGIN;
+      int shed = 0;
+      for (int i = 0; i < messages.size(); i++)
+      {
+         MFAMessage message = messages.get(i);
+         if (i >= first && i <= last)
+         {
+            assertEquals("position " + i, prepared[i], message.peekCroppedImg() != null);
+         }
+         else if (message.boundHolders > 0)
+         {
+            // Still shown by a cached cell, dropping it would free nothing
+            assertNotNull("position " + i, message.peekCroppedImg());
+         }
+         else if (message.peekCroppedImg() == null)
+         {
+            shed++;
+         }
+      }
+      // The messages bound at the top before scrolling to the bottom were shed
+      assertTrue(shed > 0);
+      assertAttachedCellsShowMessageImages(view);
+   }
+
+   @Test
+   public void lowMemoryReleasesOffscreenCells() throws JSONException
+   {
+      MFAMessageView view = createLaidOutView();
+      view.getMemoryGovernor().onLowMemory();
+
+      List<MFAMessage> messages = view.getMessageList();
+      LinearLayoutManager llm = (LinearLayoutManager) view.getLayoutManager();
+      int first = llm.findFirstVisibleItemPosition() - MARGIN;
+      for (int i = 0; i < first; i++)
+      {
+         MFAMessage message = messages.get(i);
+         assertEquals("position " + i, 0, message.boundHolders);
+         assertNull("position " + i, message.peekCroppedImg());
+      }
+      int viewType = view.getChildViewHolder(view.getChildAt(0)).getItemViewType();
+      assertNull(view.getRecycledViewPool().getRecycledView(viewType));
+      assertAttachedCellsShowMessageImages(view);
+   }
+
+   /**
+    * Helper method that lays out a view of restored image messages at the top,
+    * then scrolls it to the bottom, so the cells bound at the top are cached or
+    * recycled.
+    * @return laid-out view, with its memory governor enabled
+    */
+   private MFAMessageView createLaidOutView() throws JSONException
+   {
+      MFAMessageView view = new MFAMessageView(RuntimeEnvironment.application);
+      // Prepare images as soon as they're scheduled
+      view.setImageExecutor(new Executor()
+      {
+         @Override
+         public void execute(Runnable command)
+         {
+            command.run();
+         }
+      });
+      view.setMemoryGovernorEnabled(true);
+      view.setImageMemoryMargin(MARGIN);
+      List<MFAMessage> messages = new ArrayList<>();
+      for (int i = 0; i < LAID_OUT_COUNT; i++)
+      {
+         MFAMessage original = new MFAMessage(i, "Alex", null, "", MFABenchmarkData.createImage(320, 240), "", false);
+         messages.add(new MFAMessage(original.writeToJSON()));
+      }
+      view.setMessages(messages);
+      layOut(view);
+      assertTrue(messages.get(0).boundHolders > 0);
+      view.scrollToPosition(LAID_OUT_COUNT - 1);
+      layOut(view);
+      assertTrue(messages.get(LAID_OUT_COUNT - 1).boundHolders > 0);
+      return view;
+   }
+
+   private static void layOut(MFAMessageView view)
+   {
+      view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+            View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+      view.layout(0, 0, WIDTH, HEIGHT);
+      ShadowLooper.idleMainLooper();
+   }
+
+   /**
+    * Helper method that checks every attached cell shows its message's current
+    * cropped image, rather than one that was dropped.
+    * @param view laid-out view
+    */
+   private static void assertAttachedCellsShowMessageImages(MFAMessageView view)
+   {
+      for (int i = 0; i < view.getChildCount(); i++)
+      {
+         MFAMessageAdapter.ViewHolder holder = (MFAMessageAdapter.ViewHolder) view.getChildViewHolder(view.getChildAt(i));
+         MFAMessage message = view.getMessageList().get(holder.getAdapterPosition());
+         assertNotNull(holder.boundMessageImg);
+         assertTrue(holder.boundMessageImg == message.peekCroppedImg());
+      }
+   }
+
+   /**
+    * Helper method that prepares and binds every message's image, oldest first.
+    * @return bytes held per message
+    */
+   private long bindAll()
+   {
+      for (MFAMessage message : _messages)
+      {
+         message.prepareCroppedImg();
+         _governor.onImageBound(message);
+      }
+      assertEquals(0, _governor.getHeldBytes() % COUNT);
+      return _governor.getHeldBytes() / COUNT;
+   }
+}
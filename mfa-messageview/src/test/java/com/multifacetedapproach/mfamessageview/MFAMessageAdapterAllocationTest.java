@@ -0,0 +1,350 @@
+package com.multifacetedapproach.mfamessageview;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.view.View;
+import android.widget.FrameLayout;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Counts the bytes allocated by MFAMessageAdapter per getItemViewType, per
+ * rebind of unchanged content and per bind of a recycled holder to a different
+ * message, for all four view types with both the XML and the flat cells. These
+ * run for every visible cell on every scroll frame and every change
+ * notification, so any garbage fails the build.
+ * <p>
+ * When a holder is bound to a different message, TextView.setText and
+ * ImageView.setImageBitmap allocate internally however they're called, and
+ * under Robolectric so do View.requestLayout and View.invalidate. So the XML
+ * cells' text and image views are swapped for ones that only record what
+ * they're given, and flat cells for ones that skip requestLayout and
+ * invalidate. Everything else the adapter and the flat cell do is measured.
+ * Laying the new content out is left to measure and draw.
+ * <p>
+ * Spans are looked up on every bind of a recycled holder too, so that's
+ * measured with a span parser set and UIDs too large for Long's cache of boxed
+ * values.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", sdk = Build.VERSION_CODES.O)
+public class MFAMessageAdapterAllocationTest
+{
+   // Number of view types, each with two messages in _messages
+   private static final int VIEW_TYPES = 4;
+   // Iterations run before measuring, so the JIT has settled
+   private static final int WARM_UP = 20000;
+   private static final int MEASURED = 20000;
+
+   private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+         (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+   // UID of the first message when testing with a span parser, well outside Long's cache
+   private static final long LARGE_UID = 1000001;
+
+   private List<MFAMessage> _messages;
+   private MFAMessageAdapter _adapter;
+   private FrameLayout _parent;
+   // Span processor given to the adapter, or null if it has none
+   private MFASpanProcessor _spanProcessor;
+
+   @Before
+   public void setUp()
+   {
+      _messages = new ArrayList<>();
+      addMessages(1);
+      _adapter = new MFAMessageAdapter(RuntimeEnvironment.application, _messages);
+      _adapter.showProfileImg(true);
+      _parent = new FrameLayout(RuntimeEnvironment.application);
+   }
+
+   @Test
+   public void getItemViewTypeAllocatesNothing()
+   {
+      Runnable getItemViewType = new Runnable()
+      {
+         private int _position;
+
+         @Override
+         public void run()
+         {
+            _adapter.getItemViewType(_position);
+            _position = (_position + 1) % _messages.size();
+         }
+      };
+      assertAllocationFree("getItemViewType", getItemViewType);
+   }
+
+   @Test
+   public void rebindAllocatesNothing()
+   {
+      assertRebindAllocationFree();
+   }
+
+   @Test
+   public void flatCellRebindAllocatesNothing()
+   {
+      _adapter.setUseFlatCells(true);
+      assertRebindAllocationFree();
+   }
+
+   @Test
+   public void recycledBindAllocatesNothing()
+   {
+      assertRecycledBindAllocationFree();
+   }
+
+   @Test
+   public void flatCellRecycledBindAllocatesNothing()
+   {
+      _adapter.setUseFlatCells(true);
+      assertRecycledBindAllocationFree();
+   }
+
+   @Test
+   public void recycledBindWithSpansAllocatesNothing()
+   {
+      useSpanParser();
+      assertRecycledBindAllocationFree();
+   }
+
+   @Test
+   public void flatCellRecycledBindWithSpansAllocatesNothing()
+   {
+      _adapter.setUseFlatCells(true);
+      useSpanParser();
+      assertRecycledBindAllocationFree();
+   }
+
+   /**
+    * Helper method that adds two messages of each view type, in the same order.
+    * @param firstUid UID of the first message, the rest following on from it
+    */
+   private void addMessages(long firstUid)
+   {
+      Bitmap profileImg = MFABenchmarkData.createImage(96, 96);
+      long uid = firstUid;
+      _messages.add(new MFAMessage(uid++, null, null, "On my way", null, "Today 9:05 AM", true));
+      _messages.add(new MFAMessage(uid++, "Alex", profileImg, "See you there", null, "Today 9:06 AM", false));
+      _messages.add(new MFAMessage(uid++, null, null, "", MFABenchmarkData.createImage(320, 240), "Today 9:07 AM", true));
+      _messages.add(new MFAMessage(uid++, "Alex", profileImg, "", MFABenchmarkData.createImage(240, 320), "Today 9:08 AM", false));
+      // A second message of each view type, for binding recycled holders
+      _messages.add(new MFAMessage(uid++, null, null, "Running late", null, "Today 9:15 AM", true));
+      _messages.add(new MFAMessage(uid++, "Sam", profileImg, "No worries", null, "Today 9:16 AM", false));
+      _messages.add(new MFAMessage(uid++, null, null, "", MFABenchmarkData.createImage(320, 240), "Today 9:17 AM", true));
+      _messages.add(new MFAMessage(uid, "Sam", profileImg, "", MFABenchmarkData.createImage(240, 320), "Today 9:18 AM", false));
+   }
+
+   /**
+    * Helper method that swaps the messages for ones with large UIDs and gives the
+    * adapter a span processor with all their spans already parsed.
+    */
+   private void useSpanParser()
+   {
+      _messages.clear();
+      addMessages(LARGE_UID);
+      _spanProcessor = new MFASpanProcessor(new MFADefaultSpanParser(),
+            MFASpanProcessor.DEFAULT_CACHE_SIZE, new MFASpanProcessor.Listener()
+      {
+         @Override
+         public void onSpansPrepared(MFAMessage message)
+         {
+         }
+      });
+      for (MFAMessage message : _messages)
+      {
+         _spanProcessor.put(message, message.getMessage(), _spanProcessor.parse(message.getMessage()));
+      }
+      _adapter.setSpanProcessor(_spanProcessor);
+   }
+
+   /**
+    * Helper method that binds each message to a holder of its view type once, then
+    * checks rebinding them allocates nothing.
+    */
+   private void assertRebindAllocationFree()
+   {
+      for (int i = 0; i < VIEW_TYPES; i++)
+      {
+         final int position = i;
+         final MFAMessageAdapter.ViewHolder holder = _adapter.createViewHolder(_parent, _adapter.getItemViewType(position));
+         Runnable bind = new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               _adapter.bindViewHolder(holder, position);
+            }
+         };
+         assertAllocationFree("onBindViewHolder for view type " + holder.getItemViewType(), bind);
+      }
+   }
+
+   /**
+    * Helper method that binds a holder of each view type alternately to two
+    * different messages, as happens to recycled holders while scrolling, and
+    * checks doing so allocates nothing.
+    */
+   private void assertRecycledBindAllocationFree()
+   {
+      for (int i = 0; i < VIEW_TYPES; i++)
+      {
+         final int[] positions = { i, i + VIEW_TYPES };
+         final MFAMessageAdapter.ViewHolder holder = _adapter.createViewHolder(_parent, _adapter.getItemViewType(i));
+         replaceFrameworkViews(holder);
+         Runnable bind = new Runnable()
+         {
+            private int _next;
+
+            @Override
+            public void run()
+            {
+               _adapter.bindViewHolder(holder, positions[_next]);
+               _next = 1 - _next;
+            }
+         };
+         assertAllocationFree("onBindViewHolder of a recycled holder for view type " + holder.getItemViewType(), bind);
+         // Make sure the holder really was shown the other message each time
+         assertShows(holder, _messages.get(positions[1]));
+         bind.run();
+         assertShows(holder, _messages.get(positions[0]));
+      }
+   }
+
+   /**
+    * Helper method that swaps a holder's views for ones that record what they're
+    * given without the framework's own allocations.
+    * @param holder holder to swap the views of
+    */
+   private static void replaceFrameworkViews(MFAMessageAdapter.ViewHolder holder)
+   {
+      int viewType = holder.getItemViewType();
+      if (holder.cell != null)
+      {
+         holder.cell = new QuietCellView(MFAMessageAdapter.isSentViewType(viewType),
+               MFAMessageAdapter.isImageViewType(viewType));
+         return;
+      }
+      holder.message = replace(holder.message, new RecordingTextView());
+      holder.name = replace(holder.name, new RecordingTextView());
+      holder.messageImg = replace(holder.messageImg, new RecordingImageView());
+      holder.profileImg = replace(holder.profileImg, new RecordingImageView());
+   }
+
+   private static <V extends View> V replace(View original, V replacement)
+   {
+      replacement.setLayoutParams(original.getLayoutParams());
+      replacement.setVisibility(original.getVisibility());
+      return replacement;
+   }
+
+   private void assertShows(MFAMessageAdapter.ViewHolder holder, MFAMessage message)
+   {
+      if (MFAMessageAdapter.isImageViewType(holder.getItemViewType()))
+      {
+         assertSame(message.peekCroppedImg(), holder.boundMessageImg);
+      }
+      else if (holder.cell == null)
+      {
+         CharSequence text = (_spanProcessor != null) ? _spanProcessor.get(message) : message.getMessage();
+         assertSame(text, ((RecordingTextView) holder.message).text);
+      }
+   }
+
+   private static void assertAllocationFree(String operation, Runnable runnable)
+   {
+      for (int i = 0; i < WARM_UP; i++)
+      {
+         runnable.run();
+      }
+      // Reading the counter may allocate itself, so measure that first
+      long overhead = -allocatedBytes() + allocatedBytes();
+      long before = allocatedBytes();
+      for (int i = 0; i < MEASURED; i++)
+      {
+         runnable.run();
+      }
+      long allocated = allocatedBytes() - before - overhead;
+      // Less than a byte per call on average: anything allocated per call is at least 16 bytes
+      assertTrue(operation + " allocated " + allocated + " bytes over " + MEASURED + " calls",
+            allocated < MEASURED);
+   }
+
+   private static long allocatedBytes()
+   {
+      return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+   }
+
+   /**
+    * Flat cell that skips requesting layout and redrawing.
+    */
+   private static class QuietCellView extends MFAMessageCellView
+   {
+      QuietCellView(boolean isSender, boolean isImage)
+      {
+         super(RuntimeEnvironment.application, isSender, isImage);
+      }
+
+      @Override
+      public void requestLayout()
+      {
+      }
+
+      @Override
+      public void invalidate()
+      {
+      }
+   }
+
+   /**
+    * TextView that only records the text it's given.
+    */
+   private static class RecordingTextView extends TextView
+   {
+      CharSequence text;
+
+      RecordingTextView()
+      {
+         super(RuntimeEnvironment.application);
+      }
+
+      @Override
+      public void setText(CharSequence text, BufferType type)
+      {
+         this.text = text;
+      }
+   }
+
+   /**
+    * ImageView that only records the bitmap it's given.
+    */
+   private static class RecordingImageView extends ImageView
+   {
+      Bitmap bitmap;
+
+      RecordingImageView()
+      {
+         super(RuntimeEnvironment.application);
+      }
+
+      @Override
+      public void setImageBitmap(Bitmap bitmap)
+      {
+         this.bitmap = bitmap;
+      }
+   }
+}
@@ -0,0 +1,94 @@
+package com.multifacetedapproach.mfamessageview;
+
+import android.graphics.Typeface;
+import android.os.Build;
+import android.text.Spanned;
+import android.text.style.BackgroundColorSpan;
+import android.widget.FrameLayout;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how MFAMessageAdapter binds holders that were created or last bound
+ * elsewhere, e.g. by another adapter sharing a RecycledViewPool.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", sdk = Build.VERSION_CODES.O)
+public class MFAMessageAdapterTest
+{
+   private List<MFAMessage> _messages;
+   private MFAMessageAdapter _adapter;
+   private FrameLayout _parent;
+
+   @Before
+   public void setUp()
+   {
+      _messages = new ArrayList<>();
+      _messages.add(new MFAMessage(1, null, null, "On my way", null, "Today 9:05 AM", true));
+      _messages.add(new MFAMessage(2, "Alex", null, "See you there", null, "Today 9:06 AM", false));
+      _messages.add(new MFAMessage(3, "Alex", null, "", MFABenchmarkData.createImage(320, 240), "Today 9:07 AM", false));
+      _adapter = new MFAMessageAdapter(RuntimeEnvironment.application, _messages);
+      _parent = new FrameLayout(RuntimeEnvironment.application);
+   }
+
+   @Test
+   public void sharedHolderDropsOtherViewsFont()
+   {
+      Typeface serif = Typeface.create(Typeface.SERIF, Typeface.BOLD);
+      MFAMessageAdapter sibling = new MFAMessageAdapter(RuntimeEnvironment.application, _messages);
+      sibling.setCustomFont(serif);
+      MFAMessageAdapter.ViewHolder holder = sibling.createViewHolder(_parent, _adapter.getItemViewType(1));
+      sibling.bindViewHolder(holder, 1);
+      assertSame(serif, holder.message.getTypeface());
+
+      _adapter.bindViewHolder(holder, 1);
+
+      assertEquals(Typeface.DEFAULT, holder.message.getTypeface());
+      assertEquals(Typeface.DEFAULT, holder.name.getTypeface());
+   }
+
+   @Test
+   public void imagePlaceholderReservesSquare()
+   {
+      _adapter.setImageScheduler(new MFAImageScheduler());
+      _adapter.setDeferImageWork(true);
+      MFAMessageAdapter.ViewHolder holder = _adapter.createViewHolder(_parent, _adapter.getItemViewType(2));
+      _adapter.bindViewHolder(holder, 2);
+      int width = holder.messageImg.getLayoutParams().width;
+      assertTrue(width > 0);
+      assertEquals(width, holder.messageImg.getMinimumHeight());
+
+      _adapter.onImagePrepared(holder, _messages.get(2), _messages.get(2).prepareCroppedImg());
+      assertEquals(0, holder.messageImg.getMinimumHeight());
+   }
+
+   @Test
+   public void highlightPayloadOnlyRebindsText()
+   {
+      MFAMessageAdapter.ViewHolder holder = _adapter.createViewHolder(_parent, _adapter.getItemViewType(1));
+      _adapter.bindViewHolder(holder, 1);
+      // Only shown once the holder is fully rebound
+      _messages.get(1).name = "Sam";
+
+      _adapter.setHighlightQuery("there");
+      _adapter.onBindViewHolder(holder, 1, Collections.singletonList(MFAMessageAdapter.PAYLOAD_HIGHLIGHTS));
+
+      CharSequence text = holder.message.getText();
+      assertTrue(text instanceof Spanned);
+      assertEquals(1, ((Spanned) text).getSpans(0, text.length(), BackgroundColorSpan.class).length);
+      assertEquals("Alex", holder.name.getText().toString());
+   }
+}
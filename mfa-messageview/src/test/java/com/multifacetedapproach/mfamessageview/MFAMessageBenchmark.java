@@ -0,0 +1,104 @@
+package com.multifacetedapproach.mfamessageview;
+
+import android.os.Parcel;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of MFAMessage to and from Parcels and JSON. Each operation
+ * handles one message, cycling through a conversation with the given share of
+ * photos, so results are per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MFAMessageBenchmark
+{
+   private static final int CONVERSATION_SIZE = 64;
+   private static final long ONE_WEEK = 7L * 24 * 60 * 60 * 1000;
+
+   // Percentage of messages that are photos
+   @Param({"0", "20", "100"})
+   public int imagePercent;
+   // Short side of each photo in pixels
+   @Param({"256", "1024"})
+   public int imageSize;
+
+   private MFAMessage[] _messages;
+   private JSONObject[] _json;
+   private Parcel[] _parcels;
+   private int _next;
+
+   @Setup
+   public void setUp()
+   {
+      List<MFAMessage> conversation = MFABenchmarkData.createConversation(CONVERSATION_SIZE, imagePercent, imageSize, ONE_WEEK);
+      _messages = conversation.toArray(new MFAMessage[CONVERSATION_SIZE]);
+      _json = new JSONObject[CONVERSATION_SIZE];
+      _parcels = new Parcel[CONVERSATION_SIZE];
+      for (int i = 0; i < CONVERSATION_SIZE; i++)
+      {
+         _json[i] = _messages[i].writeToJSON();
+         _parcels[i] = Parcel.obtain();
+         _messages[i].writeToParcel(_parcels[i], 0);
+      }
+   }
+
+   @TearDown
+   public void tearDown()
+   {
+      for (Parcel parcel : _parcels)
+      {
+         parcel.recycle();
+      }
+   }
+
+   private int next()
+   {
+      int i = _next;
+      _next = (i + 1 == CONVERSATION_SIZE) ? 0 : i + 1;
+      return i;
+   }
+
+   @Benchmark
+   public int writeToParcel()
+   {
+      Parcel parcel = Parcel.obtain();
+      _messages[next()].writeToParcel(parcel, 0);
+      int size = parcel.dataSize();
+      parcel.recycle();
+      return size;
+   }
+
+   @Benchmark
+   public MFAMessage readFromParcel()
+   {
+      Parcel parcel = _parcels[next()];
+      parcel.setDataPosition(0);
+      return new MFAMessage(parcel);
+   }
+
+   @Benchmark
+   public JSONObject writeToJSON()
+   {
+      return _messages[next()].writeToJSON();
+   }
+
+   @Benchmark
+   public MFAMessage readFromJSON()
+   {
+      return new MFAMessage(_json[next()]);
+   }
+}
@@ -0,0 +1,122 @@
+package com.multifacetedapproach.mfamessageview;
+
+import android.os.Build;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks MFAMessageStore finds persisted messages by prefix, most recent first,
+ * loads the messages around a hit in order, and refuses messages it can't order.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = Build.VERSION_CODES.O)
+public class MFAMessageStoreTest
+{
+   private MFAMessageStore _store;
+
+   @Before
+   public void setUp()
+   {
+      _store = new MFAMessageStore(RuntimeEnvironment.application, null);
+      List<MFAMessage> work = new ArrayList<>();
+      for (int i = 0; i < 10; i++)
+      {
+         String text = (i % 3 == 0) ? "Standup moved to " + (9 + i) : "Message " + i;
+         work.add(new MFAMessage(i + 1, (i % 2 == 0) ? null : "Alex", null, text, null, timestamp(i), i % 2 == 0));
+      }
+      _store.persist("work", work);
+      _store.persist("family", new MFAMessage(1, "Sam", null, "Standing in line", null, timestamp(20), false));
+   }
+
+   @After
+   public void tearDown()
+   {
+      _store.close();
+   }
+
+   @Test
+   public void searchesEveryConversationMostRecentFirst()
+   {
+      List<MFASearchHit> hits = _store.search("STAND", 10);
+      assertEquals(5, hits.size());
+      assertEquals("family", hits.get(0).conversation);
+      assertEquals(10, hits.get(1).uid);
+      assertEquals(1, hits.get(4).uid);
+      assertTrue(hits.get(1).timeInMillis > hits.get(2).timeInMillis);
+
+      assertEquals(4, _store.search("work", "standup", 10).size());
+      assertEquals(1, _store.search("standup moved 15", 10).size());
+      assertEquals(2, _store.search("stand", 2).size());
+      assertTrue(_store.search("  ", 10).isEmpty());
+   }
+
+   @Test
+   public void persistingAgainReplacesMessagesWithTheSameUid()
+   {
+      _store.persist("work", new MFAMessage(4, "Alex", null, "Cancelled", null, timestamp(3), true));
+      assertEquals(3, _store.search("work", "standup", 10).size());
+      assertEquals(1, _store.search("cancel", 10).size());
+
+      assertTrue(_store.remove("work", 4));
+      assertTrue(_store.search("cancel", 10).isEmpty());
+      assertEquals(9, _store.removeConversation("work"));
+      assertEquals(1, _store.search("stand", 10).size());
+   }
+
+   @Test
+   public void skipsMessagesWhoseTimestampsDontParse()
+   {
+      // MFAMessageView has already replaced this one's timestamp with display text
+      MFAMessage displayed = new MFAMessage(11, "Alex", null, "Standup cancelled", null, "Today 4:05 PM", false);
+      assertFalse(_store.persist("work", displayed));
+      List<MFAMessage> messages = new ArrayList<>();
+      messages.add(displayed);
+      messages.add(new MFAMessage(12, "Alex", null, "Standup tomorrow", null, timestamp(30), false));
+      assertEquals(1, _store.persist("work", messages));
+
+      List<MFASearchHit> hits = _store.search("work", "standup", 10);
+      assertEquals(5, hits.size());
+      assertEquals(12, hits.get(0).uid);
+   }
+
+   @Test
+   public void loadsTheWindowAroundAHit()
+   {
+      MFASearchHit hit = _store.search("work", "15", 10).get(0);
+      List<MFAMessage> window = new ArrayList<>();
+      int position = _store.loadWindow(hit, 2, 3, window);
+
+      assertEquals(2, position);
+      assertEquals(6, window.size());
+      for (int i = 0; i < window.size(); i++)
+      {
+         assertEquals(5 + i, window.get(i).getUID());
+      }
+      assertEquals("Standup moved to 15", window.get(position).getMessage());
+      assertEquals(timestamp(6), window.get(position).getTimestamp());
+      assertNull(window.get(position).getName());
+      assertNull(window.get(position).getProfileImg());
+
+      _store.remove("work", hit.uid);
+      assertEquals(-1, _store.loadWindow(hit, 2, 3, new ArrayList<MFAMessage>()));
+   }
+
+   private static String timestamp(int minute)
+   {
+      return String.format("2017-03-01T10:%02d:00.000Z", minute);
+   }
+}
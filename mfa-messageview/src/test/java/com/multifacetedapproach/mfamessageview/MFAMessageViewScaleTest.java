@@ -0,0 +1,211 @@
+package com.multifacetedapproach.mfamessageview;
+
+import android.os.Build;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives MFAMessageView with synthetic conversations of 10k, 100k and 1M
+ * messages and fails when an operation exceeds its wall time or retained heap
+ * budget. Operations on a single message have a fixed budget whatever the size
+ * of the conversation, and bulk operations have a fixed budget per message, so
+ * anything that repeats work across the whole conversation fails at the larger
+ * sizes long before it would be noticed by hand.
+ * <p>
+ * Every operation is warmed up before it's timed, and the budgets are several
+ * times the slowest run measured on a single core machine, so the suite isn't
+ * flaky on a loaded build machine. The view isn't attached or laid out: this
+ * measures MFAMessageView's own bookkeeping, not RecyclerView layout.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = Build.VERSION_CODES.O)
+public class MFAMessageViewScaleTest
+{
+   private static final long NANOS_PER_MILLI = 1000000;
+   private static final long THIRTY_DAYS = 30L * 24 * 60 * 60 * 1000;
+   // Budget for setMessages, plus a share per message. It takes 2 to 18us per message,
+   // the most at 10k where a single call of up to 460ms was seen, so it gets room for
+   // a GC pause as well.
+   private static final long SET_MESSAGES_NANOS = 1000 * NANOS_PER_MILLI;
+   private static final long SET_MESSAGES_NANOS_PER_MESSAGE = 20000;
+   // Budget for addMessage, regardless of the size of the conversation. It takes 25 to
+   // 135us at every size measured.
+   private static final long ADD_MESSAGE_NANOS = NANOS_PER_MILLI;
+   // Budget for removing the newest message, regardless of the size of the conversation.
+   // Nothing moves, so it takes under 40us at every size, and any work repeated for every
+   // message on each remove fails here.
+   private static final long REMOVE_NEWEST_NANOS = NANOS_PER_MILLI / 2;
+   // Budget for removing the oldest message, plus a share per message in the conversation.
+   // Everything behind it is shifted along the list and grouper arrays, which takes up to
+   // 0.3ms at 10k and 100k messages and 1.1 to 2.8ms at 1M, about 3ns per message.
+   private static final long REMOVE_OLDEST_NANOS = NANOS_PER_MILLI;
+   private static final long REMOVE_OLDEST_NANOS_PER_MESSAGE = 10;
+   // Budget for clearing, plus a share per message in the conversation. Clearing is timed
+   // as a single call, so it gets room for a GC pause.
+   private static final long CLEAR_NANOS = 20 * NANOS_PER_MILLI;
+   private static final long CLEAR_NANOS_PER_MESSAGE = 20;
+   // Heap MFAMessageView may retain per message while displaying them
+   private static final long RETAINED_BYTES_PER_MESSAGE = 64;
+   // Heap MFAMessageView may retain once cleared, on top of its caller's list
+   private static final long RETAINED_BYTES_AFTER_CLEAR = 1024 * 1024;
+   // Number of times the single message operations are repeated
+   private static final int REPEAT = 200;
+   // Number of messages the operations are warmed up with
+   private static final int WARM_UP_SIZE = 10000;
+
+   @ParameterizedRobolectricTestRunner.Parameters(name = "{0} messages")
+   public static Collection<Object[]> sizes()
+   {
+      return Arrays.asList(new Object[][] {{10000}, {100000}, {1000000}});
+   }
+
+   private final int _size;
+   private MFAMessageView _view;
+   private List<MFAMessage> _conversation;
+
+   public MFAMessageViewScaleTest(int size)
+   {
+      _size = size;
+   }
+
+   @Before
+   public void setUp()
+   {
+      _view = new MFAMessageView(RuntimeEnvironment.application);
+      _conversation = MFABenchmarkData.createConversation(_size + REPEAT, 0, 0, THIRTY_DAYS);
+      // Warm up the code paths under test so the JIT doesn't count against the budgets
+      MFAMessageView warmUp = new MFAMessageView(RuntimeEnvironment.application);
+      List<MFAMessage> warmUpMessages = MFABenchmarkData.createConversation(WARM_UP_SIZE + 1000, 0, 0, THIRTY_DAYS);
+      for (int i = 0; i < 3; i++)
+      {
+         warmUp.setMessages(new ArrayList<>(warmUpMessages.subList(0, WARM_UP_SIZE)));
+      }
+      for (int i = WARM_UP_SIZE; i < warmUpMessages.size(); i++)
+      {
+         warmUp.addMessage(warmUpMessages.get(i));
+      }
+      for (int i = 0; i < 500; i++)
+      {
+         warmUp.removeMessageAtPosition(0);
+         warmUp.removeMessageAtPosition(warmUp.getMessageList().size() - 1);
+      }
+      warmUp.clearAllMessages();
+   }
+
+   @Test
+   public void setMessages()
+   {
+      List<MFAMessage> messages = new ArrayList<>(_conversation.subList(0, _size));
+      long heapBefore = usedHeap();
+      long start = System.nanoTime();
+      _view.setMessages(messages);
+      long elapsed = System.nanoTime() - start;
+      long retained = usedHeap() - heapBefore;
+
+      assertEquals(_size, messages.size());
+      assertWithinBudget("setMessages", elapsed, SET_MESSAGES_NANOS + SET_MESSAGES_NANOS_PER_MESSAGE * _size);
+      assertTrue("setMessages retained " + retained + " bytes",
+            retained <= RETAINED_BYTES_PER_MESSAGE * _size);
+   }
+
+   @Test
+   public void addMessage()
+   {
+      List<MFAMessage> messages = new ArrayList<>(_conversation.subList(0, _size));
+      _view.setMessages(messages);
+      long start = System.nanoTime();
+      for (int i = 0; i < REPEAT; i++)
+      {
+         _view.addMessage(_conversation.get(_size + i));
+      }
+      long elapsed = System.nanoTime() - start;
+
+      assertEquals(_size + REPEAT, messages.size());
+      assertWithinBudget("addMessage", elapsed / REPEAT, ADD_MESSAGE_NANOS);
+   }
+
+   @Test
+   public void removeNewestMessage()
+   {
+      List<MFAMessage> messages = new ArrayList<>(_conversation.subList(0, _size));
+      _view.setMessages(messages);
+      long start = System.nanoTime();
+      for (int i = 0; i < REPEAT; i++)
+      {
+         _view.removeMessageAtPosition(messages.size() - 1);
+      }
+      long elapsed = System.nanoTime() - start;
+
+      assertEquals(_size - REPEAT, messages.size());
+      assertWithinBudget("Removing the newest message", elapsed / REPEAT, REMOVE_NEWEST_NANOS);
+   }
+
+   @Test
+   public void removeOldestMessage()
+   {
+      List<MFAMessage> messages = new ArrayList<>(_conversation.subList(0, _size));
+      _view.setMessages(messages);
+      long start = System.nanoTime();
+      // Removing the oldest message is the worst case, everything after it moves
+      for (int i = 0; i < REPEAT; i++)
+      {
+         _view.removeMessageAtPosition(0);
+      }
+      long elapsed = System.nanoTime() - start;
+
+      assertEquals(_size - REPEAT, messages.size());
+      assertWithinBudget("Removing the oldest message", elapsed / REPEAT,
+            REMOVE_OLDEST_NANOS + REMOVE_OLDEST_NANOS_PER_MESSAGE * _size);
+   }
+
+   @Test
+   public void clearAllMessages()
+   {
+      List<MFAMessage> messages = new ArrayList<>(_conversation.subList(0, _size));
+      long heapBefore = usedHeap();
+      _view.setMessages(messages);
+      long start = System.nanoTime();
+      _view.clearAllMessages();
+      long elapsed = System.nanoTime() - start;
+      long retained = usedHeap() - heapBefore;
+
+      assertTrue(messages.isEmpty());
+      assertWithinBudget("clearAllMessages", elapsed, CLEAR_NANOS + CLEAR_NANOS_PER_MESSAGE * _size);
+      assertTrue("clearAllMessages retained " + retained + " bytes", retained <= RETAINED_BYTES_AFTER_CLEAR);
+   }
+
+   private void assertWithinBudget(String operation, long nanos, long budget)
+   {
+      assertTrue(operation + " took " + nanos / 1000 + "us with " + _size + " messages, budget is " + budget / 1000 + "us",
+            nanos <= budget);
+   }
+
+   /**
+    * Helper method that returns the heap in use once garbage has been collected.
+    */
+   private static long usedHeap()
+   {
+      Runtime runtime = Runtime.getRuntime();
+      long used = Long.MAX_VALUE;
+      // A single request doesn't guarantee a full collection
+      for (int i = 0; i < 5; i++)
+      {
+         System.gc();
+         used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+      }
+      return used;
+   }
+}
@@ -0,0 +1,88 @@
+package com.multifacetedapproach.mfamessageview;
+
+import android.os.Build;
+import android.support.v7.widget.RecyclerView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks MFAMessageView's search keeps its matches in step with the messages
+ * and jumps between them in order. The view isn't laid out, so nothing is
+ * visible and jumps start from the ends of the conversation.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = Build.VERSION_CODES.O)
+public class MFAMessageViewSearchTest
+{
+   private MFAMessageView _view;
+   private List<MFAMessage> _messages;
+
+   @Before
+   public void setUp()
+   {
+      _view = new MFAMessageView(RuntimeEnvironment.application);
+      _messages = new ArrayList<>();
+      _messages.add(new MFAMessage(1, null, null, "Lunch at noon?", null, "", true));
+      _messages.add(new MFAMessage(2, "Alex", null, "Sure, lunchtime works", null, "", false));
+      _messages.add(new MFAMessage(3, null, null, "Great", null, "", true));
+      _messages.add(new MFAMessage(4, "Alex", null, "Where for lunch?", null, "", false));
+      _view.setMessages(_messages);
+   }
+
+   @Test
+   public void matchesFollowMessageChanges()
+   {
+      assertEquals(3, _view.search("LUN"));
+      assertArrayEquals(new int[] {0, 1, 3}, _view.getSearchMatchPositions());
+
+      _view.addMessage(new MFAMessage(5, null, null, "The lunch place on Main", null, "", true));
+      assertArrayEquals(new int[] {0, 1, 3, 4}, _view.getSearchMatchPositions());
+
+      _view.removeMessageAtPosition(1);
+      assertArrayEquals(new int[] {0, 2, 3}, _view.getSearchMatchPositions());
+
+      _view.clearAllMessages();
+      assertArrayEquals(new int[0], _view.getSearchMatchPositions());
+   }
+
+   @Test
+   public void everyWordMustMatch()
+   {
+      assertEquals(1, _view.search("lunch wor"));
+      assertArrayEquals(new int[] {1}, _view.getSearchMatchPositions());
+      assertEquals(0, _view.search("dinner"));
+   }
+
+   @Test
+   public void jumpsBetweenMatchesInOrder()
+   {
+      _view.search("lunch");
+      assertEquals(0, _view.jumpToNextMatch());
+      assertEquals(1, _view.jumpToNextMatch());
+      assertEquals(3, _view.jumpToNextMatch());
+      assertEquals(RecyclerView.NO_POSITION, _view.jumpToNextMatch());
+      assertEquals(1, _view.jumpToPreviousMatch());
+      assertEquals(0, _view.jumpToPreviousMatch());
+      assertEquals(RecyclerView.NO_POSITION, _view.jumpToPreviousMatch());
+   }
+
+   @Test
+   public void clearingTheSearchClearsTheMatches()
+   {
+      _view.search("lunch");
+      _view.clearSearch();
+      assertArrayEquals(new int[0], _view.getSearchMatchPositions());
+      assertEquals(RecyclerView.NO_POSITION, _view.jumpToNextMatch());
+   }
+}
@@ -0,0 +1,164 @@
+package com.multifacetedapproach.mfamessageview;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.widget.FrameLayout;
+
+import com.multifacetedapproach.mfamessageview.Listeners.MFAMetricsListener;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks what MFAMessageView and MFAMessageAdapter report to an MFAMetricsListener.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", sdk = Build.VERSION_CODES.O)
+public class MFAMetricsTest
+{
+   private RecordingListener _listener;
+   private MFAMessageView _view;
+   private Bitmap _photo;
+
+   @Before
+   public void setUp()
+   {
+      _listener = new RecordingListener();
+      _view = new MFAMessageView(RuntimeEnvironment.application);
+      _photo = MFABenchmarkData.createImage(320, 240);
+   }
+
+   @Test
+   public void reportsGroupingAndBitmapBytes()
+   {
+      _view.setMetricsListener(_listener);
+      List<MFAMessage> messages = new ArrayList<>();
+      messages.add(new MFAMessage(1, null, null, "On my way", null, "Today 9:05 AM", true));
+      messages.add(new MFAMessage(2, null, null, "", _photo, "Today 9:06 AM", true));
+      _view.setMessages(messages);
+
+      assertEquals(1, _listener.groupingPasses);
+      assertEquals(2, _listener.groupedMessages);
+      assertEquals(_photo.getByteCount(), _listener.bitmapBytes);
+
+      _view.addMessage(new MFAMessage(3, null, null, "", _photo, "Today 9:07 AM", true));
+      assertEquals(2, _listener.groupingPasses);
+      assertEquals(3, _listener.groupedMessages);
+      assertEquals(2L * _photo.getByteCount(), _listener.bitmapBytes);
+
+      _view.removeMessageAtPosition(1);
+      assertEquals(_photo.getByteCount(), _listener.bitmapBytes);
+
+      _view.clearAllMessages();
+      assertEquals(0, _listener.bitmapBytes);
+   }
+
+   @Test
+   public void reportsCreationBindingAndImageWork()
+   {
+      List<MFAMessage> messages = new ArrayList<>();
+      messages.add(new MFAMessage(1, null, null, "", _photo, "Today 9:05 AM", true));
+      MFAMessageAdapter adapter = new MFAMessageAdapter(RuntimeEnvironment.application, messages);
+      MFAMetrics metrics = new MFAMetrics(_listener, null);
+      metrics.onMessagesSet(messages);
+      adapter.setMetrics(metrics);
+      FrameLayout parent = new FrameLayout(RuntimeEnvironment.application);
+
+      MFAMessageAdapter.ViewHolder holder = adapter.createViewHolder(parent, adapter.getItemViewType(0));
+      adapter.bindViewHolder(holder, 0);
+      adapter.bindViewHolder(holder, 0);
+
+      assertEquals(1, _listener.created);
+      assertEquals(2, _listener.bound);
+      // Without an image scheduler the first bind crops on the main thread
+      assertEquals(1, _listener.cropped);
+      assertEquals(1, _listener.cacheMisses);
+      assertEquals(1, _listener.cacheHits);
+      Bitmap cropped = messages.get(0).peekCroppedImg();
+      assertEquals(_photo.getByteCount() + cropped.getByteCount(), _listener.bitmapBytes);
+   }
+
+   @Test
+   public void reportsEachCropOnce()
+   {
+      MFAMessage message = new MFAMessage(1, null, null, "", _photo, "Today 9:05 AM", true);
+      List<MFAMessage> messages = new ArrayList<>();
+      messages.add(message);
+      MFAMetrics metrics = new MFAMetrics(_listener, null);
+      metrics.onMessagesSet(messages);
+
+      Bitmap cropped = metrics.prepareCroppedImg(message);
+      // e.g. a main thread bind after a worker already prepared the image
+      assertSame(cropped, metrics.prepareCroppedImg(message));
+
+      assertEquals(1, _listener.cropped);
+      assertEquals(_photo.getByteCount() + cropped.getByteCount(), _listener.bitmapBytes);
+   }
+
+   private static class RecordingListener implements MFAMetricsListener
+   {
+      int created;
+      int bound;
+      int cropped;
+      int decoded;
+      int cacheHits;
+      int cacheMisses;
+      int groupingPasses;
+      int groupedMessages;
+      long bitmapBytes;
+
+      @Override
+      public void onViewHolderCreated(int viewType, long durationNanos)
+      {
+         created++;
+      }
+
+      @Override
+      public void onViewHolderBound(int viewType, long durationNanos)
+      {
+         bound++;
+      }
+
+      @Override
+      public void onImageCropped(long durationNanos, int bytes)
+      {
+         cropped++;
+      }
+
+      @Override
+      public void onImageDecoded(long durationNanos)
+      {
+         decoded++;
+      }
+
+      @Override
+      public void onImageCacheLookup(boolean hit)
+      {
+         if (hit) cacheHits++;
+         else cacheMisses++;
+      }
+
+      @Override
+      public void onGroupingPass(int messageCount, long durationNanos)
+      {
+         groupingPasses++;
+         groupedMessages += messageCount;
+      }
+
+      @Override
+      public void onBitmapBytesChanged(long bytes)
+      {
+         bitmapBytes = bytes;
+      }
+   }
+}
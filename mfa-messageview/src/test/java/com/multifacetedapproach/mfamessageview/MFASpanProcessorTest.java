@@ -0,0 +1,215 @@
+package com.multifacetedapproach.mfamessageview;
+
+import android.graphics.Typeface;
+import android.os.Build;
+import android.support.v7.widget.RecyclerView;
+import android.text.Spanned;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.StrikethroughSpan;
+import android.text.style.StyleSpan;
+import android.text.style.URLSpan;
+import android.view.View;
+
+import com.multifacetedapproach.mfamessageview.Helpers.MFASpanParser;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks what MFADefaultSpanParser styles, that MFASpanProcessor parses each
+ * message once off the main thread, caches the result per message and parses
+ * again when the text changes, and that spans reach cells that were bound
+ * before they were ready.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", sdk = Build.VERSION_CODES.O)
+public class MFASpanProcessorTest
+{
+   private static final long TIMEOUT_MILLIS = 10000;
+   // Size of the laid-out view
+   private static final int WIDTH = 480;
+   private static final int HEIGHT = 800;
+
+   private final MFADefaultSpanParser _parser = new MFADefaultSpanParser();
+   private final AtomicInteger _parses = new AtomicInteger();
+   private final List<MFAMessage> _prepared = new ArrayList<>();
+   private MFASpanProcessor _processor;
+
+   @Before
+   public void setUp()
+   {
+      MFASpanParser countingParser = new MFASpanParser()
+      {
+         @Override
+         public CharSequence parse(String text)
+         {
+            _parses.incrementAndGet();
+            return _parser.parse(text);
+         }
+      };
+      _processor = new MFASpanProcessor(countingParser, 2, new MFASpanProcessor.Listener()
+      {
+         @Override
+         public void onSpansPrepared(MFAMessage message)
+         {
+            _prepared.add(message);
+         }
+      });
+   }
+
+   @Test
+   public void stylesEmphasisLinksAndMentions()
+   {
+      Spanned text = (Spanned) _parser.parse("*Heads up* @sam, the _new_ ~old~ site is example.com/docs");
+      assertEquals("Heads up @sam, the new old site is example.com/docs", text.toString());
+
+      StyleSpan[] styles = text.getSpans(0, text.length(), StyleSpan.class);
+      assertEquals(Typeface.BOLD, styles[0].getStyle());
+      assertEquals(0, text.getSpanStart(styles[0]));
+      assertEquals(8, text.getSpanEnd(styles[0]));
+      assertSpan(text, StrikethroughSpan.class, "old");
+      assertSpan(text, ForegroundColorSpan.class, "@sam");
+      URLSpan link = assertSpan(text, URLSpan.class, "example.com/docs");
+      assertEquals("http://example.com/docs", link.getURL());
+   }
+
+   @Test
+   public void leavesPlainTextAlone()
+   {
+      String plain = "See you at 5";
+      assertSame(plain, _parser.parse(plain));
+      String notMarkup = "2*3*4 is 24, mail me at sam@example";
+      assertSame(notMarkup, _parser.parse(notMarkup));
+   }
+
+   @Test
+   public void parsesOnceAndCaches() throws InterruptedException
+   {
+      MFAMessage message = new MFAMessage(7, "Alex", null, "*Soon*", null, "", false);
+      assertNull(_processor.get(message));
+      assertNull(_processor.get(message));
+      awaitPrepared(1);
+
+      CharSequence text = _processor.get(message);
+      assertNotNull(text);
+      assertEquals("Soon", text.toString());
+      assertSame(message, _prepared.get(0));
+      // A copy with the same UID and text shares the result
+      assertSame(text, _processor.get(new MFAMessage(7, "Alex", null, "*Soon*", null, "", false)));
+      assertEquals(1, _parses.get());
+
+      message.setMessage("*Later*");
+      assertNull(_processor.get(message));
+      awaitPrepared(2);
+      assertEquals("Later", _processor.get(message).toString());
+   }
+
+   @Test
+   public void evictsLeastRecentlyUsed() throws InterruptedException
+   {
+      MFAMessage first = new MFAMessage(1, "Alex", null, "_one_", null, "", false);
+      MFAMessage second = new MFAMessage(2, "Alex", null, "_two_", null, "", false);
+      MFAMessage third = new MFAMessage(3, "Alex", null, "_three_", null, "", false);
+      _processor.prepare(first);
+      _processor.prepare(second);
+      _processor.prepare(third);
+      awaitPrepared(3);
+
+      assertNull(_processor.get(first));
+      assertNotNull(_processor.get(third));
+   }
+
+   @Test
+   public void spansReachCellsInTheViewCache() throws InterruptedException
+   {
+      MFAMessageView view = new MFAMessageView(RuntimeEnvironment.application);
+      view.setSpanParser(_parser);
+      List<MFAMessage> messages = new ArrayList<>();
+      for (int i = 0; i < 30; i++)
+      {
+         messages.add(new MFAMessage(i + 1, null, null, "Message *" + i + "*", null, "", true));
+      }
+      // Hold the spans back until the cells have been bound with plain text
+      ShadowLooper.pauseMainLooper();
+      view.setMessages(messages);
+      layOut(view);
+      View top = view.getChildAt(0);
+      assertFalse(getText(view, top) instanceof Spanned);
+      // Scroll the top cells off screen, into RecyclerView's view cache
+      int distance = view.getChildAt(2).getTop();
+      view.scrollBy(0, distance);
+      assertTrue(top.getParent() == null);
+      final Set<Integer> changed = new HashSet<>();
+      view.getAdapter().registerAdapterDataObserver(new RecyclerView.AdapterDataObserver()
+      {
+         @Override
+         public void onItemRangeChanged(int positionStart, int itemCount, Object payload)
+         {
+            assertSame(MFAMessageAdapter.PAYLOAD_SPANS, payload);
+            for (int i = 0; i < itemCount; i++) changed.add(positionStart + i);
+         }
+      });
+
+      // Parses run in order on one thread, so the view's are delivered before this one
+      _processor.prepare(new MFAMessage(100, null, null, "*Done*", null, "", true));
+      awaitPrepared(1);
+      assertTrue(changed.contains(0));
+      assertTrue(changed.contains(1));
+      view.scrollBy(0, -distance);
+      layOut(view);
+      assertEquals(0, view.getChildAdapterPosition(view.getChildAt(0)));
+      for (int i = 0; i < view.getChildCount(); i++)
+      {
+         assertTrue("child " + i, getText(view, view.getChildAt(i)) instanceof Spanned);
+      }
+   }
+
+   private static void layOut(MFAMessageView view)
+   {
+      view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+            View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+      view.layout(0, 0, WIDTH, HEIGHT);
+   }
+
+   private static CharSequence getText(MFAMessageView view, View child)
+   {
+      return ((MFAMessageAdapter.ViewHolder) view.getChildViewHolder(child)).message.getText();
+   }
+
+   private void awaitPrepared(int count) throws InterruptedException
+   {
+      long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+      while (_prepared.size() < count && System.currentTimeMillis() < deadline)
+      {
+         Thread.sleep(5);
+         ShadowLooper.idleMainLooper();
+      }
+      assertEquals(count, _prepared.size());
+   }
+
+   private static <T> T assertSpan(Spanned text, Class<T> type, String covered)
+   {
+      T[] spans = text.getSpans(0, text.length(), type);
+      assertEquals(1, spans.length);
+      assertEquals(covered, text.subSequence(text.getSpanStart(spans[0]), text.getSpanEnd(spans[0])).toString());
+      return spans[0];
+   }
+}
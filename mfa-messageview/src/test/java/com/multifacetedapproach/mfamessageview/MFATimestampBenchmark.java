@@ -0,0 +1,69 @@
+package com.multifacetedapproach.mfamessageview;
+
+import com.multifacetedapproach.mfamessageview.core.MFATimeFormatter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timestamp parsing and formatting as done by MFATimeFormatter for every
+ * message added to an MFAMessageView. The span controls which of the terse
+ * formats is produced: within a day most messages read "Today ...", within a
+ * year most are dated, and over several years they include the year.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MFATimestampBenchmark
+{
+   private static final int COUNT = 1024;
+   private static final long ONE_HOUR = 60L * 60 * 1000;
+
+   // Hours covered by the conversation: a day, a week, a year, five years
+   @Param({"24", "168", "8760", "43800"})
+   public long spanHours;
+
+   private MFATimeFormatter _formatter;
+   private String[] _timestamps;
+   private long[] _times;
+   private int _next;
+
+   @Setup
+   public void setUp()
+   {
+      _formatter = new MFATimeFormatter(MFABenchmarkData.createDateFormat());
+      _timestamps = MFABenchmarkData.createTimestamps(COUNT, spanHours * ONE_HOUR);
+      _times = new long[COUNT];
+      for (int i = 0; i < COUNT; i++)
+      {
+         _times[i] = _formatter.parse(_timestamps[i]);
+      }
+   }
+
+   private int next()
+   {
+      int i = _next;
+      _next = (i + 1 == COUNT) ? 0 : i + 1;
+      return i;
+   }
+
+   @Benchmark
+   public long getTimeInMillis()
+   {
+      return _formatter.parse(_timestamps[next()]);
+   }
+
+   @Benchmark
+   public String getFormattedDate()
+   {
+      return _formatter.format(_times[next()]);
+   }
+}